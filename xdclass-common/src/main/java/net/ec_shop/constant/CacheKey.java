@@ -10,4 +10,94 @@ public class CacheKey {
      * 购物车 hash 结果，key是用户唯一标识
      */
     public static final String CART_KEY = "cart:%s";
+
+    /**
+     * 秒杀领券排队结果，key是排队凭证
+     */
+    public static final String COUPON_CLAIM_RESULT_KEY = "coupon:claim:%s";
+
+    /**
+     * 用户可用优惠券索引 zset，key是用户唯一标识
+     */
+    public static final String COUPON_USABLE_INDEX_KEY = "coupon:usable:%s";
+
+    /**
+     * 用户可用优惠券索引版本号，每次变更加一，key是用户唯一标识
+     */
+    public static final String COUPON_USABLE_VERSION_KEY = "coupon:usable_ver:%s";
+
+    /**
+     * 商品详情缓存，key是商品id
+     */
+    public static final String PRODUCT_DETAIL_KEY = "product:detail:%s";
+
+    /**
+     * 商品缓存失效广播的topic
+     */
+    public static final String PRODUCT_INVALIDATE_TOPIC = "product:invalidate";
+
+    /**
+     * 商品标题等检索字段变更广播的topic
+     */
+    public static final String PRODUCT_SEARCH_TOPIC = "product:search";
+
+    /**
+     * 商品id布隆过滤器
+     */
+    public static final String PRODUCT_BLOOM_KEY = "product:bloom";
+
+    /**
+     * 商品可用库存，redis库存模式下使用，key是商品id
+     */
+    public static final String STOCK_AVAILABLE_KEY = "stock:available:%s";
+
+    /**
+     * 订单库存预占 hash，key是订单号
+     */
+    public static final String STOCK_RESERVE_KEY = "stock:reserve:%s";
+
+    /**
+     * 待同步到数据库的预占订单号队列
+     */
+    public static final String STOCK_RESERVE_PENDING_KEY = "stock:reserve:pending";
+
+    /**
+     * 未同步订单的预占明细 hash，field是订单号，不过期，重新计算可用库存时扣除这部分数量
+     */
+    public static final String STOCK_RESERVE_ITEMS_KEY = "stock:reserve:items";
+
+    /**
+     * 写回数据库失败的预占订单号队列，定时重试
+     */
+    public static final String STOCK_RESERVE_FAILED_KEY = "stock:reserve:failed";
+
+    /**
+     * 商品价格版本，价格每变一次加一
+     */
+    public static final String PRODUCT_PRICE_VERSION_KEY = "product:price_version:%s";
+
+    /**
+     * 商品变更扫描记录的上次看到的价格和展示字段摘要 hash，field是商品id，值是 价格:摘要
+     */
+    public static final String PRODUCT_FINGERPRINT_KEY = "product:fingerprint";
+
+    /**
+     * 购物车内存统计结果，json
+     */
+    public static final String CART_MEMORY_REPORT_KEY = "report:cart_memory";
+
+    /**
+     * 商品销量排行 zset，key是排行名：total、24h、7d，以及小时桶hour:{n}、天桶day:{n}
+     */
+    public static final String PRODUCT_RANK_KEY = "product:rank:%s";
+
+    /**
+     * 买了还买订单广播的topic
+     */
+    public static final String PRODUCT_CO_PURCHASE_TOPIC = "product:co_purchase";
+
+    /**
+     * 买了还买计数快照，gzip压缩的二进制
+     */
+    public static final String PRODUCT_CO_PURCHASE_SNAPSHOT_KEY = "product:co_purchase:snapshot";
 }
@@ -14,6 +14,14 @@ public enum BizCodeEnum {
      * 购物车
      */
     CART_FAIL(220001, "添加购物车失败"),
+    CART_ITEM_LIMIT(220002, "购物车商品种类超过上限"),
+    CART_NUM_LIMIT(220003, "购物车商品数量超过上限"),
+
+
+    /**
+     * 商品
+     */
+    PRODUCT_NOT_EXIST(260001, "商品不存在"),
 
 
     /**
@@ -44,6 +52,8 @@ public enum BizCodeEnum {
     COUPON_OUT_OF_TIME(270407, "优惠券不在领取时间范围"),
     COUPON_GET_FAIL(270407, "优惠券领取失败"),
     COUPON_RECORD_LOCK_FAIL(270409, "优惠券锁定失败"),
+    COUPON_CLAIM_BUSY(270410, "领券人数过多，请稍后再试"),
+    COUPON_CLAIM_TICKET_NOT_EXIST(270411, "领券排队凭证不存在或已过期"),
 
 
     /**
@@ -0,0 +1,22 @@
+package net.ec_shop.enums;
+
+/**
+ * 秒杀领券排队结果状态
+ */
+public enum CouponClaimStateEnum {
+
+    /**
+     * 排队中
+     */
+    QUEUED,
+
+    /**
+     * 领取成功
+     */
+    SUCCESS,
+
+    /**
+     * 领取失败
+     */
+    FAIL
+}
@@ -0,0 +1,19 @@
+package net.ec_shop.model;
+
+import lombok.Data;
+
+
+@Data
+public class ProductMessage {
+
+    /**
+     * 消息id
+     */
+    private String messageId;
+
+    /**
+     * 订单号，一个订单一条消息，释放该订单下全部商品库存锁定任务
+     */
+    private String outTradeNo;
+
+}
@@ -0,0 +1,325 @@
+package net.ec_shop.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品共同购买计数，稀疏存储，用于"买了还买"
+ * 1）外层是long key的开放寻址表，每个商品一行，行里是邻居id和次数两个基本类型数组，全程没有Long、Integer装箱
+ * 2）每行最多保留maxNeighbors个邻居，满了用Space-Saving替换次数最小的邻居，新邻居次数记为最小值加本次数量，
+ * 内存有上限，真正高频的邻居不会被挤掉
+ * 3）一个订单里的商品去重后两两加一，超过maxBasket个商品只取前面的，避免大订单平方级更新
+ * 读写锁保护，支持导出导入二进制快照
+ */
+public class CoOccurrenceIndex {
+
+    private static final int VERSION = 1;
+
+    private final int maxNeighbors;
+
+    private final int maxBasket;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long[] keys;
+
+    /**
+     * 为null的是空槽
+     */
+    private Row[] rows;
+
+    private int size;
+
+    public CoOccurrenceIndex(int maxNeighbors, int maxBasket) {
+        this.maxNeighbors = maxNeighbors;
+        this.maxBasket = maxBasket;
+        this.keys = new long[16];
+        this.rows = new Row[16];
+    }
+
+    /**
+     * 记录一个订单的商品
+     *
+     * @param basket 订单里的商品id，可以重复
+     */
+    public void add(long[] basket) {
+        LongHashSet distinct = new LongHashSet(Math.min(basket.length, maxBasket));
+        for (long productId : basket) {
+            if (distinct.size() >= maxBasket) {
+                break;
+            }
+            distinct.add(productId);
+        }
+        if (distinct.size() < 2) {
+            return;
+        }
+        long[] productIds = distinct.toArray();
+        lock.writeLock().lock();
+        try {
+            for (long productId : productIds) {
+                Row row = getOrCreate(productId);
+                for (long other : productIds) {
+                    if (other != productId) {
+                        row.increment(other, maxNeighbors);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 和productId一起购买次数最多的商品
+     *
+     * @param productId
+     * @param topK
+     * @return 按次数倒序
+     */
+    public long[] top(long productId, int topK) {
+        lock.readLock().lock();
+        try {
+            Row row = rows[indexOf(productId, keys, rows)];
+            return row == null ? new long[0] : row.top(topK);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 有共同购买记录的商品数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 估算占用的堆内存，字节，按压缩指针算
+     */
+    public long estimateBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 16 + 8L * keys.length + 16 + 4L * rows.length + 16;
+            for (Row row : rows) {
+                if (row != null) {
+                    bytes += 24 + 16 + 8L * row.ids.length + 16 + 4L * row.counts.length;
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 导出快照：版本、商品数，每个商品是id、邻居数、邻居id和次数
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int i = 0; i < rows.length; i++) {
+                Row row = rows[i];
+                if (row == null) {
+                    continue;
+                }
+                out.writeLong(keys[i]);
+                out.writeInt(row.size);
+                for (int j = 0; j < row.size; j++) {
+                    out.writeLong(row.ids[j]);
+                    out.writeInt(row.counts[j]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从快照恢复，邻居上限比快照小时只保留次数最多的
+     *
+     * @param in
+     * @param maxNeighbors
+     * @param maxBasket
+     * @return
+     * @throws IOException
+     */
+    public static CoOccurrenceIndex readFrom(DataInput in, int maxNeighbors, int maxBasket) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("不支持的快照版本：" + version);
+        }
+        int count = in.readInt();
+        CoOccurrenceIndex index = new CoOccurrenceIndex(maxNeighbors, maxBasket);
+        index.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            long productId = in.readLong();
+            int neighbors = in.readInt();
+            Row row = new Row(neighbors);
+            for (int j = 0; j < neighbors; j++) {
+                row.ids[j] = in.readLong();
+                row.counts[j] = in.readInt();
+            }
+            row.size = neighbors;
+            row.shrink(maxNeighbors);
+            int slot = indexOf(productId, index.keys, index.rows);
+            index.keys[slot] = productId;
+            index.rows[slot] = row;
+            index.size++;
+        }
+        return index;
+    }
+
+    private Row getOrCreate(long productId) {
+        int index = indexOf(productId, keys, rows);
+        Row row = rows[index];
+        if (row == null) {
+            row = new Row(4);
+            keys[index] = productId;
+            rows[index] = row;
+            if (++size * 2 > keys.length) {
+                resize(keys.length << 1);
+            }
+        }
+        return row;
+    }
+
+    private void ensureCapacity(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        if (capacity > keys.length) {
+            resize(capacity);
+        }
+    }
+
+    /**
+     * 返回key所在槽位，不存在则返回应插入的空槽位
+     */
+    private static int indexOf(long key, long[] keys, Row[] rows) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (rows[index] != null && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize(int capacity) {
+        long[] newKeys = new long[capacity];
+        Row[] newRows = new Row[capacity];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] != null) {
+                int index = indexOf(keys[i], newKeys, newRows);
+                newKeys[index] = keys[i];
+                newRows[index] = rows[i];
+            }
+        }
+        keys = newKeys;
+        rows = newRows;
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 一个商品的邻居，数组从小开始按需翻倍到上限，邻居不多时直接顺序查找
+     */
+    private static final class Row {
+
+        private long[] ids;
+
+        private int[] counts;
+
+        private int size;
+
+        Row(int capacity) {
+            ids = new long[Math.max(1, capacity)];
+            counts = new int[Math.max(1, capacity)];
+        }
+
+        void increment(long id, int maxNeighbors) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    if (counts[i] < Integer.MAX_VALUE) {
+                        counts[i]++;
+                    }
+                    return;
+                }
+            }
+            if (size < maxNeighbors) {
+                if (size == ids.length) {
+                    int capacity = Math.min(maxNeighbors, size << 1);
+                    ids = Arrays.copyOf(ids, capacity);
+                    counts = Arrays.copyOf(counts, capacity);
+                }
+                ids[size] = id;
+                counts[size] = 1;
+                size++;
+                return;
+            }
+            int min = 0;
+            for (int i = 1; i < size; i++) {
+                if (counts[i] < counts[min]) {
+                    min = i;
+                }
+            }
+            ids[min] = id;
+            counts[min]++;
+        }
+
+        long[] top(int topK) {
+            long[] sorted = sortedByCount();
+            int n = Math.min(topK, size);
+            long[] result = new long[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = ids[(int) sorted[size - 1 - i]];
+            }
+            return result;
+        }
+
+        /**
+         * 只保留次数最多的limit个邻居
+         */
+        void shrink(int limit) {
+            if (size <= limit) {
+                return;
+            }
+            long[] sorted = sortedByCount();
+            long[] newIds = new long[limit];
+            int[] newCounts = new int[limit];
+            for (int i = 0; i < limit; i++) {
+                int index = (int) sorted[size - 1 - i];
+                newIds[i] = ids[index];
+                newCounts[i] = counts[index];
+            }
+            ids = newIds;
+            counts = newCounts;
+            size = limit;
+        }
+
+        /**
+         * 次数放高32位、下标放低32位，排序后从后往前就是次数倒序，次数相同时下标大的在前
+         */
+        private long[] sortedByCount() {
+            long[] packed = new long[size];
+            for (int i = 0; i < size; i++) {
+                packed[i] = ((long) counts[i] << 32) | i;
+            }
+            Arrays.sort(packed);
+            return packed;
+        }
+    }
+}
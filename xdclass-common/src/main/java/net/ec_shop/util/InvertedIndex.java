@@ -0,0 +1,614 @@
+package net.ec_shop.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 短文本倒排索引，用于商品标题检索
+ * 1）切词：中日韩文字建索引时切单字和相邻二字，查询时连续两个字以上只用二字；字母、数字按连续串各自成词，统一小写
+ * 2）文档号是内部递增的int，对外用long key；倒排表按文档号递增存差值的变长编码
+ * 3）打分用BM25，标题里词频都按1算，至少命中一半查询词才参与排序，返回前topK个key
+ * 4）更新是删掉旧文档再追加新文档，删除只打标记，删除多了调用compact重排文档号
+ * 读写锁保护，适合读多写少
+ */
+public class InvertedIndex {
+
+    private static final float K1 = 1.2f;
+
+    private static final float B = 0.75f;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Map<String, PostingList> postings = new HashMap<>();
+
+    /**
+     * 文档号 -> key
+     */
+    private long[] docKeys = new long[16];
+
+    /**
+     * 文档号 -> 词数，用于长度归一
+     */
+    private int[] docLengths = new int[16];
+
+    /**
+     * 文档号 -> 原文的hashCode，用于和数据源对账时判断文本是否变化
+     */
+    private int[] docHashes = new int[16];
+
+    /**
+     * 已分配的文档号数量，包含已删除的
+     */
+    private int docCount;
+
+    private BitSet deleted = new BitSet();
+
+    private int deletedCount;
+
+    /**
+     * 未删除文档的总词数
+     */
+    private long totalLength;
+
+    private LongIntMap keyToDoc = new LongIntMap(16);
+
+    /**
+     * 添加文档，key已存在则替换
+     *
+     * @param key
+     * @param text
+     */
+    public void add(long key, String text) {
+        List<String> terms = tokenize(text, false);
+        lock.writeLock().lock();
+        try {
+            removeInternal(key);
+            if (terms.isEmpty()) {
+                return;
+            }
+            int doc = docCount++;
+            if (doc == docKeys.length) {
+                docKeys = Arrays.copyOf(docKeys, doc << 1);
+                docLengths = Arrays.copyOf(docLengths, doc << 1);
+                docHashes = Arrays.copyOf(docHashes, doc << 1);
+            }
+            docKeys[doc] = key;
+            docLengths[doc] = terms.size();
+            docHashes[doc] = Objects.hashCode(text);
+            totalLength += terms.size();
+            for (String term : terms) {
+                postings.computeIfAbsent(term, k -> new PostingList()).add(doc);
+            }
+            keyToDoc.put(key, doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除文档
+     *
+     * @param key
+     * @return 存在返回true
+     */
+    public boolean remove(long key) {
+        lock.writeLock().lock();
+        try {
+            return removeInternal(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 文档是否已按这段文本建了索引，按hashCode比较，切不出词的文本不建索引，也算一致
+     *
+     * @param key
+     * @param text
+     * @return
+     */
+    public boolean contains(long key, String text) {
+        lock.readLock().lock();
+        try {
+            int doc = keyToDoc.get(key);
+            if (doc >= 0) {
+                return docHashes[doc] == Objects.hashCode(text);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return tokenize(text, false).isEmpty();
+    }
+
+    /**
+     * 未删除文档的key
+     *
+     * @return 升序
+     */
+    public long[] keys() {
+        long[] keys;
+        lock.readLock().lock();
+        try {
+            keys = new long[docCount - deletedCount];
+            int i = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                if (!deleted.get(doc)) {
+                    keys[i++] = docKeys[doc];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * 检索
+     *
+     * @param query
+     * @param topK
+     * @return 按相关度从高到低的key
+     */
+    public long[] search(String query, int topK) {
+        List<String> terms = tokenize(query, true);
+        if (terms.isEmpty() || topK <= 0) {
+            return new long[0];
+        }
+        lock.readLock().lock();
+        try {
+            int live = docCount - deletedCount;
+            if (live == 0) {
+                return new long[0];
+            }
+            float avgLength = Math.max(1f, (float) totalLength / live);
+            int minMatch = (terms.size() + 1) / 2;
+
+            List<Cursor> cursorList = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                PostingList postingList = postings.get(term);
+                if (postingList != null) {
+                    float idf = (float) Math.log(1 + (live - postingList.count + 0.5) / (postingList.count + 0.5));
+                    Cursor cursor = new Cursor(postingList, idf);
+                    cursor.next();
+                    cursorList.add(cursor);
+                }
+            }
+            if (cursorList.size() < minMatch) {
+                return new long[0];
+            }
+            Cursor[] cursors = cursorList.toArray(new Cursor[0]);
+
+            //命中minMatch个词的文档一定出现在最短的(n - minMatch + 1)个倒排表里，只从这些表里取候选，长表只跟着跳
+            Arrays.sort(cursors, Comparator.comparingInt(obj -> obj.list.count));
+            int leading = cursors.length - minMatch + 1;
+
+            //小顶堆保留分数最高的topK个，分数相同的保留先加入的
+            PriorityQueue<ScoreDoc> heap = new PriorityQueue<>(topK + 1,
+                    Comparator.comparingDouble((ScoreDoc obj) -> obj.score).thenComparingInt(obj -> -obj.doc));
+            while (true) {
+                int doc = Integer.MAX_VALUE;
+                for (int i = 0; i < leading; i++) {
+                    if (cursors[i].doc < doc) {
+                        doc = cursors[i].doc;
+                    }
+                }
+                if (doc == Integer.MAX_VALUE) {
+                    break;
+                }
+                float idfSum = 0;
+                int matched = 0;
+                for (int i = 0; i < cursors.length; i++) {
+                    Cursor cursor = cursors[i];
+                    if (i >= leading) {
+                        cursor.advance(doc);
+                    }
+                    if (cursor.doc == doc) {
+                        idfSum += cursor.idf;
+                        matched++;
+                        cursor.next();
+                    }
+                }
+                if (matched < minMatch || deleted.get(doc)) {
+                    continue;
+                }
+                float score = idfSum * (K1 + 1) / (1 + K1 * (1 - B + B * docLengths[doc] / avgLength));
+                if (heap.size() < topK) {
+                    heap.offer(new ScoreDoc(doc, score));
+                } else if (score > heap.peek().score) {
+                    heap.poll();
+                    heap.offer(new ScoreDoc(doc, score));
+                }
+            }
+
+            long[] keys = new long[heap.size()];
+            for (int i = keys.length - 1; i >= 0; i--) {
+                keys[i] = docKeys[heap.poll().doc];
+            }
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 去掉已删除文档，重新分配连续的文档号并收紧数组
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int[] remap = new int[docCount];
+            int live = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                if (deleted.get(doc)) {
+                    remap[doc] = -1;
+                } else {
+                    remap[doc] = live;
+                    docKeys[live] = docKeys[doc];
+                    docLengths[live] = docLengths[doc];
+                    docHashes[live] = docHashes[doc];
+                    live++;
+                }
+            }
+
+            Map<String, PostingList> newPostings = new HashMap<>(postings.size() * 4 / 3 + 1);
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                PostingList newList = new PostingList();
+                Cursor cursor = new Cursor(entry.getValue(), 0);
+                while (cursor.next()) {
+                    if (remap[cursor.doc] >= 0) {
+                        newList.add(remap[cursor.doc]);
+                    }
+                }
+                if (newList.count > 0) {
+                    newList.trim();
+                    newPostings.put(entry.getKey(), newList);
+                }
+            }
+
+            LongIntMap newKeyToDoc = new LongIntMap(live);
+            for (int doc = 0; doc < live; doc++) {
+                newKeyToDoc.put(docKeys[doc], doc);
+            }
+
+            postings = newPostings;
+            docKeys = Arrays.copyOf(docKeys, Math.max(16, live));
+            docLengths = Arrays.copyOf(docLengths, Math.max(16, live));
+            docHashes = Arrays.copyOf(docHashes, Math.max(16, live));
+            docCount = live;
+            deleted = new BitSet();
+            deletedCount = 0;
+            keyToDoc = newKeyToDoc;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 未删除的文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docCount - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已删除文档占比，用于判断是否需要compact
+     */
+    public double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return docCount == 0 ? 0 : (double) deletedCount / docCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 倒排表编码后占用的字节数，不含词典和对象头
+     */
+    public long postingBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (PostingList postingList : postings.values()) {
+                bytes += postingList.data.length;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 切词
+     *
+     * @param text
+     * @param query 查询时连续的中日韩文字只切二字，提高准确度
+     * @return 去重后的词，保持出现顺序
+     */
+    public static List<String> tokenize(String text, boolean query) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        int[] cjkRun = new int[text.length()];
+        int cjkLength = 0;
+        StringBuilder word = new StringBuilder();
+        boolean wordIsDigit = false;
+
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                flushWord(word, terms);
+                cjkRun[cjkLength++] = codePoint;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                cjkLength = flushCjk(cjkRun, cjkLength, query, terms);
+                boolean isDigit = Character.isDigit(codePoint);
+                //字母和数字分开，iPhone13和iphone 13切出来一样
+                if (word.length() > 0 && isDigit != wordIsDigit) {
+                    flushWord(word, terms);
+                }
+                wordIsDigit = isDigit;
+                word.appendCodePoint(Character.toLowerCase(codePoint));
+            } else {
+                flushWord(word, terms);
+                cjkLength = flushCjk(cjkRun, cjkLength, query, terms);
+            }
+        }
+        flushWord(word, terms);
+        flushCjk(cjkRun, cjkLength, query, terms);
+        return new ArrayList<>(terms);
+    }
+
+    private boolean removeInternal(long key) {
+        int doc = keyToDoc.remove(key);
+        if (doc < 0) {
+            return false;
+        }
+        deleted.set(doc);
+        deletedCount++;
+        totalLength -= docLengths[doc];
+        return true;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static void flushWord(StringBuilder word, Set<String> terms) {
+        if (word.length() > 0) {
+            terms.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static int flushCjk(int[] run, int length, boolean query, Set<String> terms) {
+        if (!query || length == 1) {
+            for (int i = 0; i < length; i++) {
+                terms.add(new String(run, i, 1));
+            }
+        }
+        for (int i = 0; i + 1 < length; i++) {
+            terms.add(new String(run, i, 2));
+        }
+        return 0;
+    }
+
+    /**
+     * 倒排表，文档号差值按7位一组变长编码，单调递增追加
+     */
+    private static final class PostingList {
+
+        private byte[] data = new byte[4];
+
+        /**
+         * 已用字节数
+         */
+        private int length;
+
+        /**
+         * 文档数，包含已删除的
+         */
+        private int count;
+
+        private int lastDoc = -1;
+
+        void add(int doc) {
+            int delta = doc - lastDoc;
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + 5, data.length + (data.length >> 1)));
+            }
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            lastDoc = doc;
+            count++;
+        }
+
+        void trim() {
+            if (data.length > length) {
+                data = Arrays.copyOf(data, length);
+            }
+        }
+    }
+
+    private static final class Cursor {
+
+        private final PostingList list;
+
+        private final float idf;
+
+        private int pos;
+
+        private int doc = -1;
+
+        Cursor(PostingList list, float idf) {
+            this.list = list;
+            this.idf = idf;
+        }
+
+        /**
+         * 移到下一个文档，没有了doc置为Integer.MAX_VALUE
+         */
+        boolean next() {
+            if (pos >= list.length) {
+                doc = Integer.MAX_VALUE;
+                return false;
+            }
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = list.data[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            return true;
+        }
+
+        /**
+         * 移到第一个不小于target的文档
+         */
+        void advance(int target) {
+            while (doc < target && next()) {
+            }
+        }
+    }
+
+    private static final class ScoreDoc {
+
+        private final int doc;
+
+        private final float score;
+
+        ScoreDoc(int doc, float score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    /**
+     * long到int的哈希表，开放寻址线性探测，不存在返回-1
+     */
+    private static final class LongIntMap {
+
+        private long[] keys;
+
+        private int[] values;
+
+        private boolean[] used;
+
+        private int size;
+
+        LongIntMap(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+            keys = new long[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+        }
+
+        void put(long key, int value) {
+            int index = indexOf(key);
+            if (!used[index]) {
+                used[index] = true;
+                keys[index] = key;
+                size++;
+            }
+            values[index] = value;
+            if (size * 2 > keys.length) {
+                resize();
+            }
+        }
+
+        int get(long key) {
+            int index = indexOf(key);
+            return used[index] ? values[index] : -1;
+        }
+
+        int remove(long key) {
+            int index = indexOf(key);
+            if (!used[index]) {
+                return -1;
+            }
+            int value = values[index];
+            //后面同一探测链上的元素往前挪，保证查找不会提前遇到空槽
+            int mask = keys.length - 1;
+            int hole = index;
+            int next = (hole + 1) & mask;
+            while (used[next]) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            used[hole] = false;
+            size--;
+            return value;
+        }
+
+        private int indexOf(long key) {
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            while (used[index] && keys[index] != key) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length << 1];
+            values = new int[oldKeys.length << 1];
+            used = new boolean[oldKeys.length << 1];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(long value) {
+            long h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.ec_shop.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * long基本类型的哈希集合，开放寻址线性探测，避免Long装箱
+ * 非线程安全，用于单次请求内的id匹配、去重
+ */
+public class LongHashSet {
+
+    /**
+     * 0作为空槽标记，0本身单独记录
+     */
+    private static final long EMPTY = 0L;
+
+    private long[] table;
+
+    private int size;
+
+    private boolean containsZero;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.table = new long[capacity];
+    }
+
+    public static LongHashSet of(Collection<Long> values) {
+        LongHashSet set = new LongHashSet(values.size());
+        for (Long value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    /**
+     * 添加元素
+     *
+     * @param value
+     * @return 集合中原来不存在返回true
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int index = indexOf(value, table);
+        if (table[index] == value) {
+            return false;
+        }
+        table[index] = value;
+        if (++size * 2 > table.length) {
+            resize();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        return table[indexOf(value, table)] == value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 导出为数组，顺序不保证
+     *
+     * @return
+     */
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        if (containsZero) {
+            result[i++] = EMPTY;
+        }
+        for (long value : table) {
+            if (value != EMPTY) {
+                result[i++] = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 返回value所在槽位，不存在则返回应插入的空槽位
+     */
+    private static int indexOf(long value, long[] table) {
+        int mask = table.length - 1;
+        int index = hash(value) & mask;
+        while (table[index] != EMPTY && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        long[] newTable = new long[table.length << 1];
+        for (long value : table) {
+            if (value != EMPTY) {
+                newTable[indexOf(value, newTable)] = value;
+            }
+        }
+        table = newTable;
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
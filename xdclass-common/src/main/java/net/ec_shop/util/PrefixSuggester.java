@@ -0,0 +1,327 @@
+package net.ec_shop.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * 前缀联想词典，构建后不可变，可多线程并发查询
+ * 相当于把字典树压平：所有候选按小写排序后，字典树的每个节点就是数组里的一段连续区间，
+ * 不用存节点对象，只存排好序的串和一棵区间最大权重的线段树
+ * 1）查询先二分找到前缀对应的区间，再在区间里按权重从大到小取前N个，耗时和词典大小基本无关
+ * 2）标题里每个空格后的词也作为一个起点，输入中间的词也能联想到
+ * 3）原文统一存在一个char数组里，返回时才生成字符串，没有每条一个String的对象开销
+ */
+public class PrefixSuggester {
+
+    /**
+     * 每个候选最多取几个起点
+     */
+    private static final int MAX_STARTS_PER_TEXT = 8;
+
+    private final char[] chars;
+
+    /**
+     * 第i个候选在chars里是[textOffsets[i], textOffsets[i + 1])
+     */
+    private final int[] textOffsets;
+
+    private final long[] weights;
+
+    /**
+     * 按小写排好序的起点，对应的候选和起点偏移
+     */
+    private final int[] keyTexts;
+
+    private final int[] keyStarts;
+
+    /**
+     * 线段树的内部节点，存子树里权重最大的起点下标，-1为空；叶子就是起点下标本身，不用存
+     */
+    private final int[] tree;
+
+    private final int leafBase;
+
+    private PrefixSuggester(char[] chars, int[] textOffsets, long[] weights, int[] keyTexts, int[] keyStarts) {
+        this.chars = chars;
+        this.textOffsets = textOffsets;
+        this.weights = weights;
+        this.keyTexts = keyTexts;
+        this.keyStarts = keyStarts;
+
+        int base = 1;
+        while (base < keyTexts.length) {
+            base <<= 1;
+        }
+        this.leafBase = base;
+        this.tree = new int[base];
+        for (int node = base - 1; node > 0; node--) {
+            tree[node] = better(node(node << 1), node((node << 1) + 1));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 前缀联想
+     *
+     * @param prefix
+     * @param size
+     * @return 按权重从高到低，不重复
+     */
+    public List<String> suggest(String prefix, int size) {
+        String normalized = normalize(prefix);
+        if (normalized.isEmpty() || size <= 0 || keyTexts.length == 0) {
+            return Collections.emptyList();
+        }
+
+        int lo = lowerBound(normalized, false);
+        int hi = lowerBound(normalized, true);
+        if (lo >= hi) {
+            return Collections.emptyList();
+        }
+
+        //区间按最大权重排序，每次取出最大的一个，剩下的左右两段放回去
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> compareKey(b[2], a[2]));
+        queue.offer(new int[]{lo, hi, argMax(lo, hi)});
+        List<String> result = new ArrayList<>(size);
+        int[] picked = new int[size];
+        while (!queue.isEmpty() && result.size() < size) {
+            int[] range = queue.poll();
+            int key = range[2];
+            int text = keyTexts[key];
+            if (!contains(picked, result.size(), text)) {
+                picked[result.size()] = text;
+                result.add(new String(chars, textOffsets[text], textOffsets[text + 1] - textOffsets[text]));
+            }
+            if (range[0] < key) {
+                queue.offer(new int[]{range[0], key, argMax(range[0], key)});
+            }
+            if (key + 1 < range[1]) {
+                queue.offer(new int[]{key + 1, range[1], argMax(key + 1, range[1])});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 候选条数
+     */
+    public int size() {
+        return weights.length;
+    }
+
+    /**
+     * 数组部分占用的字节数，不含对象头
+     */
+    public long memoryBytes() {
+        return chars.length * 2L + textOffsets.length * 4L + weights.length * 8L
+                + keyTexts.length * 4L + keyStarts.length * 4L + tree.length * 4L;
+    }
+
+    /**
+     * 第一个不小于前缀的起点；afterPrefix为true时是第一个既不小于前缀也不以前缀开头的起点
+     */
+    private int lowerBound(String prefix, boolean afterPrefix) {
+        int lo = 0;
+        int hi = keyTexts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePrefix(mid, prefix);
+            if (cmp < 0 || (afterPrefix && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 起点和前缀比较，以前缀开头返回0
+     */
+    private int comparePrefix(int key, String prefix) {
+        int pos = textOffsets[keyTexts[key]] + keyStarts[key];
+        int end = textOffsets[keyTexts[key] + 1];
+        for (int i = 0; i < prefix.length(); i++, pos++) {
+            if (pos >= end) {
+                return -1;
+            }
+            char c = Character.toLowerCase(chars[pos]);
+            if (c != prefix.charAt(i)) {
+                return c < prefix.charAt(i) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * [from, to)里权重最大的起点
+     */
+    private int argMax(int from, int to) {
+        int best = -1;
+        for (int l = from + leafBase, r = to + leafBase; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                best = better(best, node(l++));
+            }
+            if ((r & 1) == 1) {
+                best = better(best, node(--r));
+            }
+        }
+        return best;
+    }
+
+    private int node(int node) {
+        if (node < leafBase) {
+            return tree[node];
+        }
+        return node - leafBase < keyTexts.length ? node - leafBase : -1;
+    }
+
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return compareKey(a, b) >= 0 ? a : b;
+    }
+
+    /**
+     * 权重大的优先，相同时排序靠前的优先
+     */
+    private int compareKey(int a, int b) {
+        int cmp = Long.compare(weights[keyTexts[a]], weights[keyTexts[b]]);
+        return cmp != 0 ? cmp : Integer.compare(b, a);
+    }
+
+    /**
+     * 和排序用同样的逐字符小写，不受默认Locale影响
+     */
+    private static String normalize(String prefix) {
+        if (prefix == null) {
+            return "";
+        }
+        String trimmed = prefix.trim();
+        char[] lower = new char[trimmed.length()];
+        for (int i = 0; i < lower.length; i++) {
+            lower[i] = Character.toLowerCase(trimmed.charAt(i));
+        }
+        return new String(lower);
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class Builder {
+
+        /**
+         * 候选 -> 权重，相同的候选只保留最大权重
+         */
+        private final Map<String, Long> weightMap = new HashMap<>();
+
+        public Builder add(String text, long weight) {
+            if (text == null || text.trim().isEmpty()) {
+                return this;
+            }
+            weightMap.merge(text.trim(), weight, Math::max);
+            return this;
+        }
+
+        public PrefixSuggester build() {
+            int textCount = weightMap.size();
+            int totalChars = 0;
+            for (String text : weightMap.keySet()) {
+                totalChars += text.length();
+            }
+
+            char[] chars = new char[totalChars];
+            int[] textOffsets = new int[textCount + 1];
+            long[] weights = new long[textCount];
+            int[] keyCounts = new int[textCount];
+            int keyTotal = 0;
+            int index = 0;
+            for (Map.Entry<String, Long> entry : weightMap.entrySet()) {
+                String text = entry.getKey();
+                text.getChars(0, text.length(), chars, textOffsets[index]);
+                textOffsets[index + 1] = textOffsets[index] + text.length();
+                weights[index] = entry.getValue();
+                keyCounts[index] = countStarts(chars, textOffsets[index], textOffsets[index + 1]);
+                keyTotal += keyCounts[index];
+                index++;
+            }
+
+            long[] keys = new long[keyTotal];
+            int k = 0;
+            for (int text = 0; text < textCount; text++) {
+                int begin = textOffsets[text];
+                int end = textOffsets[text + 1];
+                int found = 0;
+                for (int pos = begin; pos < end && found < keyCounts[text]; pos++) {
+                    if (isStart(chars, begin, pos)) {
+                        keys[k++] = ((long) text << 32) | (pos - begin);
+                        found++;
+                    }
+                }
+            }
+
+            Long[] boxed = new Long[keyTotal];
+            for (int i = 0; i < keyTotal; i++) {
+                boxed[i] = keys[i];
+            }
+            Arrays.sort(boxed, (a, b) -> compareSuffix(chars, textOffsets, a, b));
+
+            int[] keyTexts = new int[keyTotal];
+            int[] keyStarts = new int[keyTotal];
+            for (int i = 0; i < keyTotal; i++) {
+                keyTexts[i] = (int) (boxed[i] >>> 32);
+                keyStarts[i] = (int) (long) boxed[i];
+            }
+            return new PrefixSuggester(chars, textOffsets, weights, keyTexts, keyStarts);
+        }
+
+        private static int countStarts(char[] chars, int begin, int end) {
+            int count = 0;
+            for (int pos = begin; pos < end && count < MAX_STARTS_PER_TEXT; pos++) {
+                if (isStart(chars, begin, pos)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static boolean isStart(char[] chars, int begin, int pos) {
+            return !Character.isWhitespace(chars[pos]) && (pos == begin || Character.isWhitespace(chars[pos - 1]));
+        }
+
+        private static int compareSuffix(char[] chars, int[] textOffsets, long a, long b) {
+            int textA = (int) (a >>> 32);
+            int textB = (int) (b >>> 32);
+            int posA = textOffsets[textA] + (int) a;
+            int posB = textOffsets[textB] + (int) b;
+            int endA = textOffsets[textA + 1];
+            int endB = textOffsets[textB + 1];
+            while (posA < endA && posB < endB) {
+                char ca = Character.toLowerCase(chars[posA++]);
+                char cb = Character.toLowerCase(chars[posB++]);
+                if (ca != cb) {
+                    return ca - cb;
+                }
+            }
+            return (endA - posA) - (endB - posB);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package net.ec_shop.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 可扩容的本地布隆过滤器，key为long
+ * 当前分片插满后追加一个容量翻倍、误判率减半的新分片，整体误判率不超过设定值
+ * 查询无锁，插入扩容时加锁
+ */
+public class ScalableBloomFilter {
+
+    /**
+     * 新分片容量放大倍数
+     */
+    private static final int GROWTH = 2;
+
+    /**
+     * 新分片误判率收紧比例
+     */
+    private static final double TIGHTENING = 0.5;
+
+    private final List<Slice> slices = new CopyOnWriteArrayList<>();
+
+    private final double falsePositiveRate;
+
+    private volatile Slice current;
+
+    public ScalableBloomFilter(long initialCapacity, double falsePositiveRate) {
+        if (initialCapacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("initialCapacity必须大于0，falsePositiveRate必须在0到1之间");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        //首个分片按 p*(1-r) 分配，保证各分片误判率之和收敛于p
+        this.current = new Slice(initialCapacity, falsePositiveRate * (1 - TIGHTENING));
+        slices.add(current);
+    }
+
+    public boolean mightContain(long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        for (Slice slice : slices) {
+            if (slice.mightContain(h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void put(long key) {
+        if (mightContain(key)) {
+            return;
+        }
+        if (current.count >= current.capacity) {
+            current = new Slice(current.capacity * GROWTH, current.fpp * TIGHTENING);
+            slices.add(current);
+        }
+        long h1 = mix(key);
+        current.put(h1, mix(h1 ^ 0x9E3779B97F4A7C15L));
+    }
+
+    /**
+     * 已插入的元素个数
+     *
+     * @return
+     */
+    public long size() {
+        long size = 0;
+        for (Slice slice : slices) {
+            size += slice.count;
+        }
+        return size;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * splitmix64，把连续的id打散
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static class Slice {
+
+        private final long capacity;
+
+        private final double fpp;
+
+        private final long bitSize;
+
+        private final int hashCount;
+
+        private final AtomicLongArray bits;
+
+        private volatile long count;
+
+        Slice(long capacity, double fpp) {
+            this.capacity = capacity;
+            this.fpp = fpp;
+            long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.bits = new AtomicLongArray((int) ((m + 63) >>> 6));
+            this.bitSize = (long) bits.length() << 6;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitSize / capacity * Math.log(2)));
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long index = Math.floorMod(h1 + i * h2, bitSize);
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long index = Math.floorMod(h1 + i * h2, bitSize);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long old;
+                do {
+                    old = bits.get(word);
+                } while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask));
+            }
+            count++;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package net.ec_shop.util;
+
+
+/**
+ * 本地令牌桶，用于接口准入限流
+ * 按时间差惰性补充令牌，不依赖定时线程
+ */
+public class TokenBucket {
+
+    /**
+     * 桶容量，即允许的突发请求数
+     */
+    private final long capacity;
+
+    /**
+     * 每纳秒补充的令牌数
+     */
+    private final double refillPerNanos;
+
+    private double tokens;
+
+    private long lastRefillTime;
+
+    public TokenBucket(long permitsPerSecond, long capacity) {
+        if (permitsPerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond和capacity必须大于0");
+        }
+        this.capacity = capacity;
+        this.refillPerNanos = permitsPerSecond / 1_000_000_000D;
+        this.tokens = capacity;
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    /**
+     * 尝试获取一个令牌，不阻塞
+     *
+     * @return
+     */
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillTime) * refillPerNanos);
+        lastRefillTime = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+}
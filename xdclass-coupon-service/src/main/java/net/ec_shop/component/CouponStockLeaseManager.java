@@ -0,0 +1,134 @@
+package net.ec_shop.component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.mapper.CouponMapper;
+import net.ec_shop.model.CouponDO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * 秒杀优惠券本地库存租约
+ * 从coupon.stock批量租借到本实例，领券时只扣本地计数
+ */
+@Slf4j
+@Component
+public class CouponStockLeaseManager {
+
+    @Autowired
+    private CouponMapper couponMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 最小租约数量
+     */
+    @Value("${couponconfig.stock_lease_min:10}")
+    private int minLeaseSize;
+
+    /**
+     * 最大租约数量
+     */
+    @Value("${couponconfig.stock_lease_max:500}")
+    private int maxLeaseSize;
+
+    /**
+     * 一次租约期望覆盖的时长，毫秒
+     */
+    @Value("${couponconfig.stock_lease_window:2000}")
+    private long leaseWindow;
+
+    /**
+     * 租约空闲多久后归还，毫秒
+     */
+    @Value("${couponconfig.stock_lease_idle:5000}")
+    private long leaseIdle;
+
+    private StockLeasePool stockLeasePool;
+
+    /**
+     * 租借和归还都在独立事务中提交，不能随领券事务回滚，否则本地计数和中心库存对不上
+     */
+    private TransactionTemplate requiresNewTemplate;
+
+    @PostConstruct
+    public void init() {
+        requiresNewTemplate = new TransactionTemplate(transactionManager);
+        requiresNewTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        stockLeasePool = new StockLeasePool(new StockLeasePool.CentralStock() {
+            @Override
+            public int lease(long id, int max) {
+                Integer leased = requiresNewTemplate.execute(status -> leaseFromCoupon(id, max));
+                log.info("租借优惠券库存 couponId={}, 期望={}, 实际={}", id, max, leased);
+                return leased == null ? 0 : leased;
+            }
+
+            @Override
+            public void giveBack(long id, int num) {
+                requiresNewTemplate.execute(status -> couponMapper.returnStock(id, num));
+                log.info("归还优惠券库存 couponId={}, 数量={}", id, num);
+            }
+        }, minLeaseSize, maxLeaseSize, leaseWindow);
+    }
+
+    /**
+     * 领取库存，事务回滚时放回本地租约
+     *
+     * @param couponId
+     * @param num
+     * @return 实际领取数量
+     */
+    public int acquire(long couponId, int num) {
+        int granted = stockLeasePool.acquire(couponId, num);
+        if (granted > 0 && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        stockLeasePool.putBack(couponId, granted);
+                    }
+                }
+            });
+        }
+        return granted;
+    }
+
+    @Scheduled(fixedDelayString = "${couponconfig.stock_lease_idle:5000}")
+    public void returnIdleLeases() {
+        stockLeasePool.returnIdle(leaseIdle);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        int num = stockLeasePool.returnAll();
+        log.info("停机归还优惠券库存租约，总数={}", num);
+    }
+
+    /**
+     * 条件扣减，库存不足一个租约时租走剩余的
+     */
+    private int leaseFromCoupon(long couponId, int max) {
+        for (int i = 0; i < 3; i++) {
+            CouponDO couponDO = couponMapper.selectById(couponId);
+            if (couponDO == null || couponDO.getStock() <= 0) {
+                return 0;
+            }
+            int num = Math.min(max, couponDO.getStock());
+            if (couponMapper.reduceStockBatch(couponId, num) == 1) {
+                return num;
+            }
+        }
+        return 0;
+    }
+}
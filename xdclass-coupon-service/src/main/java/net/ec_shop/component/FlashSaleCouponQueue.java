@@ -0,0 +1,180 @@
+package net.ec_shop.component;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.config.FlashSaleConfig;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.enums.BizCodeEnum;
+import net.ec_shop.enums.CouponClaimStateEnum;
+import net.ec_shop.exception.BizException;
+import net.ec_shop.model.CouponClaimTicket;
+import net.ec_shop.service.CouponService;
+import net.ec_shop.util.TokenBucket;
+import net.ec_shop.vo.CouponClaimResultVO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀领券排队
+ * 1）令牌桶准入，超过速率直接拒绝，不占用tomcat线程
+ * 2）有界队列缓冲，队列满直接拒绝
+ * 3）单个worker按优惠券分组批量处理，每批只加一次锁、扣一次库存
+ */
+@Slf4j
+@Component
+public class FlashSaleCouponQueue {
+
+    @Autowired
+    private FlashSaleConfig flashSaleConfig;
+
+    @Autowired
+    private CouponService couponService;
+
+    @Autowired
+    private MeteredLockClient meteredLockClient;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    private TokenBucket tokenBucket;
+
+    private BlockingQueue<CouponClaimTicket> queue;
+
+    private ExecutorService worker;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void init() {
+        tokenBucket = new TokenBucket(flashSaleConfig.getPermitsPerSecond(), flashSaleConfig.getBurst());
+        queue = new ArrayBlockingQueue<>(flashSaleConfig.getQueueCapacity());
+        worker = Executors.newSingleThreadExecutor(r -> new Thread(r, "flash-sale-coupon-worker"));
+        running = true;
+        worker.execute(this::drainLoop);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        worker.shutdown();
+        if (!worker.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("秒杀领券队列关闭超时，剩余排队数:{}", queue.size());
+            worker.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交领券请求，不阻塞
+     *
+     * @param ticket
+     * @return false表示限流或队列已满
+     */
+    public boolean submit(CouponClaimTicket ticket) {
+        if (!running || !tokenBucket.tryAcquire()) {
+            return false;
+        }
+        return queue.offer(ticket);
+    }
+
+    /**
+     * 当前排队数
+     *
+     * @return
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    private void drainLoop() {
+        List<CouponClaimTicket> batch = new ArrayList<>(flashSaleConfig.getBatchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                CouponClaimTicket first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, flashSaleConfig.getBatchSize() - 1);
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("秒杀领券批处理异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(List<CouponClaimTicket> batch) {
+        Map<Long, List<CouponClaimTicket>> couponTickets = batch.stream()
+                .collect(Collectors.groupingBy(CouponClaimTicket::getCouponId, LinkedHashMap::new, Collectors.toList()));
+
+        for (Map.Entry<Long, List<CouponClaimTicket>> entry : couponTickets.entrySet()) {
+            long couponId = entry.getKey();
+            List<CouponClaimTicket> tickets = entry.getValue();
+            List<CouponClaimResultVO> resultList;
+
+            //和普通领券接口同一把锁，整批只加一次
+            MeteredLockClient.LockHandle lockHandle = meteredLockClient.lock("lock:coupon:" + couponId);
+            try {
+                resultList = couponService.addFlashSaleCouponBatch(couponId, tickets);
+            } catch (BizException e) {
+                log.warn("秒杀领券批处理失败 couponId={}, size={}, msg={}", couponId, tickets.size(), e.getMsg());
+                resultList = failAll(tickets, e.getCode(), e.getMsg());
+            } catch (Exception e) {
+                log.error("秒杀领券批处理异常 couponId={}, size={}", couponId, tickets.size(), e);
+                resultList = failAll(tickets, BizCodeEnum.COUPON_GET_FAIL.getCode(), BizCodeEnum.COUPON_GET_FAIL.getMessage());
+            } finally {
+                lockHandle.unlock();
+            }
+            saveResults(resultList);
+        }
+    }
+
+    private List<CouponClaimResultVO> failAll(List<CouponClaimTicket> tickets, int code, String msg) {
+        return tickets.stream().map(obj -> {
+            CouponClaimResultVO resultVO = new CouponClaimResultVO();
+            resultVO.setTicket(obj.getTicket());
+            resultVO.setState(CouponClaimStateEnum.FAIL.name());
+            resultVO.setCode(code);
+            resultVO.setMsg(msg);
+            return resultVO;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * 一次pipeline写回整批结果
+     *
+     * @param resultList
+     */
+    private void saveResults(List<CouponClaimResultVO> resultList) {
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        long ttl = flashSaleConfig.getResultTtl();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (CouponClaimResultVO resultVO : resultList) {
+                byte[] key = serializer.serialize(String.format(CacheKey.COUPON_CLAIM_RESULT_KEY, resultVO.getTicket()));
+                byte[] value = serializer.serialize(JSON.toJSONString(resultVO));
+                connection.setEx(key, ttl, value);
+            }
+            return null;
+        });
+    }
+}
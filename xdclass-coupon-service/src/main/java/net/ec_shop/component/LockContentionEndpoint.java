@@ -0,0 +1,32 @@
+package net.ec_shop.component;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分布式锁竞争情况 /actuator/locks?top=10
+ */
+@Component
+@Endpoint(id = "locks")
+public class LockContentionEndpoint {
+
+    @Autowired
+    private MeteredLockClient meteredLockClient;
+
+    @ReadOperation
+    public List<Map<String, Object>> topContended(@Nullable Integer top) {
+        return meteredLockClient.topContended(top == null ? 10 : top);
+    }
+
+    @DeleteOperation
+    public void reset() {
+        meteredLockClient.resetKeyStats();
+    }
+}
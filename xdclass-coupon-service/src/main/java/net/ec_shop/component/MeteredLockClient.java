@@ -0,0 +1,244 @@
+package net.ec_shop.component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 带监控的分布式锁
+ * 按锁key族(数字段替换为{id}，如 lock:coupon:{id})记录等待时间、持有时间、等待线程数、超时次数，
+ * 按具体key统计等待情况，供 actuator locks 端点查询竞争最激烈的key
+ */
+@Slf4j
+@Component
+public class MeteredLockClient {
+
+    private static final Pattern ID_SEGMENT = Pattern.compile("(?<=:)\\d+(?=:|$)");
+
+    /**
+     * 单个key统计的最大数量，超过后淘汰等待总时长最小的一部分
+     */
+    private static final int MAX_KEY_STATS = 10000;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, FamilyMeters> familyMeters = new ConcurrentHashMap<>();
+
+    private final Map<String, KeyStats> keyStats = new ConcurrentHashMap<>();
+
+    /**
+     * 阻塞加锁，有watch dog自动续期
+     *
+     * @param lockKey
+     * @return
+     */
+    public LockHandle lock(String lockKey) {
+        FamilyMeters meters = getFamilyMeters(lockKey);
+        KeyStats stats = getKeyStats(lockKey);
+        RLock rLock = redissonClient.getLock(lockKey);
+
+        long start = System.nanoTime();
+        meters.waiting.incrementAndGet();
+        stats.waiting.incrementAndGet();
+        try {
+            rLock.lock();
+        } finally {
+            meters.waiting.decrementAndGet();
+            stats.waiting.decrementAndGet();
+        }
+        long waitNanos = System.nanoTime() - start;
+        meters.waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+        stats.record(waitNanos);
+        return new LockHandle(rLock, meters);
+    }
+
+    /**
+     * 限时加锁
+     *
+     * @param lockKey
+     * @param waitTime
+     * @param unit
+     * @return 超时返回null
+     * @throws InterruptedException
+     */
+    public LockHandle tryLock(String lockKey, long waitTime, TimeUnit unit) throws InterruptedException {
+        FamilyMeters meters = getFamilyMeters(lockKey);
+        KeyStats stats = getKeyStats(lockKey);
+        RLock rLock = redissonClient.getLock(lockKey);
+
+        long start = System.nanoTime();
+        meters.waiting.incrementAndGet();
+        stats.waiting.incrementAndGet();
+        boolean locked;
+        try {
+            locked = rLock.tryLock(waitTime, unit);
+        } finally {
+            meters.waiting.decrementAndGet();
+            stats.waiting.decrementAndGet();
+        }
+        long waitNanos = System.nanoTime() - start;
+        meters.waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+        stats.record(waitNanos);
+        if (!locked) {
+            meters.timeoutCounter.increment();
+            stats.timeouts.incrementAndGet();
+            return null;
+        }
+        return new LockHandle(rLock, meters);
+    }
+
+    /**
+     * 竞争最激烈的key，按等待总时长倒序
+     *
+     * @param top
+     * @return
+     */
+    public List<Map<String, Object>> topContended(int top) {
+        return keyStats.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, KeyStats> entry) -> entry.getValue().totalWaitNanos.get()).reversed())
+                .limit(top)
+                .map(entry -> {
+                    KeyStats stats = entry.getValue();
+                    Map<String, Object> item = new LinkedHashMap<>(8);
+                    item.put("key", entry.getKey());
+                    item.put("acquire_count", stats.count.get());
+                    item.put("total_wait_ms", TimeUnit.NANOSECONDS.toMillis(stats.totalWaitNanos.get()));
+                    item.put("max_wait_ms", TimeUnit.NANOSECONDS.toMillis(stats.maxWaitNanos.get()));
+                    item.put("waiting", stats.waiting.get());
+                    item.put("timeouts", stats.timeouts.get());
+                    return item;
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 清空key统计
+     */
+    public void resetKeyStats() {
+        keyStats.clear();
+    }
+
+    /**
+     * lock:coupon:12 -> lock:coupon:{id}
+     *
+     * @param lockKey
+     * @return
+     */
+    static String familyOf(String lockKey) {
+        return ID_SEGMENT.matcher(lockKey).replaceAll("{id}");
+    }
+
+    private FamilyMeters getFamilyMeters(String lockKey) {
+        return familyMeters.computeIfAbsent(familyOf(lockKey), family -> new FamilyMeters(family, meterRegistry));
+    }
+
+    private KeyStats getKeyStats(String lockKey) {
+        KeyStats stats = keyStats.get(lockKey);
+        if (stats != null) {
+            return stats;
+        }
+        if (keyStats.size() >= MAX_KEY_STATS) {
+            evictKeyStats();
+        }
+        return keyStats.computeIfAbsent(lockKey, key -> new KeyStats());
+    }
+
+    /**
+     * 淘汰等待总时长最小的十分之一
+     */
+    private synchronized void evictKeyStats() {
+        if (keyStats.size() < MAX_KEY_STATS) {
+            return;
+        }
+        List<Map.Entry<String, KeyStats>> entries = new ArrayList<>(keyStats.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().totalWaitNanos.get()));
+        for (int i = 0; i < MAX_KEY_STATS / 10; i++) {
+            keyStats.remove(entries.get(i).getKey());
+        }
+    }
+
+    /**
+     * 已获取的锁，释放时记录持有时间
+     */
+    public static class LockHandle {
+
+        private final RLock rLock;
+
+        private final FamilyMeters meters;
+
+        private final long lockedAt = System.nanoTime();
+
+        private LockHandle(RLock rLock, FamilyMeters meters) {
+            this.rLock = rLock;
+            this.meters = meters;
+        }
+
+        public void unlock() {
+            meters.holdTimer.record(System.nanoTime() - lockedAt, TimeUnit.NANOSECONDS);
+            rLock.unlock();
+        }
+    }
+
+    private static class FamilyMeters {
+
+        private final Timer waitTimer;
+
+        private final Timer holdTimer;
+
+        private final Counter timeoutCounter;
+
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        private FamilyMeters(String family, MeterRegistry registry) {
+            waitTimer = Timer.builder("redisson.lock.wait").tag("family", family)
+                    .description("等待获取锁的时间").publishPercentileHistogram().register(registry);
+            holdTimer = Timer.builder("redisson.lock.hold").tag("family", family)
+                    .description("持有锁的时间").publishPercentileHistogram().register(registry);
+            timeoutCounter = Counter.builder("redisson.lock.timeout").tag("family", family)
+                    .description("获取锁超时次数").register(registry);
+            Gauge.builder("redisson.lock.waiting", waiting, AtomicInteger::get).tag("family", family)
+                    .description("本实例正在等待锁的线程数").register(registry);
+        }
+    }
+
+    private static class KeyStats {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        private void record(long waitNanos) {
+            count.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        }
+    }
+}
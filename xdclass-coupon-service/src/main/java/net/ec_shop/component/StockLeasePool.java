@@ -0,0 +1,200 @@
+package net.ec_shop.component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地库存租约池
+ * 从中心库存一次租一批到本地，领取时只做本地原子扣减；
+ * 本地不足时才回源，租约大小按最近的领取速率自适应。
+ * 中心库存的租借必须是条件扣减，本地扣减不会超过已租数量，所以总量不会超卖；
+ * 节点宕机时未归还的租约只会少卖，不会多卖。
+ */
+public class StockLeasePool {
+
+    /**
+     * 中心库存
+     */
+    public interface CentralStock {
+
+        /**
+         * 从中心库存租借，最多 max 个
+         *
+         * @param id
+         * @param max
+         * @return 实际租到的数量，0表示已售罄
+         */
+        int lease(long id, int max);
+
+        /**
+         * 归还库存
+         *
+         * @param id
+         * @param num
+         */
+        void giveBack(long id, int num);
+    }
+
+    private static class Lease {
+
+        private final AtomicInteger remaining = new AtomicInteger();
+
+        /**
+         * 上次租借以来的领取数，用于估算速率
+         */
+        private final AtomicLong claimed = new AtomicLong();
+
+        private volatile long lastLeaseTime = System.currentTimeMillis();
+
+        private volatile long lastClaimTime = System.currentTimeMillis();
+    }
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private final CentralStock centralStock;
+
+    private final int minLeaseSize;
+
+    private final int maxLeaseSize;
+
+    /**
+     * 一次租约期望覆盖的时长，毫秒
+     */
+    private final long leaseWindow;
+
+    public StockLeasePool(CentralStock centralStock, int minLeaseSize, int maxLeaseSize, long leaseWindow) {
+        this.centralStock = centralStock;
+        this.minLeaseSize = minLeaseSize;
+        this.maxLeaseSize = maxLeaseSize;
+        this.leaseWindow = leaseWindow;
+    }
+
+    /**
+     * 领取库存
+     *
+     * @param id
+     * @param num
+     * @return 实际领取的数量，小于num表示库存不足
+     */
+    public int acquire(long id, int num) {
+        Lease lease = leases.computeIfAbsent(id, key -> new Lease());
+        int granted = takeLocal(lease, num);
+        if (granted < num) {
+            //同一个id同时只允许一个线程回源
+            synchronized (lease) {
+                granted += takeLocal(lease, num - granted);
+                while (granted < num) {
+                    int leased = centralStock.lease(id, nextLeaseSize(lease, num - granted));
+                    if (leased <= 0) {
+                        break;
+                    }
+                    lease.remaining.addAndGet(leased);
+                    granted += takeLocal(lease, num - granted);
+                }
+            }
+        }
+        if (granted > 0) {
+            lease.claimed.addAndGet(granted);
+            lease.lastClaimTime = System.currentTimeMillis();
+        }
+        return granted;
+    }
+
+    /**
+     * 放回本地，比如领取后事务回滚
+     *
+     * @param id
+     * @param num
+     */
+    public void putBack(long id, int num) {
+        if (num <= 0) {
+            return;
+        }
+        Lease lease = leases.get(id);
+        if (lease == null) {
+            centralStock.giveBack(id, num);
+        } else {
+            lease.remaining.addAndGet(num);
+        }
+    }
+
+    /**
+     * 归还空闲超过 idleTime 的租约
+     *
+     * @param idleTime 毫秒
+     * @return 归还的总数
+     */
+    public int returnIdle(long idleTime) {
+        long now = System.currentTimeMillis();
+        int total = 0;
+        for (Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            if (now - lease.lastClaimTime >= idleTime) {
+                total += returnLease(entry.getKey(), lease);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 归还全部租约，停机时调用
+     *
+     * @return 归还的总数
+     */
+    public int returnAll() {
+        int total = 0;
+        for (Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            total += returnLease(entry.getKey(), entry.getValue());
+        }
+        return total;
+    }
+
+    /**
+     * 本地剩余数量
+     *
+     * @param id
+     * @return
+     */
+    public int localRemaining(long id) {
+        Lease lease = leases.get(id);
+        return lease == null ? 0 : lease.remaining.get();
+    }
+
+    private int returnLease(long id, Lease lease) {
+        int num = lease.remaining.getAndSet(0);
+        if (num > 0) {
+            centralStock.giveBack(id, num);
+        }
+        return num;
+    }
+
+    private int takeLocal(Lease lease, int num) {
+        while (true) {
+            int current = lease.remaining.get();
+            if (current <= 0) {
+                return 0;
+            }
+            int take = Math.min(current, num);
+            if (lease.remaining.compareAndSet(current, current - take)) {
+                return take;
+            }
+        }
+    }
+
+    /**
+     * 按上次租借以来的领取速率估算下一次租约大小
+     */
+    private int nextLeaseSize(Lease lease, int need) {
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(1, now - lease.lastLeaseTime);
+        long claimed = lease.claimed.getAndSet(0);
+        lease.lastLeaseTime = now;
+
+        long size = claimed * leaseWindow / elapsed;
+        size = Math.max(size, minLeaseSize);
+        size = Math.min(size, maxLeaseSize);
+        return (int) Math.max(size, need);
+    }
+}
@@ -0,0 +1,232 @@
+package net.ec_shop.component;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.enums.CouponStateEnum;
+import net.ec_shop.mapper.CouponRecordMapper;
+import net.ec_shop.model.CouponRecordDO;
+import net.ec_shop.util.CommonUtil;
+import net.ec_shop.vo.CouponRecordVO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 用户可用优惠券索引
+ * redis zset，score为满减条件(分)，member为 id:抵扣价格(分):开始时间:结束时间
+ * 查询“订单金额X可用的最优优惠券”只需一次 ZRANGEBYSCORE key 0 X
+ * 领取、释放时直接删掉索引，下次查询从数据库重建；锁定、过期时移除；key不存在时从数据库重建
+ * 每次变更都把版本号加一，重建前先取版本号，写入时版本号变了说明重建期间有变更，放弃这次写入，避免把旧数据写回去
+ */
+@Slf4j
+@Component
+public class UserCouponIndex {
+
+    /**
+     * 占位成员，score为-1不会被查询命中，用于区分“没有可用优惠券”和“索引未建立”
+     */
+    private static final String PLACEHOLDER = "-";
+
+    /**
+     * 删除索引并加版本号，KEYS[1]索引，KEYS[2]版本号，ARGV[1]版本号过期时间(秒)
+     */
+    private static final DefaultRedisScript<Long> INVALIDATE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1]) " +
+                    "redis.call('INCR', KEYS[2]) " +
+                    "redis.call('EXPIRE', KEYS[2], ARGV[1]) " +
+                    "return 1", Long.class);
+
+    /**
+     * 移除成员并加版本号，KEYS[1]索引，KEYS[2]版本号，ARGV[1]版本号过期时间(秒)，其余为member
+     */
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 2, #ARGV do redis.call('ZREM', KEYS[1], ARGV[i]) end " +
+                    "redis.call('INCR', KEYS[2]) " +
+                    "redis.call('EXPIRE', KEYS[2], ARGV[1]) " +
+                    "return 1", Long.class);
+
+    /**
+     * 重建索引，KEYS[1]索引，KEYS[2]版本号；ARGV[1]为过期时间(秒)，ARGV[2]为查库前取到的版本号，其余为score/member对
+     * 版本号不一致返回0，不写入
+     */
+    private static final DefaultRedisScript<Long> REBUILD_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('GET', KEYS[2]) or '0') ~= ARGV[2] then return 0 end " +
+                    "redis.call('DEL', KEYS[1]) " +
+                    "for i = 3, #ARGV, 2 do redis.call('ZADD', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+                    "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+                    "return 1", Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private CouponRecordMapper couponRecordMapper;
+
+    /**
+     * 索引过期时间，秒
+     */
+    @Value("${couponconfig.usable_index_ttl:86400}")
+    private long indexTtl;
+
+    /**
+     * 加入可用优惠券，有事务时在提交后执行
+     * 不直接ZADD：索引不存在时追加是空操作，而同时进行中的重建可能已经读到了提交前的数据，所以删掉索引让下次查询重建
+     *
+     * @param recordList
+     */
+    public void add(Collection<CouponRecordDO> recordList) {
+        afterCommit(() -> recordList.stream().map(CouponRecordDO::getUserId).distinct().forEach(userId ->
+                redisTemplate.execute(INVALIDATE_SCRIPT, getKeys(userId), String.valueOf(indexTtl))));
+    }
+
+    /**
+     * 移除不可用优惠券，有事务时在提交后执行
+     *
+     * @param recordList
+     */
+    public void remove(Collection<CouponRecordDO> recordList) {
+        afterCommit(() -> {
+            Map<Long, List<CouponRecordDO>> userRecords = recordList.stream().collect(Collectors.groupingBy(CouponRecordDO::getUserId));
+            userRecords.forEach((userId, records) -> {
+                List<String> args = new ArrayList<>(records.size() + 1);
+                args.add(String.valueOf(indexTtl));
+                for (CouponRecordDO recordDO : records) {
+                    args.add(buildMember(recordDO));
+                }
+                redisTemplate.execute(REMOVE_SCRIPT, getKeys(userId), args.toArray());
+            });
+        });
+    }
+
+    /**
+     * 查询订单金额可用的最优优惠券：抵扣最多，相同则先过期的优先
+     *
+     * @param userId
+     * @param amount
+     * @return 只包含 id, user_id, use_state, price, condition_price, start_time, end_time
+     */
+    public CouponRecordVO findBest(long userId, BigDecimal amount) {
+        String key = getIndexKey(userId);
+        Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet().rangeByScoreWithScores(key, 0, toCent(amount));
+        if ((tuples == null || tuples.isEmpty()) && Boolean.FALSE.equals(redisTemplate.hasKey(key))) {
+            rebuild(userId);
+            tuples = redisTemplate.opsForZSet().rangeByScoreWithScores(key, 0, toCent(amount));
+        }
+        if (tuples == null || tuples.isEmpty()) {
+            return null;
+        }
+
+        long now = CommonUtil.getCurrentTimestamp();
+        long[] best = null;
+        long bestCondition = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            //fields: id, price, start, end
+            long[] fields = parseMember(tuple.getValue());
+            if (now < fields[2] || now > fields[3]) {
+                continue;
+            }
+            if (best == null || fields[1] > best[1] || (fields[1] == best[1] && fields[3] < best[3])) {
+                best = fields;
+                bestCondition = tuple.getScore().longValue();
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        CouponRecordVO couponRecordVO = new CouponRecordVO();
+        couponRecordVO.setId(best[0]);
+        couponRecordVO.setUserId(userId);
+        couponRecordVO.setUseState(CouponStateEnum.NEW.name());
+        couponRecordVO.setPrice(BigDecimal.valueOf(best[1], 2));
+        couponRecordVO.setConditionPrice(BigDecimal.valueOf(bestCondition, 2));
+        couponRecordVO.setStartTime(new Date(best[2]));
+        couponRecordVO.setEndTime(new Date(best[3]));
+        return couponRecordVO;
+    }
+
+    /**
+     * 从数据库重建用户索引
+     *
+     * @param userId
+     */
+    private void rebuild(long userId) {
+        String version = redisTemplate.opsForValue().get(getVersionKey(userId));
+        List<CouponRecordDO> recordList = couponRecordMapper.selectList(new QueryWrapper<CouponRecordDO>()
+                .select("id", "user_id", "price", "condition_price", "start_time", "end_time")
+                .eq("user_id", userId)
+                .eq("use_state", CouponStateEnum.NEW.name())
+                .gt("end_time", new Date()));
+
+        List<String> args = new ArrayList<>(recordList.size() * 2 + 4);
+        args.add(String.valueOf(indexTtl));
+        args.add(version == null ? "0" : version);
+        args.add("-1");
+        args.add(PLACEHOLDER);
+        for (CouponRecordDO recordDO : recordList) {
+            args.add(String.valueOf(toCent(recordDO.getConditionPrice())));
+            args.add(buildMember(recordDO));
+        }
+        Long result = redisTemplate.execute(REBUILD_SCRIPT, getKeys(userId), args.toArray());
+        if (result == null || result == 0) {
+            log.info("重建期间用户可用优惠券有变更，放弃本次重建 userId={}", userId);
+            return;
+        }
+        log.info("重建用户可用优惠券索引 userId={}, size={}", userId, recordList.size());
+    }
+
+    private String buildMember(CouponRecordDO recordDO) {
+        return recordDO.getId() + ":" + toCent(recordDO.getPrice()) + ":"
+                + recordDO.getStartTime().getTime() + ":" + recordDO.getEndTime().getTime();
+    }
+
+    private long[] parseMember(String member) {
+        String[] parts = member.split(":");
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3])};
+    }
+
+    private long toCent(BigDecimal amount) {
+        return amount == null ? 0 : amount.movePointRight(2).longValue();
+    }
+
+    private String getIndexKey(long userId) {
+        return String.format(CacheKey.COUPON_USABLE_INDEX_KEY, userId);
+    }
+
+    private String getVersionKey(long userId) {
+        return String.format(CacheKey.COUPON_USABLE_VERSION_KEY, userId);
+    }
+
+    private List<String> getKeys(long userId) {
+        return Arrays.asList(getIndexKey(userId), getVersionKey(userId));
+    }
+
+    private void afterCommit(Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        } else {
+            runnable.run();
+        }
+    }
+}
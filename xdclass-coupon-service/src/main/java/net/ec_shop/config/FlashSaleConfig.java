@@ -0,0 +1,79 @@
+package net.ec_shop.config;
+
+import lombok.Data;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀领券配置
+ */
+@Configuration
+@Data
+public class FlashSaleConfig {
+
+    /**
+     * 走秒杀排队模式的优惠券id，逗号分隔
+     */
+    @Value("${couponconfig.flash_sale_ids:}")
+    private String flashSaleIds;
+
+    /**
+     * 令牌桶每秒放行的请求数
+     */
+    @Value("${couponconfig.flash_sale_permits_per_second:2000}")
+    private long permitsPerSecond;
+
+    /**
+     * 令牌桶容量，允许的突发请求数
+     */
+    @Value("${couponconfig.flash_sale_burst:500}")
+    private long burst;
+
+    /**
+     * 排队队列容量
+     */
+    @Value("${couponconfig.flash_sale_queue_capacity:10000}")
+    private int queueCapacity;
+
+    /**
+     * 每批处理的排队请求数
+     */
+    @Value("${couponconfig.flash_sale_batch_size:100}")
+    private int batchSize;
+
+    /**
+     * 排队结果保存时间，秒
+     */
+    @Value("${couponconfig.flash_sale_result_ttl:600}")
+    private long resultTtl;
+
+    private Set<Long> flashSaleIdSet = Collections.emptySet();
+
+    @PostConstruct
+    public void init() {
+        if (StringUtils.isNotBlank(flashSaleIds)) {
+            flashSaleIdSet = Arrays.stream(flashSaleIds.split(","))
+                    .map(String::trim)
+                    .filter(StringUtils::isNotBlank)
+                    .map(Long::valueOf)
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * 是否秒杀优惠券
+     *
+     * @param couponId
+     * @return
+     */
+    public boolean isFlashSale(long couponId) {
+        return flashSaleIdSet.contains(couponId);
+    }
+}
@@ -5,10 +5,14 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.config.FlashSaleConfig;
+import net.ec_shop.enums.BizCodeEnum;
 import net.ec_shop.enums.CouponCategoryEnum;
 import net.ec_shop.request.NewUserCouponRequest;
 import net.ec_shop.service.CouponService;
+import net.ec_shop.service.FlashSaleCouponService;
 import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.CouponClaimResultVO;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,6 +39,12 @@ public class CouponController {
     @Autowired
     private RedissonClient redissonClient;
 
+    @Autowired
+    private FlashSaleCouponService flashSaleCouponService;
+
+    @Autowired
+    private FlashSaleConfig flashSaleConfig;
+
     /**
      * 分页查询优惠券列表
      *
@@ -54,6 +64,7 @@ public class CouponController {
 
     /**
      * 领取优惠券
+     * 秒杀优惠券走排队模式，返回排队凭证，通过 claim_result 接口轮询结果
      *
      * @param couponId
      * @return
@@ -62,10 +73,26 @@ public class CouponController {
     @GetMapping("/add/promotion/{coupon_id}")
     public JsonData addPromotionCoupon(
             @ApiParam(value = "优惠券id", required = true) @PathVariable("coupon_id") long couponId) {
+        if (flashSaleConfig.isFlashSale(couponId)) {
+            return flashSaleCouponService.addFlashSaleCoupon(couponId);
+        }
         JsonData jsonData = couponService.addCoupon(couponId, CouponCategoryEnum.PROMOTION);
         return jsonData;
     }
 
+    /**
+     * 查询秒杀领券排队结果
+     *
+     * @param ticket
+     * @return
+     */
+    @ApiOperation("查询秒杀领券结果")
+    @GetMapping("/claim_result/{ticket}")
+    public JsonData claimResult(@ApiParam(value = "排队凭证", required = true) @PathVariable("ticket") String ticket) {
+        CouponClaimResultVO resultVO = flashSaleCouponService.findClaimResult(ticket);
+        return resultVO == null ? JsonData.buildResult(BizCodeEnum.COUPON_CLAIM_TICKET_NOT_EXIST) : JsonData.buildSuccess(resultVO);
+    }
+
     /**
      * 新用户注册发放优惠券接口
      *
@@ -11,6 +11,7 @@ import net.ec_shop.vo.CouponRecordVO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.math.BigDecimal;
 import java.util.Map;
 
 /**
@@ -33,13 +34,15 @@ public class CouponRecordController {
      *
      * @param page
      * @param size
+     * @param useState
      * @return
      */
     @ApiOperation("分页查询个人优惠券")
     @GetMapping("page")
     public JsonData page(@ApiParam(value = "当前页") @RequestParam(value = "page", defaultValue = "1") int page,
-                         @ApiParam(value = "每页显示多少条") @RequestParam(value = "size", defaultValue = "10") int size) {
-        Map<String, Object> pageResult = couponRecordService.page(page, size);
+                         @ApiParam(value = "每页显示多少条") @RequestParam(value = "size", defaultValue = "10") int size,
+                         @ApiParam(value = "使用状态 NEW/USED/EXPIRED，不传查询全部") @RequestParam(value = "use_state", required = false) String useState) {
+        Map<String, Object> pageResult = couponRecordService.page(page, size, useState);
         return JsonData.buildSuccess(pageResult);
     }
 
@@ -56,6 +59,19 @@ public class CouponRecordController {
         return couponRecordVO == null ? JsonData.buildResult(BizCodeEnum.COUPON_NO_EXITS) : JsonData.buildSuccess(couponRecordVO);
     }
 
+    /**
+     * 查询订单金额可用的最优优惠券
+     *
+     * @param amount
+     * @return
+     */
+    @ApiOperation("查询订单可用的最优优惠券")
+    @GetMapping("best")
+    public JsonData findBestUsable(@ApiParam(value = "订单金额", required = true) @RequestParam("amount") BigDecimal amount) {
+        CouponRecordVO couponRecordVO = couponRecordService.findBestUsable(amount);
+        return couponRecordVO == null ? JsonData.buildResult(BizCodeEnum.COUPON_UNAVAILABLE) : JsonData.buildSuccess(couponRecordVO);
+    }
+
     /**
      * 锁定用户优惠券
      *
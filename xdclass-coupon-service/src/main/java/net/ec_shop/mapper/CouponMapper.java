@@ -22,4 +22,22 @@ public interface CouponMapper extends BaseMapper<CouponDO> {
      */
     int reduceStock(@Param("couponId") long couponId);
 
+    /**
+     * 批量扣减库存
+     *
+     * @param couponId
+     * @param num
+     * @return
+     */
+    int reduceStockBatch(@Param("couponId") long couponId, @Param("num") int num);
+
+    /**
+     * 归还库存
+     *
+     * @param couponId
+     * @param num
+     * @return
+     */
+    int returnStock(@Param("couponId") long couponId, @Param("num") int num);
+
 }
@@ -4,6 +4,7 @@ import net.ec_shop.model.CouponRecordDO;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -33,4 +34,36 @@ public interface CouponRecordMapper extends BaseMapper<CouponRecordDO> {
      * @param useState
      */
     void updateState(@Param("couponRecordId") Long couponRecordId, @Param("useState") String useState);
+
+    /**
+     * 批量插入领劵记录
+     *
+     * @param couponRecordList
+     * @return
+     */
+    int insertBatch(@Param("couponRecordList") List<CouponRecordDO> couponRecordList);
+
+    /**
+     * 按(end_time, id)游标分片查询已过期的优惠券记录，走 idx_state_end(use_state, end_time) 索引
+     *
+     * @param useState
+     * @param now
+     * @param lastEndTime 上一批最后一条的结束时间，首批传null
+     * @param lastId      上一批最后一条的id
+     * @param size
+     * @return 只包含 id, user_id, price, condition_price, start_time, end_time
+     */
+    List<CouponRecordDO> listExpiredChunk(@Param("useState") String useState, @Param("now") Date now,
+                                          @Param("lastEndTime") Date lastEndTime, @Param("lastId") long lastId,
+                                          @Param("size") int size);
+
+    /**
+     * 批量过期优惠券记录，只更新仍处于 oldState 的记录
+     *
+     * @param ids
+     * @param newState
+     * @param oldState
+     * @return
+     */
+    int expireStateBatch(@Param("ids") List<Long> ids, @Param("newState") String newState, @Param("oldState") String oldState);
 }
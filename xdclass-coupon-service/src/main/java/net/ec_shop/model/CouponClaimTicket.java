@@ -0,0 +1,29 @@
+package net.ec_shop.model;
+
+import lombok.Data;
+
+
+@Data
+public class CouponClaimTicket {
+
+    /**
+     * 排队凭证
+     */
+    private String ticket;
+
+    /**
+     * 优惠券id
+     */
+    private Long couponId;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 用户昵称
+     */
+    private String userName;
+
+}
@@ -6,6 +6,7 @@ import net.ec_shop.request.LockCouponRecordRequest;
 import net.ec_shop.util.JsonData;
 import net.ec_shop.vo.CouponRecordVO;
 
+import java.math.BigDecimal;
 import java.util.Map;
 
 public interface CouponRecordService {
@@ -15,9 +16,10 @@ public interface CouponRecordService {
      *
      * @param page
      * @param size
+     * @param useState 使用状态，为空则查询全部
      * @return
      */
-    Map<String, Object> page(int page, int size);
+    Map<String, Object> page(int page, int size, String useState);
 
     /**
      * 根据id查询详情
@@ -42,4 +44,22 @@ public interface CouponRecordService {
      * @return
      */
     boolean releaseCouponRecord(CouponRecordMessage recordMessage);
+
+    /**
+     * 分批把已过期的优惠券记录置为EXPIRED
+     *
+     * @param batchSize
+     * @param batchPause
+     * @param maxBatches
+     * @return 更新的记录数
+     */
+    int expireCouponRecords(int batchSize, long batchPause, int maxBatches);
+
+    /**
+     * 查询订单金额可用的最优优惠券
+     *
+     * @param amount
+     * @return
+     */
+    CouponRecordVO findBestUsable(BigDecimal amount);
 }
@@ -1,9 +1,12 @@
 package net.ec_shop.service;
 
 import net.ec_shop.enums.CouponCategoryEnum;
+import net.ec_shop.model.CouponClaimTicket;
 import net.ec_shop.request.NewUserCouponRequest;
 import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.CouponClaimResultVO;
 
+import java.util.List;
 import java.util.Map;
 
 public interface CouponService {
@@ -33,4 +36,13 @@ public interface CouponService {
      * @return
      */
     JsonData initNewUserCoupon(NewUserCouponRequest newUserCouponRequest);
+
+    /**
+     * 秒杀优惠券批量发放，调用方需持有该优惠券的锁
+     *
+     * @param couponId
+     * @param ticketList
+     * @return
+     */
+    List<CouponClaimResultVO> addFlashSaleCouponBatch(long couponId, List<CouponClaimTicket> ticketList);
 }
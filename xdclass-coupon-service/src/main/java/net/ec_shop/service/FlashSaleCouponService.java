@@ -0,0 +1,23 @@
+package net.ec_shop.service;
+
+import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.CouponClaimResultVO;
+
+public interface FlashSaleCouponService {
+
+    /**
+     * 秒杀领券，排队成功立即返回排队凭证
+     *
+     * @param couponId
+     * @return
+     */
+    JsonData addFlashSaleCoupon(long couponId);
+
+    /**
+     * 查询排队结果
+     *
+     * @param ticket
+     * @return
+     */
+    CouponClaimResultVO findClaimResult(String ticket);
+}
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.UserCouponIndex;
 import net.ec_shop.config.RabbitMQConfig;
 import net.ec_shop.enums.BizCodeEnum;
 import net.ec_shop.enums.CouponStateEnum;
@@ -23,6 +24,7 @@ import net.ec_shop.model.LoginUser;
 import net.ec_shop.service.CouponRecordService;
 import net.ec_shop.util.JsonData;
 import net.ec_shop.vo.CouponRecordVO;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,10 +32,13 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 
@@ -56,18 +61,29 @@ public class CouponRecordServiceImpl implements CouponRecordService {
     @Autowired
     private ProductOrderFeignSerivce orderFeignSerivce;
 
+    @Autowired
+    private UserCouponIndex userCouponIndex;
+
 
     @Override
-    public Map<String, Object> page(int page, int size) {
+    public Map<String, Object> page(int page, int size, String useState) {
 
         LoginUser loginUser = LoginInterceptor.threadLocal.get();
 
         //封装分页信息
         Page<CouponRecordDO> pageInfo = new Page<>(page, size);
 
-        IPage<CouponRecordDO> recordDOIPage = couponRecordMapper.selectPage(pageInfo, new QueryWrapper<CouponRecordDO>()
-                .eq("user_id", loginUser.getId())
-                .orderByDesc("create_time"));
+        QueryWrapper<CouponRecordDO> queryWrapper = new QueryWrapper<CouponRecordDO>().eq("user_id", loginUser.getId());
+        if (StringUtils.isNotBlank(useState)) {
+            queryWrapper.eq("use_state", useState);
+            //过期任务未扫到的记录也不能返回为可用
+            if (CouponStateEnum.NEW.name().equalsIgnoreCase(useState)) {
+                queryWrapper.gt("end_time", new Date());
+            }
+        }
+        queryWrapper.orderByDesc("create_time");
+
+        IPage<CouponRecordDO> recordDOIPage = couponRecordMapper.selectPage(pageInfo, queryWrapper);
 
         Map<String, Object> pageMap = new HashMap<>(3);
 
@@ -96,11 +112,13 @@ public class CouponRecordServiceImpl implements CouponRecordService {
      * 1）锁定优惠券记录
      * 2）task表插入记录
      * 3）发送延迟消息
+     * 锁定行数不对时整体回滚；全部锁定成功后才从可用索引移除，在事务提交后执行
      *
      * @param recordRequest
      * @return
      */
     @Override
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
     public JsonData lockCouponRecords(LockCouponRecordRequest recordRequest) {
 
         LoginUser loginUser = LoginInterceptor.threadLocal.get();
@@ -125,6 +143,13 @@ public class CouponRecordServiceImpl implements CouponRecordService {
         log.info("新增优惠券记录task insertRows={}", insertRows);
 
         if (lockCouponRecordIds.size() == insertRows && insertRows == updateRows) {
+            //全部由NEW改成USED，提交后从可用优惠券索引中移除
+            userCouponIndex.remove(couponRecordMapper.selectList(new QueryWrapper<CouponRecordDO>()
+                    .select("id", "user_id", "price", "condition_price", "start_time", "end_time")
+                    .eq("user_id", loginUser.getId())
+                    .eq("use_state", CouponStateEnum.USED.name())
+                    .in("id", lockCouponRecordIds)));
+
             //发送延迟消息
             for (CouponTaskDO couponTaskDO : couponTaskDOList) {
                 CouponRecordMessage couponRecordMessage = new CouponRecordMessage();
@@ -189,6 +214,10 @@ public class CouponRecordServiceImpl implements CouponRecordService {
             couponTaskMapper.update(taskDO, new QueryWrapper<CouponTaskDO>().eq("id", recordMessage.getTaskId()));
             //恢复优惠券记录是NEW状态
             couponRecordMapper.updateState(taskDO.getCouponRecordId(), CouponStateEnum.NEW.name());
+            CouponRecordDO couponRecordDO = couponRecordMapper.selectById(taskDO.getCouponRecordId());
+            if (couponRecordDO != null) {
+                userCouponIndex.add(Collections.singletonList(couponRecordDO));
+            }
 
             return true;
         } else {
@@ -197,6 +226,61 @@ public class CouponRecordServiceImpl implements CouponRecordService {
         }
     }
 
+    /**
+     * 分批过期优惠券记录
+     * 按(end_time, id)游标推进，每批单独提交，批次之间停顿，避免长事务和大范围锁
+     *
+     * @param batchSize
+     * @param batchPause
+     * @param maxBatches
+     * @return
+     */
+    @Override
+    public int expireCouponRecords(int batchSize, long batchPause, int maxBatches) {
+        Date now = new Date();
+        Date lastEndTime = null;
+        long lastId = 0;
+        int total = 0;
+
+        for (int batch = 0; batch < maxBatches; batch++) {
+            List<CouponRecordDO> chunk = couponRecordMapper.listExpiredChunk(CouponStateEnum.NEW.name(), now, lastEndTime, lastId, batchSize);
+            if (chunk.isEmpty()) {
+                break;
+            }
+
+            List<Long> ids = chunk.stream().map(CouponRecordDO::getId).collect(Collectors.toList());
+            total += couponRecordMapper.expireStateBatch(ids, CouponStateEnum.EXPIRED.name(), CouponStateEnum.NEW.name());
+            userCouponIndex.remove(chunk);
+
+            CouponRecordDO last = chunk.get(chunk.size() - 1);
+            lastEndTime = last.getEndTime();
+            lastId = last.getId();
+
+            if (chunk.size() < batchSize) {
+                break;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(batchPause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 订单金额可用的最优优惠券
+     *
+     * @param amount
+     * @return
+     */
+    @Override
+    public CouponRecordVO findBestUsable(BigDecimal amount) {
+        LoginUser loginUser = LoginInterceptor.threadLocal.get();
+        return userCouponIndex.findBest(loginUser.getId(), amount);
+    }
+
     private CouponRecordVO beanProcess(CouponRecordDO couponRecordDO) {
         CouponRecordVO couponRecordVO = new CouponRecordVO();
         BeanUtils.copyProperties(couponRecordDO, couponRecordVO);
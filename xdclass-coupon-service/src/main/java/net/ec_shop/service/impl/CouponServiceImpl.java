@@ -4,14 +4,19 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.CouponStockLeaseManager;
+import net.ec_shop.component.MeteredLockClient;
+import net.ec_shop.component.UserCouponIndex;
 import net.ec_shop.enums.BizCodeEnum;
 import net.ec_shop.enums.CouponCategoryEnum;
+import net.ec_shop.enums.CouponClaimStateEnum;
 import net.ec_shop.enums.CouponPublishEnum;
 import net.ec_shop.enums.CouponStateEnum;
 import net.ec_shop.exception.BizException;
 import net.ec_shop.interceptor.LoginInterceptor;
 import net.ec_shop.mapper.CouponMapper;
 import net.ec_shop.mapper.CouponRecordMapper;
+import net.ec_shop.model.CouponClaimTicket;
 import net.ec_shop.model.CouponDO;
 import net.ec_shop.model.CouponRecordDO;
 import net.ec_shop.model.LoginUser;
@@ -19,15 +24,16 @@ import net.ec_shop.request.NewUserCouponRequest;
 import net.ec_shop.service.CouponService;
 import net.ec_shop.util.CommonUtil;
 import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.CouponClaimResultVO;
 import net.ec_shop.vo.CouponVO;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -47,7 +53,13 @@ public class CouponServiceImpl implements CouponService {
     private CouponRecordMapper couponRecordMapper;
 
     @Autowired
-    private RedissonClient redissonClient;
+    private MeteredLockClient meteredLockClient;
+
+    @Autowired
+    private UserCouponIndex userCouponIndex;
+
+    @Autowired
+    private CouponStockLeaseManager couponStockLeaseManager;
 
     @Override
     public Map<String, Object> pageCouponActivity(int page, int size) {
@@ -89,10 +101,9 @@ public class CouponServiceImpl implements CouponService {
     public JsonData addCoupon(long couponId, CouponCategoryEnum category) {
         LoginUser loginUser = LoginInterceptor.threadLocal.get();
         String lockKey = "lock:coupon:" + couponId;
-        RLock rLock = redissonClient.getLock(lockKey);
 
-        //多个线程进入，会阻塞等待释放锁
-        rLock.lock();
+        //多个线程进入，会阻塞等待释放锁，等待和持有时间记录到 redisson.lock.* 指标
+        MeteredLockClient.LockHandle lockHandle = meteredLockClient.lock(lockKey);
 
         //加锁10秒钟过期，没有watch dog 功能，无法自动续期
         //rLock.lock(10, TimeUnit.SECONDS);
@@ -121,12 +132,13 @@ public class CouponServiceImpl implements CouponService {
             if (rows == 1) {
                 //库存扣减成功才保存记录
                 couponRecordMapper.insert(couponRecordDO);
+                userCouponIndex.add(Collections.singletonList(couponRecordDO));
             } else {
                 log.warn("发放优惠券失败:{},用户:{}", couponDO, loginUser);
                 throw new BizException(BizCodeEnum.COUPON_NO_STOCK);
             }
         } finally {
-            rLock.unlock();
+            lockHandle.unlock();
             log.info("解锁成功");
         }
         return JsonData.buildSuccess();
@@ -159,6 +171,98 @@ public class CouponServiceImpl implements CouponService {
         return JsonData.buildSuccess();
     }
 
+    /**
+     * 秒杀优惠券批量发放
+     * 1、整批只查一次优惠券、一次用户领取数量
+     * 2、按用户限制过滤，批内同一用户也要累计
+     * 3、从本地库存租约扣减整批库存，一次批量插入领劵记录
+     * 库存不足的请求直接返回失败
+     *
+     * @param couponId
+     * @param ticketList
+     * @return
+     */
+    @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
+    @Override
+    public List<CouponClaimResultVO> addFlashSaleCouponBatch(long couponId, List<CouponClaimTicket> ticketList) {
+        CouponDO couponDO = couponMapper.selectOne(new QueryWrapper<CouponDO>()
+                .eq("id", couponId)
+                .eq("category", CouponCategoryEnum.PROMOTION.name()));
+        this.checkCouponState(couponDO);
+
+        //批量查询用户已领取数量
+        List<Long> userIds = ticketList.stream().map(CouponClaimTicket::getUserId).distinct().collect(Collectors.toList());
+        List<Map<String, Object>> countList = couponRecordMapper.selectMaps(new QueryWrapper<CouponRecordDO>()
+                .select("user_id", "count(*) AS num")
+                .eq("coupon_id", couponId)
+                .in("user_id", userIds)
+                .groupBy("user_id"));
+        Map<Long, Integer> userCountMap = new HashMap<>(countList.size() * 2);
+        for (Map<String, Object> countMap : countList) {
+            userCountMap.put(((Number) countMap.get("user_id")).longValue(), ((Number) countMap.get("num")).intValue());
+        }
+
+        List<CouponClaimResultVO> resultList = new ArrayList<>(ticketList.size());
+        List<CouponClaimTicket> acceptList = new ArrayList<>(ticketList.size());
+        for (CouponClaimTicket ticket : ticketList) {
+            int recordNum = userCountMap.getOrDefault(ticket.getUserId(), 0);
+            if (recordNum >= couponDO.getUserLimit()) {
+                resultList.add(buildClaimResult(ticket, BizCodeEnum.COUPON_OUT_OF_LIMIT));
+            } else {
+                userCountMap.put(ticket.getUserId(), recordNum + 1);
+                acceptList.add(ticket);
+            }
+        }
+
+        //coupon.stock是中心库存，部分可能已租借到各实例，这里不能用它判断
+        int grantNum = acceptList.isEmpty() ? 0 : couponStockLeaseManager.acquire(couponId, acceptList.size());
+        if (grantNum > 0) {
+            Date now = new Date();
+            List<CouponRecordDO> recordList = new ArrayList<>(grantNum);
+            for (int i = 0; i < grantNum; i++) {
+                CouponClaimTicket ticket = acceptList.get(i);
+                CouponRecordDO couponRecordDO = new CouponRecordDO();
+                BeanUtils.copyProperties(couponDO, couponRecordDO);
+                couponRecordDO.setCreateTime(now);
+                couponRecordDO.setUseState(CouponStateEnum.NEW.name());
+                couponRecordDO.setUserId(ticket.getUserId());
+                couponRecordDO.setUserName(ticket.getUserName());
+                couponRecordDO.setCouponId(couponId);
+                couponRecordDO.setId(null);
+                recordList.add(couponRecordDO);
+                resultList.add(buildClaimResult(ticket, null));
+            }
+            couponRecordMapper.insertBatch(recordList);
+            userCouponIndex.add(recordList);
+        }
+
+        for (int i = grantNum; i < acceptList.size(); i++) {
+            resultList.add(buildClaimResult(acceptList.get(i), BizCodeEnum.COUPON_NO_STOCK));
+        }
+        return resultList;
+    }
+
+    /**
+     * 构建排队结果，bizCodeEnum为空表示成功
+     *
+     * @param ticket
+     * @param bizCodeEnum
+     * @return
+     */
+    private CouponClaimResultVO buildClaimResult(CouponClaimTicket ticket, BizCodeEnum bizCodeEnum) {
+        CouponClaimResultVO resultVO = new CouponClaimResultVO();
+        resultVO.setTicket(ticket.getTicket());
+        if (bizCodeEnum == null) {
+            resultVO.setState(CouponClaimStateEnum.SUCCESS.name());
+            resultVO.setCode(0);
+        } else {
+            resultVO.setState(CouponClaimStateEnum.FAIL.name());
+            resultVO.setCode(bizCodeEnum.getCode());
+            resultVO.setMsg(bizCodeEnum.getMessage());
+        }
+        return resultVO;
+    }
+
     /**
      * 校验是否可以领取
      *
@@ -167,15 +271,34 @@ public class CouponServiceImpl implements CouponService {
      */
     private void checkCoupon(CouponDO couponDO, Long userId) {
 
-        if (couponDO == null) {
-            throw new BizException(BizCodeEnum.COUPON_NO_EXITS);
-        }
+        this.checkCouponState(couponDO);
 
         //库存是否足够
         if (couponDO.getStock() <= 0) {
             throw new BizException(BizCodeEnum.COUPON_NO_STOCK);
         }
 
+        //用户是否超过限制
+        int recordNum = couponRecordMapper.selectCount(new QueryWrapper<CouponRecordDO>()
+                .eq("coupon_id", couponDO.getId())
+                .eq("user_id", userId));
+
+        if (recordNum >= couponDO.getUserLimit()) {
+            throw new BizException(BizCodeEnum.COUPON_OUT_OF_LIMIT);
+        }
+    }
+
+    /**
+     * 校验优惠券本身是否可以领取：存在、发布状态、时间
+     *
+     * @param couponDO
+     */
+    private void checkCouponState(CouponDO couponDO) {
+
+        if (couponDO == null) {
+            throw new BizException(BizCodeEnum.COUPON_NO_EXITS);
+        }
+
         //判断是否是否发布状态
         if (!couponDO.getPublish().equals(CouponPublishEnum.PUBLISH.name())) {
             throw new BizException(BizCodeEnum.COUPON_GET_FAIL);
@@ -188,15 +311,6 @@ public class CouponServiceImpl implements CouponService {
         if (time < start || time > end) {
             throw new BizException(BizCodeEnum.COUPON_OUT_OF_TIME);
         }
-
-        //用户是否超过限制
-        int recordNum = couponRecordMapper.selectCount(new QueryWrapper<CouponRecordDO>()
-                .eq("coupon_id", couponDO.getId())
-                .eq("user_id", userId));
-
-        if (recordNum >= couponDO.getUserLimit()) {
-            throw new BizException(BizCodeEnum.COUPON_OUT_OF_LIMIT);
-        }
     }
 
     private CouponVO beanProcess(CouponDO couponDO) {
@@ -0,0 +1,82 @@
+package net.ec_shop.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.FlashSaleCouponQueue;
+import net.ec_shop.config.FlashSaleConfig;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.enums.BizCodeEnum;
+import net.ec_shop.enums.CouponClaimStateEnum;
+import net.ec_shop.interceptor.LoginInterceptor;
+import net.ec_shop.model.CouponClaimTicket;
+import net.ec_shop.model.LoginUser;
+import net.ec_shop.service.FlashSaleCouponService;
+import net.ec_shop.util.CommonUtil;
+import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.CouponClaimResultVO;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+@Service
+@Slf4j
+public class FlashSaleCouponServiceImpl implements FlashSaleCouponService {
+
+    @Autowired
+    private FlashSaleCouponQueue flashSaleCouponQueue;
+
+    @Autowired
+    private FlashSaleConfig flashSaleConfig;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    /**
+     * 秒杀领券
+     * 1、令牌桶准入 + 有界队列，被拒绝的请求不访问redis和数据库
+     * 2、入队后写排队状态，worker可能已先写入结果，所以用setIfAbsent
+     *
+     * @param couponId
+     * @return
+     */
+    @Override
+    public JsonData addFlashSaleCoupon(long couponId) {
+        LoginUser loginUser = LoginInterceptor.threadLocal.get();
+
+        CouponClaimTicket ticket = new CouponClaimTicket();
+        ticket.setTicket(CommonUtil.generateUUID());
+        ticket.setCouponId(couponId);
+        ticket.setUserId(loginUser.getId());
+        ticket.setUserName(loginUser.getName());
+
+        if (!flashSaleCouponQueue.submit(ticket)) {
+            log.info("秒杀领券排队失败，couponId={}, userId={}", couponId, loginUser.getId());
+            return JsonData.buildResult(BizCodeEnum.COUPON_CLAIM_BUSY);
+        }
+
+        CouponClaimResultVO resultVO = new CouponClaimResultVO();
+        resultVO.setTicket(ticket.getTicket());
+        resultVO.setState(CouponClaimStateEnum.QUEUED.name());
+        redisTemplate.opsForValue().setIfAbsent(String.format(CacheKey.COUPON_CLAIM_RESULT_KEY, ticket.getTicket()),
+                JSON.toJSONString(resultVO), flashSaleConfig.getResultTtl(), TimeUnit.SECONDS);
+
+        Map<String, Object> data = new HashMap<>(2);
+        data.put("ticket", ticket.getTicket());
+        return JsonData.buildSuccess(data);
+    }
+
+    @Override
+    public CouponClaimResultVO findClaimResult(String ticket) {
+        String value = redisTemplate.opsForValue().get(String.format(CacheKey.COUPON_CLAIM_RESULT_KEY, ticket));
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        return JSON.parseObject(value, CouponClaimResultVO.class);
+    }
+}
@@ -0,0 +1,64 @@
+package net.ec_shop.task;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.service.CouponRecordService;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * 定时把已过结束时间的优惠券记录置为EXPIRED
+ * 多实例部署时通过分布式锁保证同一时刻只有一个节点在扫描
+ */
+@Slf4j
+@Component
+public class CouponRecordExpireTask {
+
+    private static final String EXPIRE_LOCK_KEY = "lock:coupon_record:expire";
+
+    @Autowired
+    private CouponRecordService couponRecordService;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    /**
+     * 每批处理条数
+     */
+    @Value("${couponconfig.expire_batch_size:500}")
+    private int batchSize;
+
+    /**
+     * 每批之间的停顿，毫秒，避免长时间占用数据库
+     */
+    @Value("${couponconfig.expire_batch_pause:50}")
+    private long batchPause;
+
+    /**
+     * 单次调度最多处理的批数，剩余的留给下次调度
+     */
+    @Value("${couponconfig.expire_max_batches:200}")
+    private int maxBatches;
+
+    @Scheduled(initialDelayString = "${couponconfig.expire_interval:60000}", fixedDelayString = "${couponconfig.expire_interval:60000}")
+    public void expireCouponRecords() {
+        RLock rLock = redissonClient.getLock(EXPIRE_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            log.info("其他节点正在处理过期优惠券，本次跳过");
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int rows = couponRecordService.expireCouponRecords(batchSize, batchPause, maxBatches);
+            log.info("过期优惠券记录处理完成 rows={}, 耗时={}ms", rows, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("过期优惠券记录处理异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+}
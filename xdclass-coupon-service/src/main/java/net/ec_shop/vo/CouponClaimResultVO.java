@@ -0,0 +1,28 @@
+package net.ec_shop.vo;
+
+import lombok.Data;
+
+@Data
+public class CouponClaimResultVO {
+
+    /**
+     * 排队凭证
+     */
+    private String ticket;
+
+    /**
+     * 排队状态 QUEUED排队中，SUCCESS成功，FAIL失败
+     */
+    private String state;
+
+    /**
+     * 失败时的业务码
+     */
+    private Integer code;
+
+    /**
+     * 失败时的描述
+     */
+    private String msg;
+
+}
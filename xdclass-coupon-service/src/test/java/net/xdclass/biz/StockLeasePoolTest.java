@@ -0,0 +1,141 @@
+package net.xdclass.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.StockLeasePool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多实例共享中心库存的租约模拟，不依赖外部环境
+ */
+@Slf4j
+public class StockLeasePoolTest {
+
+    private static final long COUPON_ID = 1L;
+
+    /**
+     * 模拟coupon表的条件扣减
+     */
+    private static class MemoryCentralStock implements StockLeasePool.CentralStock {
+
+        private final AtomicInteger stock;
+
+        private final AtomicInteger leaseCalls = new AtomicInteger();
+
+        MemoryCentralStock(int stock) {
+            this.stock = new AtomicInteger(stock);
+        }
+
+        @Override
+        public int lease(long id, int max) {
+            leaseCalls.incrementAndGet();
+            while (true) {
+                int current = stock.get();
+                if (current <= 0) {
+                    return 0;
+                }
+                int num = Math.min(max, current);
+                if (stock.compareAndSet(current, current - num)) {
+                    return num;
+                }
+            }
+        }
+
+        @Override
+        public void giveBack(long id, int num) {
+            stock.addAndGet(num);
+        }
+    }
+
+    @Test
+    public void testMultiInstanceNeverOversell() throws InterruptedException {
+        int totalStock = 100_000;
+        int instances = 4;
+        int threadsPerInstance = 8;
+        MemoryCentralStock centralStock = new MemoryCentralStock(totalStock);
+
+        List<StockLeasePool> pools = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            pools.add(new StockLeasePool(centralStock, 10, 500, 2000));
+        }
+
+        AtomicInteger granted = new AtomicInteger();
+        AtomicLong[] perInstance = new AtomicLong[instances];
+        ExecutorService executor = Executors.newFixedThreadPool(instances * threadsPerInstance);
+        CountDownLatch latch = new CountDownLatch(instances * threadsPerInstance);
+        long start = System.nanoTime();
+        for (int i = 0; i < instances; i++) {
+            StockLeasePool pool = pools.get(i);
+            perInstance[i] = new AtomicLong();
+            AtomicLong counter = perInstance[i];
+            for (int t = 0; t < threadsPerInstance; t++) {
+                executor.execute(() -> {
+                    //每个线程领到售罄为止，期间偶尔模拟事务回滚放回
+                    int loop = 0;
+                    while (true) {
+                        int num = pool.acquire(COUPON_ID, 1);
+                        if (num == 0) {
+                            break;
+                        }
+                        if (++loop % 50 == 0) {
+                            pool.putBack(COUPON_ID, num);
+                            continue;
+                        }
+                        granted.addAndGet(num);
+                        counter.addAndGet(num);
+                    }
+                    latch.countDown();
+                });
+            }
+        }
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        int returned = 0;
+        for (StockLeasePool pool : pools) {
+            returned += pool.returnAll();
+        }
+
+        for (int i = 0; i < instances; i++) {
+            log.info("实例{} 领取数={}, 每秒领取={}", i, perInstance[i].get(), perInstance[i].get() * 1_000_000_000L / elapsed);
+        }
+        log.info("中心库存回源次数={}, 归还={}", centralStock.leaseCalls.get(), returned);
+
+        Assert.assertEquals(totalStock, granted.get());
+        Assert.assertEquals(0, centralStock.stock.get());
+    }
+
+    @Test
+    public void testReturnIdleLease() {
+        MemoryCentralStock centralStock = new MemoryCentralStock(1000);
+        StockLeasePool pool = new StockLeasePool(centralStock, 100, 500, 2000);
+
+        Assert.assertEquals(1, pool.acquire(COUPON_ID, 1));
+        Assert.assertEquals(99, pool.localRemaining(COUPON_ID));
+        Assert.assertEquals(900, centralStock.stock.get());
+
+        Assert.assertEquals(99, pool.returnIdle(0));
+        Assert.assertEquals(0, pool.localRemaining(COUPON_ID));
+        Assert.assertEquals(999, centralStock.stock.get());
+    }
+
+    @Test
+    public void testPartialGrantWhenSoldOut() {
+        MemoryCentralStock centralStock = new MemoryCentralStock(30);
+        StockLeasePool pool = new StockLeasePool(centralStock, 10, 500, 2000);
+
+        Assert.assertEquals(30, pool.acquire(COUPON_ID, 50));
+        Assert.assertEquals(0, pool.acquire(COUPON_ID, 1));
+        Assert.assertEquals(0, centralStock.stock.get());
+    }
+}
@@ -19,7 +19,7 @@ public class InterceptorConfig implements WebMvcConfigurer {
                 .addPathPatterns("/api/order/*/**")
 
                 //排查不拦截的路径
-                .excludePathPatterns("/api/callback/*/**", "/api/order/*/query_state");
+                .excludePathPatterns("/api/callback/*/**", "/api/order/*/query_state", "/api/order/*/query_state_batch");
 
     }
 }
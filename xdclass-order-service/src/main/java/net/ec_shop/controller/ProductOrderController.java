@@ -17,6 +17,8 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -83,6 +85,19 @@ public class ProductOrderController {
         return StringUtils.isBlank(state) ? JsonData.buildResult(BizCodeEnum.ORDER_CONFIRM_NOT_EXIST) : JsonData.buildSuccess(state);
     }
 
+    /**
+     * RPC-批量查询订单状态，用于库存批量释放
+     *
+     * @param outTradeNoList
+     * @return
+     */
+    @ApiOperation("批量查询订单状态")
+    @PostMapping("query_state_batch")
+    public JsonData queryProductOrderStateBatch(@ApiParam("订单号列表") @RequestBody List<String> outTradeNoList) {
+        Map<String, String> stateMap = orderService.queryProductOrderStateBatch(outTradeNoList);
+        return JsonData.buildSuccess(stateMap);
+    }
+
     private void writeData(HttpServletResponse response, JsonData jsonData) {
         try {
             response.setContentType("text/html;charset=UTF8");
@@ -2,6 +2,7 @@ package net.ec_shop.feign;
 
 import net.ec_shop.request.LockProductRequest;
 import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.OrderItemVO;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -21,6 +22,15 @@ public interface ProductFeignService {
     @PostMapping("/api/cart/v1/confirm_order_cart_items")
     JsonData confirmOrderCartItem(@RequestBody List<Long> productIdList);
 
+    /**
+     * 下单失败，放回购物项
+     *
+     * @param orderItemList
+     * @return
+     */
+    @PostMapping("/api/cart/v1/restore_cart_items")
+    JsonData restoreCartItems(@RequestBody List<OrderItemVO> orderItemList);
+
     /**
      * 锁定商品购物项库存
      *
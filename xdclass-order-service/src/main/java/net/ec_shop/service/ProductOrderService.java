@@ -4,6 +4,8 @@ import net.ec_shop.model.OrderMessage;
 import net.ec_shop.request.ConfirmOrderRequest;
 import net.ec_shop.util.JsonData;
 
+import java.util.List;
+import java.util.Map;
 
 public interface ProductOrderService {
 
@@ -23,6 +25,14 @@ public interface ProductOrderService {
      */
     String queryProductOrderState(String outTradeNo);
 
+    /**
+     * 批量查询订单状态
+     *
+     * @param outTradeNoList
+     * @return 订单号-状态，不存在的订单不返回
+     */
+    Map<String, String> queryProductOrderStateBatch(List<String> outTradeNoList);
+
     /**
      * 队列监听，定时关单
      *
@@ -35,7 +35,9 @@ import org.springframework.stereotype.Service;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 
@@ -100,25 +102,31 @@ public class ProductOrderServiceImpl implements ProductOrderService {
             throw new BizException(BizCodeEnum.ORDER_CONFIRM_CART_ITEM_NOT_EXIST);
         }
 
-        //验证价格，减去商品优惠券
-        this.checkPrice(orderItemList, orderRequest);
+        try {
+            //验证价格，减去商品优惠券
+            this.checkPrice(orderItemList, orderRequest);
 
-        //锁定优惠券
-        this.lockCouponRecords(orderRequest, orderOutTradeNo);
+            //锁定优惠券
+            this.lockCouponRecords(orderRequest, orderOutTradeNo);
 
-        //锁定库存
-        this.lockProductStocks(orderItemList, orderOutTradeNo);
+            //锁定库存
+            this.lockProductStocks(orderItemList, orderOutTradeNo);
 
-        //创建订单
-        ProductOrderDO productOrderDO = this.saveProductOrder(orderRequest, loginUser, orderOutTradeNo, addressVO);
+            //创建订单
+            ProductOrderDO productOrderDO = this.saveProductOrder(orderRequest, loginUser, orderOutTradeNo, addressVO);
 
-        //创建订单项
-        this.saveProductOrderItems(orderOutTradeNo, productOrderDO.getId(), orderItemList);
+            //创建订单项
+            this.saveProductOrderItems(orderOutTradeNo, productOrderDO.getId(), orderItemList);
 
-        //发送延迟消息，用于自动关单 TODO
-        OrderMessage orderMessage = new OrderMessage();
-        orderMessage.setOutTradeNo(orderOutTradeNo);
-        rabbitTemplate.convertAndSend(rabbitMQConfig.getEventExchange(), rabbitMQConfig.getOrderCloseDelayRoutingKey(), orderMessage);
+            //发送延迟消息，用于自动关单 TODO
+            OrderMessage orderMessage = new OrderMessage();
+            orderMessage.setOutTradeNo(orderOutTradeNo);
+            rabbitTemplate.convertAndSend(rabbitMQConfig.getEventExchange(), rabbitMQConfig.getOrderCloseDelayRoutingKey(), orderMessage);
+        } catch (RuntimeException e) {
+            //购物项已从购物车取出，下单失败要放回
+            restoreCartItems(orderItemList);
+            throw e;
+        }
 
         //创建支付  TODO
 
@@ -126,6 +134,22 @@ public class ProductOrderServiceImpl implements ProductOrderService {
         return null;
     }
 
+    /**
+     * 下单失败补偿，放回购物项，放回失败只记录日志不影响原异常
+     *
+     * @param orderItemList
+     */
+    private void restoreCartItems(List<OrderItemVO> orderItemList) {
+        try {
+            JsonData jsonData = productFeignService.restoreCartItems(orderItemList);
+            if (jsonData.getCode() != 0) {
+                log.error("放回购物项失败:{}", jsonData);
+            }
+        } catch (Exception e) {
+            log.error("放回购物项异常:{}", orderItemList, e);
+        }
+    }
+
     /**
      * 创建订单
      *
@@ -353,6 +377,22 @@ public class ProductOrderServiceImpl implements ProductOrderService {
         }
     }
 
+    /**
+     * 批量查询订单状态
+     *
+     * @param outTradeNoList
+     * @return
+     */
+    @Override
+    public Map<String, String> queryProductOrderStateBatch(List<String> outTradeNoList) {
+        if (outTradeNoList.isEmpty()) {
+            return new HashMap<>(0);
+        }
+        List<ProductOrderDO> productOrderDOList = productOrderMapper.selectList(new QueryWrapper<ProductOrderDO>()
+                .select("out_trade_no", "state").in("out_trade_no", outTradeNoList));
+        return productOrderDOList.stream().collect(Collectors.toMap(ProductOrderDO::getOutTradeNo, ProductOrderDO::getState, (a, b) -> a));
+    }
+
     /**
      * 定时关单
      *
@@ -41,6 +41,12 @@ public class OrderItemVO {
     @JsonProperty("total_amount")
     private BigDecimal totalAmount;
 
+    /**
+     * 加入购物车时间，秒，下单失败放回购物车时保留
+     */
+    @JsonProperty("add_time")
+    private Long addTime;
+
     public Long getProductId() {
         return productId;
     }
@@ -77,6 +83,14 @@ public class OrderItemVO {
         return amount;
     }
 
+    public Long getAddTime() {
+        return addTime;
+    }
+
+    public void setAddTime(Long addTime) {
+        this.addTime = addTime;
+    }
+
     public void setAmount(BigDecimal amount) {
         this.amount = amount;
     }
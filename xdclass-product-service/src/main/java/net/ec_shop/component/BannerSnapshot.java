@@ -0,0 +1,124 @@
+package net.ec_shop.component;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.mapper.BannerMapper;
+import net.ec_shop.model.BannerDO;
+import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.BannerVO;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 轮播图快照
+ * 启动时加载并序列化好整个响应体，请求直接返回字节，不查库也不序列化
+ * 轮播图没有后台写入入口，定时轮询重新加载，内容没变不替换，ETag保持不变
+ */
+@Slf4j
+@Component
+public class BannerSnapshot {
+
+    @Autowired
+    private BannerMapper bannerMapper;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    public void init() {
+        refresh();
+    }
+
+    /**
+     * 定时刷新
+     */
+    @Scheduled(initialDelayString = "${productconfig.banner_refresh_interval:30000}", fixedDelayString = "${productconfig.banner_refresh_interval:30000}")
+    public void scheduledRefresh() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("轮播图快照刷新异常，继续使用旧快照", e);
+        }
+    }
+
+    /**
+     * 重新加载轮播图
+     */
+    public synchronized void refresh() {
+        List<BannerDO> bannerDOList = bannerMapper.selectList(new QueryWrapper<BannerDO>().orderByAsc("weight"));
+
+        List<BannerVO> bannerVOList = bannerDOList.stream().map(obj -> {
+            BannerVO bannerVO = new BannerVO();
+            BeanUtils.copyProperties(obj, bannerVO);
+            return bannerVO;
+        }).collect(Collectors.toList());
+
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(JsonData.buildSuccess(bannerVOList));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("轮播图序列化失败", e);
+        }
+
+        Snapshot current = snapshot;
+        if (current != null && Arrays.equals(current.body, body)) {
+            return;
+        }
+        String etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        snapshot = new Snapshot(Collections.unmodifiableList(bannerVOList), body, etag);
+        log.info("轮播图快照更新，条数={}，etag={}", bannerVOList.size(), etag);
+    }
+
+    public Snapshot get() {
+        return snapshot;
+    }
+
+    /**
+     * 不可变快照
+     */
+    public static class Snapshot {
+
+        private final List<BannerVO> bannerVOList;
+
+        /**
+         * 序列化好的完整响应体，utf-8
+         */
+        private final byte[] body;
+
+        private final String etag;
+
+        Snapshot(List<BannerVO> bannerVOList, byte[] body, String etag) {
+            this.bannerVOList = bannerVOList;
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public List<BannerVO> getBannerVOList() {
+            return bannerVOList;
+        }
+
+        /**
+         * 调用方不能修改返回的数组
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package net.ec_shop.component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.mapper.CartArchiveMapper;
+import net.ec_shop.model.CartArchiveDO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷购物车归档，只负责数据库读写，redis侧的移出和恢复在CartStore
+ * 购物车不在redis时都要查一次有没有归档，最近确认过没有归档的key在本地记一段时间，空购物车不用每次查库
+ * 只有空闲超过归档阈值的购物车才会被归档，本地记录的时间远小于这个阈值，其他节点归档时不用通知
+ */
+@Slf4j
+@Component
+public class CartArchive {
+
+    @Autowired
+    private CartArchiveMapper cartArchiveMapper;
+
+    /**
+     * 确认没有归档的key本地记录多久，秒，需要远小于归档的空闲阈值
+     */
+    @Value("${productconfig.cart_archive_miss_ttl:60}")
+    private long missTtl;
+
+    @Value("${productconfig.cart_archive_miss_size:100000}")
+    private long missSize;
+
+    private Cache<String, Boolean> missCache;
+
+    @PostConstruct
+    public void init() {
+        missCache = Caffeine.newBuilder()
+                .maximumSize(missSize)
+                .expireAfterWrite(missTtl, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 查询归档
+     *
+     * @param cartKey
+     * @return 打包的hash，没有归档返回null
+     */
+    public Map<byte[], byte[]> find(String cartKey) {
+        if (missCache.getIfPresent(cartKey) != null) {
+            return null;
+        }
+        CartArchiveDO cartArchiveDO = cartArchiveMapper.selectById(cartKey);
+        if (cartArchiveDO == null) {
+            missCache.put(cartKey, Boolean.TRUE);
+            return null;
+        }
+        try {
+            return CartItemCodec.decodeArchive(cartArchiveDO.getContent());
+        } catch (Exception e) {
+            log.error("购物车归档解析失败，丢弃该归档，key:{}", cartKey, e);
+            delete(cartKey);
+            return null;
+        }
+    }
+
+    /**
+     * 批量归档，已存在的覆盖
+     *
+     * @param hashMap 购物车key -> 整个hash
+     */
+    public void save(Map<String, Map<byte[], byte[]>> hashMap) {
+        if (hashMap.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        List<CartArchiveDO> cartArchiveList = new ArrayList<>(hashMap.size());
+        hashMap.forEach((cartKey, hash) -> {
+            CartArchiveDO cartArchiveDO = new CartArchiveDO();
+            cartArchiveDO.setCartKey(cartKey);
+            cartArchiveDO.setContent(CartItemCodec.encodeArchive(hash));
+            cartArchiveDO.setItemCount(hash.size());
+            cartArchiveDO.setArchiveTime(now);
+            cartArchiveList.add(cartArchiveDO);
+        });
+        cartArchiveMapper.upsertBatch(cartArchiveList);
+        missCache.invalidateAll(hashMap.keySet());
+    }
+
+    public void delete(String cartKey) {
+        cartArchiveMapper.deleteById(cartKey);
+        missCache.put(cartKey, Boolean.TRUE);
+    }
+
+    public void delete(Collection<String> cartKeys) {
+        if (cartKeys.isEmpty()) {
+            return;
+        }
+        cartArchiveMapper.deleteBatchIds(cartKeys);
+        for (String cartKey : cartKeys) {
+            missCache.put(cartKey, Boolean.TRUE);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package net.ec_shop.component;
+
+import net.ec_shop.model.CartEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 购物项二进制编码
+ * hash的field是商品id的十进制字符串，value均为大端：
+ * 版本1，9字节：版本号(1) + 购买数量(4) + 加入时间秒(4)
+ * 版本2，17字节：版本1的内容 + 价格版本(4) + 价格分(4)，价格版本为0表示没有价格快照
+ * 标题、图片不落购物车，展示时从商品缓存取；价格存一份快照，价格版本没变就直接用
+ * 归档到数据库时整个hash原样打包：版本号(1) + 若干组 field长度(1) + field + value长度(2) + value
+ */
+public final class CartItemCodec {
+
+    public static final byte VERSION_1 = 1;
+
+    public static final int VERSION_1_LENGTH = 9;
+
+    /**
+     * 当前编码版本
+     */
+    public static final byte VERSION_2 = 2;
+
+    public static final int VERSION_2_LENGTH = 17;
+
+    public static final byte ARCHIVE_VERSION = 1;
+
+    private CartItemCodec() {
+    }
+
+    public static byte[] encodeField(long productId) {
+        return Long.toString(productId).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static long decodeField(byte[] field) {
+        return Long.parseLong(new String(field, StandardCharsets.US_ASCII));
+    }
+
+    public static byte[] encodeValue(CartEntry entry) {
+        return ByteBuffer.allocate(VERSION_2_LENGTH)
+                .put(VERSION_2)
+                .putInt(entry.getBuyNum())
+                .putInt((int) entry.getAddTime())
+                .putInt((int) entry.getPriceVersion())
+                .putInt((int) entry.getAmountCents())
+                .array();
+    }
+
+    public static CartEntry decode(byte[] field, byte[] value) {
+        if (!isCurrent(value)) {
+            throw new IllegalArgumentException("不支持的购物项编码");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value, 1, value.length - 1);
+        int buyNum = buffer.getInt();
+        long addTime = Integer.toUnsignedLong(buffer.getInt());
+        long priceVersion = 0;
+        long amountCents = 0;
+        if (value[0] == VERSION_2) {
+            priceVersion = Integer.toUnsignedLong(buffer.getInt());
+            amountCents = Integer.toUnsignedLong(buffer.getInt());
+        }
+        return new CartEntry(decodeField(field), buyNum, addTime, priceVersion, amountCents);
+    }
+
+    /**
+     * 是否是二进制编码，版本1没有价格快照，按价格版本0处理；旧数据是jdk序列化的json字符串，开头是0xACED
+     *
+     * @param value
+     * @return
+     */
+    public static boolean isCurrent(byte[] value) {
+        return value != null && ((value.length == VERSION_1_LENGTH && value[0] == VERSION_1)
+                || (value.length == VERSION_2_LENGTH && value[0] == VERSION_2));
+    }
+
+    /**
+     * 打包hash的field和value，不解析value，旧编码的购物项恢复后照常迁移
+     *
+     * @param hash
+     * @return
+     */
+    public static byte[] encodeArchive(Map<byte[], byte[]> hash) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 + hash.size() * (3 + 8 + VERSION_2_LENGTH));
+        out.write(ARCHIVE_VERSION);
+        for (Map.Entry<byte[], byte[]> item : hash.entrySet()) {
+            byte[] field = item.getKey();
+            byte[] value = item.getValue();
+            if (field.length > 0xFF || value.length > 0xFFFF) {
+                throw new IllegalArgumentException("购物项长度超出归档编码范围");
+            }
+            out.write(field.length);
+            out.write(field, 0, field.length);
+            out.write(value.length >>> 8);
+            out.write(value.length);
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+
+    public static Map<byte[], byte[]> decodeArchive(byte[] content) {
+        if (content == null || content.length == 0 || content[0] != ARCHIVE_VERSION) {
+            throw new IllegalArgumentException("不支持的归档编码");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content, 1, content.length - 1);
+        Map<byte[], byte[]> hash = new LinkedHashMap<>();
+        while (buffer.hasRemaining()) {
+            byte[] field = new byte[buffer.get() & 0xFF];
+            buffer.get(field);
+            byte[] value = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(value);
+            hash.put(field, value);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,32 @@
+package net.ec_shop.component;
+
+import com.alibaba.fastjson.JSON;
+import net.ec_shop.constant.CacheKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 购物车redis内存统计 /actuator/cartmemory，按购物项数量分桶的购物车数、字节数，数据来自最近一次CartOffloadTask
+ */
+@Component
+@Endpoint(id = "cartmemory")
+public class CartMemoryEndpoint {
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @ReadOperation
+    public Map<String, Object> report() {
+        Object json = redisTemplate.opsForValue().get(CacheKey.CART_MEMORY_REPORT_KEY);
+        if (json == null) {
+            return Collections.emptyMap();
+        }
+        return JSON.parseObject((String) json);
+    }
+}
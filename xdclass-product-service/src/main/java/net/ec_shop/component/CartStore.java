@@ -0,0 +1,740 @@
+package net.ec_shop.component;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.model.CartContent;
+import net.ec_shop.model.CartEntry;
+import net.ec_shop.model.CartStat;
+import net.ec_shop.model.CartTotal;
+import net.ec_shop.util.LongHashSet;
+import net.ec_shop.vo.CartItemVO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * 购物车redis存储，hash结构 cart:{userId}，编码见CartItemCodec
+ * 旧数据是jdk序列化的商品id和json字符串，读到时顺手迁移成新编码；脚本兼容二进制编码的版本1和版本2，写入都是版本2
+ * 总件数和按价格快照算的总金额存在TOTAL_FIELD里，每个修改购物项的脚本里同时增量更新
+ * 每次读写都把过期时间重置为cart_ttl，长时间不访问的购物车由CartOffloadTask移到数据库，再次访问时恢复
+ */
+@Slf4j
+@Component
+public class CartStore {
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private CartArchive cartArchive;
+
+    /**
+     * 购物车过期时间，秒，每次访问重新计时
+     */
+    @Value("${productconfig.cart_ttl:2592000}")
+    private long cartTtl;
+
+    /**
+     * 脚本返回码：购物项种类超过上限
+     */
+    public static final long RESULT_ITEM_LIMIT = -1;
+
+    /**
+     * 脚本返回码：单个商品数量超过上限
+     */
+    public static final long RESULT_NUM_LIMIT = -2;
+
+    /**
+     * 脚本返回码：还是旧编码，需要先迁移
+     */
+    public static final long RESULT_LEGACY = -3;
+
+    /**
+     * 脚本返回码：购物项不存在
+     */
+    public static final long RESULT_NOT_EXIST = -4;
+
+    /**
+     * 脚本返回码：购物车不在redis里，可能已归档，需要先恢复
+     */
+    public static final long RESULT_MISSING = -5;
+
+    /**
+     * 购物车合计所在的field，值是 总件数(8) + 总金额分(8)，大端有符号
+     */
+    public static final String TOTAL_FIELD = "total";
+
+    /**
+     * 脚本公用函数，最后两个参数固定是 是否检查归档、过期时间秒，先取出来，脚本里的ARGV不含这两个
+     * missing：需要检查归档并且购物车不存在
+     * decode/encode：兼容版本1和版本2，解码返回数量、加入时间、价格版本、价格分，写入统一用版本2
+     * read_total/write_total：读写合计，没有合计时按现有购物项算一遍，旧编码的不计入；购物车只剩合计时删掉合计，否则重置过期时间
+     */
+    private static final String COMMON_LUA =
+            "local ttl = tonumber(table.remove(ARGV)) " +
+                    "local check_archive = table.remove(ARGV) == '1' " +
+                    "local function missing(key) " +
+                    "  return check_archive and redis.call('EXISTS', key) == 0 " +
+                    "end " +
+                    "local function decode(v) " +
+                    "  if string.len(v) == 9 then " +
+                    "    local _, n, t = struct.unpack('>BI4I4', v) " +
+                    "    return n, t, 0, 0 " +
+                    "  end " +
+                    "  local _, n, t, pv, amt = struct.unpack('>BI4I4I4I4', v) " +
+                    "  return n, t, pv, amt " +
+                    "end " +
+                    "local function encode(n, t, pv, amt) " +
+                    "  return struct.pack('>BI4I4I4I4', 2, n, t, pv, amt) " +
+                    "end " +
+                    "local function is_item(v) " +
+                    "  local len, ver = string.len(v), string.byte(v, 1) " +
+                    "  return (len == 9 and ver == 1) or (len == 17 and ver == 2) " +
+                    "end " +
+                    "local function read_total(key) " +
+                    "  local v = redis.call('HGET', key, '" + TOTAL_FIELD + "') " +
+                    "  if v then " +
+                    "    local _, num, cents = struct.unpack('>i8i8', v) " +
+                    "    return num, cents " +
+                    "  end " +
+                    "  local num, cents = 0, 0 " +
+                    "  local all = redis.call('HGETALL', key) " +
+                    "  for i = 1, #all, 2 do " +
+                    "    if all[i] ~= '" + TOTAL_FIELD + "' and is_item(all[i + 1]) then " +
+                    "      local n, _, _, amt = decode(all[i + 1]) " +
+                    "      num = num + n cents = cents + n * amt " +
+                    "    end " +
+                    "  end " +
+                    "  return num, cents " +
+                    "end " +
+                    "local function write_total(key, num, cents) " +
+                    "  redis.call('HSET', key, '" + TOTAL_FIELD + "', struct.pack('>i8i8', num, cents)) " +
+                    "  if redis.call('HLEN', key) == 1 then " +
+                    "    redis.call('DEL', key) " +
+                    "  elseif ttl > 0 then " +
+                    "    redis.call('EXPIRE', key, ttl) " +
+                    "  end " +
+                    "end ";
+
+    /**
+     * 加购，已存在则累加数量，不存在则新增，种类和数量上限在脚本内校验，价格快照更新为本次看到的
+     * KEYS[1] 购物车key，ARGV: field, 旧编码field, 增加数量, 当前时间秒, 最大种类, 单品最大数量, 价格版本, 价格分
+     */
+    private static final DefaultRedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(COMMON_LUA +
+            "if missing(KEYS[1]) then return -5 end " +
+                    "local total_num, total_cents = read_total(KEYS[1]) " +
+                    "local v = redis.call('HGET', KEYS[1], ARGV[1]) " +
+                    "local num, ts, old_num, old_amt " +
+                    "if v then " +
+                    "  local n, t, _, amt = decode(v) " +
+                    "  num = n + tonumber(ARGV[3]) ts = t old_num = n old_amt = amt " +
+                    "else " +
+                    "  if redis.call('HEXISTS', KEYS[1], ARGV[2]) == 1 then return -3 end " +
+                    "  local items = redis.call('HLEN', KEYS[1]) - redis.call('HEXISTS', KEYS[1], '" + TOTAL_FIELD + "') " +
+                    "  if items >= tonumber(ARGV[5]) then return -1 end " +
+                    "  num = tonumber(ARGV[3]) ts = tonumber(ARGV[4]) old_num = 0 old_amt = 0 " +
+                    "end " +
+                    "if num > tonumber(ARGV[6]) then return -2 end " +
+                    "local amt = tonumber(ARGV[8]) " +
+                    "redis.call('HSET', KEYS[1], ARGV[1], encode(num, ts, tonumber(ARGV[7]), amt)) " +
+                    "write_total(KEYS[1], total_num + num - old_num, total_cents + num * amt - old_num * old_amt) " +
+                    "return num", Long.class);
+
+    /**
+     * 修改数量，购物项必须已存在
+     * KEYS[1] 购物车key，ARGV: field, 旧编码field, 数量, 单品最大数量
+     */
+    private static final DefaultRedisScript<Long> CHANGE_SCRIPT = new DefaultRedisScript<>(COMMON_LUA +
+            "local v = redis.call('HGET', KEYS[1], ARGV[1]) " +
+                    "if not v then " +
+                    "  if missing(KEYS[1]) then return -5 end " +
+                    "  if redis.call('HEXISTS', KEYS[1], ARGV[2]) == 1 then return -3 end " +
+                    "  return -4 " +
+                    "end " +
+                    "local num = tonumber(ARGV[3]) " +
+                    "if num > tonumber(ARGV[4]) then return -2 end " +
+                    "local total_num, total_cents = read_total(KEYS[1]) " +
+                    "local n, t, pv, amt = decode(v) " +
+                    "redis.call('HSET', KEYS[1], ARGV[1], encode(num, t, pv, amt)) " +
+                    "write_total(KEYS[1], total_num + num - n, total_cents + (num - n) * amt) " +
+                    "return num", Long.class);
+
+    /**
+     * 下单取出购物项，读取并删除在一个脚本内完成，同一购物项不会被两次下单
+     * KEYS[1] 购物车key，ARGV: 要取出的field列表，返回 field1, value1, field2, value2 ...
+     */
+    private static final DefaultRedisScript<List> TAKE_SCRIPT = new DefaultRedisScript<>(COMMON_LUA +
+            "local total_num, total_cents = read_total(KEYS[1]) " +
+                    "local result = {} " +
+                    "for i = 1, #ARGV do " +
+                    "  local v = redis.call('HGET', KEYS[1], ARGV[i]) " +
+                    "  if v then " +
+                    "    result[#result + 1] = ARGV[i] " +
+                    "    result[#result + 1] = v " +
+                    "    redis.call('HDEL', KEYS[1], ARGV[i]) " +
+                    "    if is_item(v) then " +
+                    "      local n, _, _, amt = decode(v) " +
+                    "      total_num = total_num - n total_cents = total_cents - n * amt " +
+                    "    end " +
+                    "  end " +
+                    "end " +
+                    "if #result > 0 then write_total(KEYS[1], total_num, total_cents) end " +
+                    "return result", List.class);
+
+    /**
+     * 下单失败时放回购物项，已存在则累加数量，不校验上限；新放回的保留原来的加入时间，没有价格快照
+     * KEYS[1] 购物车key，ARGV[1] 当前时间秒，之后是 field, 数量, 原加入时间秒 三个一组，原加入时间为0时用当前时间
+     */
+    private static final DefaultRedisScript<Long> RESTORE_SCRIPT = new DefaultRedisScript<>(COMMON_LUA +
+            "local total_num, total_cents = read_total(KEYS[1]) " +
+                    "local ts = tonumber(ARGV[1]) " +
+                    "for i = 2, #ARGV, 3 do " +
+                    "  local num = tonumber(ARGV[i + 1]) " +
+                    "  local add_time = tonumber(ARGV[i + 2]) " +
+                    "  local n, t, pv, amt = 0, ts, 0, 0 " +
+                    "  if add_time > 0 then t = add_time end " +
+                    "  local v = redis.call('HGET', KEYS[1], ARGV[i]) " +
+                    "  if v then n, t, pv, amt = decode(v) end " +
+                    "  redis.call('HSET', KEYS[1], ARGV[i], encode(n + num, t, pv, amt)) " +
+                    "  total_num = total_num + num total_cents = total_cents + num * amt " +
+                    "end " +
+                    "write_total(KEYS[1], total_num, total_cents) " +
+                    "return 1", Long.class);
+
+    /**
+     * 更新价格快照，只改还在购物车里的项，数量和加入时间不变
+     * KEYS[1] 购物车key，之后是 field, 价格版本, 价格分 三个一组；返回更新后的 总件数, 总金额分
+     */
+    private static final DefaultRedisScript<List> REFRESH_PRICE_SCRIPT = new DefaultRedisScript<>(COMMON_LUA +
+            "local total_num, total_cents = read_total(KEYS[1]) " +
+                    "for i = 1, #ARGV, 3 do " +
+                    "  local v = redis.call('HGET', KEYS[1], ARGV[i]) " +
+                    "  if v then " +
+                    "    local n, t, _, amt = decode(v) " +
+                    "    local new_amt = tonumber(ARGV[i + 2]) " +
+                    "    redis.call('HSET', KEYS[1], ARGV[i], encode(n, t, tonumber(ARGV[i + 1]), new_amt)) " +
+                    "    total_cents = total_cents + n * (new_amt - amt) " +
+                    "  end " +
+                    "end " +
+                    "if total_num > 0 then write_total(KEYS[1], total_num, total_cents) end " +
+                    "return {total_num, total_cents}", List.class);
+
+    /**
+     * 删除购物项，新旧编码的field都传进来
+     * KEYS[1] 购物车key，ARGV: 要删除的field列表；返回删除的个数
+     */
+    private static final DefaultRedisScript<Long> DELETE_SCRIPT = new DefaultRedisScript<>(COMMON_LUA +
+            "if missing(KEYS[1]) then return -5 end " +
+                    "local total_num, total_cents = read_total(KEYS[1]) " +
+                    "local count = 0 " +
+                    "for i = 1, #ARGV do " +
+                    "  local v = redis.call('HGET', KEYS[1], ARGV[i]) " +
+                    "  if v then " +
+                    "    redis.call('HDEL', KEYS[1], ARGV[i]) " +
+                    "    count = count + 1 " +
+                    "    if is_item(v) then " +
+                    "      local n, _, _, amt = decode(v) " +
+                    "      total_num = total_num - n total_cents = total_cents - n * amt " +
+                    "    end " +
+                    "  end " +
+                    "end " +
+                    "if count > 0 then write_total(KEYS[1], total_num, total_cents) end " +
+                    "return count", Long.class);
+
+    /**
+     * 读取整个购物车并重置过期时间
+     * KEYS[1] 购物车key，ARGV[1] 过期时间秒
+     */
+    private static final DefaultRedisScript<List> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "local all = redis.call('HGETALL', KEYS[1]) " +
+                    "if #all > 0 and tonumber(ARGV[1]) > 0 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end " +
+                    "return all", List.class);
+
+    /**
+     * 从归档恢复，已有的field不覆盖，删掉合计让下次写入时重新计算
+     * KEYS[1] 购物车key，ARGV[1] 过期时间秒，之后是 field, value 成对出现
+     */
+    private static final DefaultRedisScript<Long> RECOVER_SCRIPT = new DefaultRedisScript<>(
+            "for i = 2, #ARGV, 2 do " +
+                    "  redis.call('HSETNX', KEYS[1], ARGV[i], ARGV[i + 1]) " +
+                    "end " +
+                    "redis.call('HDEL', KEYS[1], '" + TOTAL_FIELD + "') " +
+                    "if tonumber(ARGV[1]) > 0 then redis.call('EXPIRE', KEYS[1], ARGV[1]) end " +
+                    "return 1", Long.class);
+
+    /**
+     * 统计购物车的剩余过期时间、购物项数量、占用内存，没有过期时间的老数据补上过期时间
+     * KEYS 购物车key列表，ARGV[1] 过期时间秒；每个key返回 剩余秒数, 购物项数量, 字节数，不存在或者不是hash的剩余秒数为-2
+     * TTL是不确定命令，之后还要写，按效果复制
+     */
+    private static final DefaultRedisScript<List> STAT_SCRIPT = new DefaultRedisScript<>(
+            "redis.replicate_commands() " +
+                    "local result = {} " +
+                    "for i = 1, #KEYS do " +
+                    "  local t, items, bytes = -2, 0, 0 " +
+                    "  if redis.call('TYPE', KEYS[i]).ok == 'hash' then " +
+                    "    t = redis.call('TTL', KEYS[i]) " +
+                    "    if t == -1 and tonumber(ARGV[1]) > 0 then " +
+                    "      redis.call('EXPIRE', KEYS[i], ARGV[1]) " +
+                    "      t = tonumber(ARGV[1]) " +
+                    "    end " +
+                    "    items = redis.call('HLEN', KEYS[i]) - redis.call('HEXISTS', KEYS[i], '" + TOTAL_FIELD + "') " +
+                    "    local m = redis.pcall('MEMORY', 'USAGE', KEYS[i]) " +
+                    "    if type(m) == 'number' then bytes = m end " +
+                    "  end " +
+                    "  result[#result + 1] = t " +
+                    "  result[#result + 1] = items " +
+                    "  result[#result + 1] = bytes " +
+                    "end " +
+                    "return result", List.class);
+
+    /**
+     * 归档写入数据库后删除redis里的购物车，剩余过期时间变长说明期间被访问过，不删
+     * KEYS 购物车key列表，ARGV[1] 允许删除的最大剩余秒数；每个key返回1已删除，0未删除
+     */
+    private static final DefaultRedisScript<List> OFFLOAD_SCRIPT = new DefaultRedisScript<>(
+            "redis.replicate_commands() " +
+                    "local result = {} " +
+                    "for i = 1, #KEYS do " +
+                    "  local t = redis.call('TTL', KEYS[i]) " +
+                    "  if t >= 0 and t <= tonumber(ARGV[1]) then " +
+                    "    redis.call('DEL', KEYS[i]) " +
+                    "    result[i] = 1 " +
+                    "  else " +
+                    "    result[i] = 0 " +
+                    "  end " +
+                    "end " +
+                    "return result", List.class);
+
+    /**
+     * 旧数据的hash key、value都是RedisTemplate默认的jdk序列化
+     */
+    private final RedisSerializer<Object> legacySerializer = new JdkSerializationRedisSerializer();
+
+    private final RedisSerializer<Long> resultSerializer = new GenericToStringSerializer<>(Long.class);
+
+    private static final byte[] TOTAL_FIELD_BYTES = TOTAL_FIELD.getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 查询整个购物车，按加入时间排序
+     *
+     * @param cartKey
+     * @return
+     */
+    public List<CartEntry> list(String cartKey) {
+        return load(cartKey).getEntries();
+    }
+
+    /**
+     * 查询整个购物车和合计，一次HGETALL，不在redis里的先从归档恢复
+     *
+     * @param cartKey
+     * @return 购物项按加入时间排序
+     */
+    public CartContent load(String cartKey) {
+        byte[] key = rawKey(cartKey);
+        List<byte[]> hash = loadRaw(cartKey);
+        if (hash.isEmpty() && recover(cartKey)) {
+            hash = loadRaw(cartKey);
+        }
+
+        List<CartEntry> entryList = new ArrayList<>();
+        Map<byte[], CartEntry> legacyMap = new LinkedHashMap<>();
+        CartTotal total = null;
+        for (int i = 0; i + 1 < hash.size(); i += 2) {
+            byte[] field = hash.get(i);
+            byte[] value = hash.get(i + 1);
+            if (Arrays.equals(field, TOTAL_FIELD_BYTES)) {
+                total = decodeTotal(value);
+            } else if (CartItemCodec.isCurrent(value)) {
+                entryList.add(CartItemCodec.decode(field, value));
+            } else {
+                CartEntry entry = decodeLegacy(field, value);
+                legacyMap.put(field, entry);
+                if (entry != null) {
+                    entryList.add(entry);
+                }
+            }
+        }
+        migrate(key, legacyMap);
+
+        //还没有合计或者刚迁移过，按购物项算，和脚本里的算法一致
+        if (total == null || !legacyMap.isEmpty()) {
+            total = new CartTotal(0, 0);
+            for (CartEntry entry : entryList) {
+                total.setTotalNum(total.getTotalNum() + entry.getBuyNum());
+                total.setTotalCents(total.getTotalCents() + entry.getBuyNum() * entry.getAmountCents());
+            }
+        }
+
+        entryList.sort(Comparator.comparingLong(CartEntry::getAddTime));
+        return new CartContent(entryList, total);
+    }
+
+    /**
+     * 查询单个购物项，不存在返回null
+     *
+     * @param cartKey
+     * @param productId
+     * @return
+     */
+    public CartEntry get(String cartKey, long productId) {
+        byte[] key = rawKey(cartKey);
+        byte[] field = CartItemCodec.encodeField(productId);
+        byte[] legacyField = legacySerializer.serialize(productId);
+        List<byte[]> values = (List<byte[]>) redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.hMGet(key, field, legacyField));
+
+        if (values == null) {
+            return null;
+        }
+        if (CartItemCodec.isCurrent(values.get(0))) {
+            return CartItemCodec.decode(field, values.get(0));
+        }
+        if (values.get(1) == null) {
+            return null;
+        }
+        CartEntry entry = decodeLegacy(legacyField, values.get(1));
+        Map<byte[], CartEntry> legacyMap = new LinkedHashMap<>();
+        legacyMap.put(legacyField, entry);
+        migrate(key, legacyMap);
+        return entry;
+    }
+
+    /**
+     * 原子加购，一次往返完成读改写
+     *
+     * @param cartKey
+     * @param productId
+     * @param buyNum
+     * @param maxItems     购物车最多商品种类
+     * @param maxQuantity  单个商品最大数量
+     * @param priceVersion 加购时看到的价格版本，0表示不记录价格快照
+     * @param amountCents  加购时看到的价格，分
+     * @return 加购后的数量，小于0为失败码
+     */
+    public long add(String cartKey, long productId, int buyNum, int maxItems, int maxQuantity, long priceVersion, long amountCents) {
+        long now = System.currentTimeMillis() / 1000;
+        return execute(cartKey, productId, (legacyField, checkArchive) -> redisTemplate.execute(ADD_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                Collections.singletonList(cartKey), withTail(checkArchive, CartItemCodec.encodeField(productId), legacyField,
+                        ascii(buyNum), ascii(now), ascii(maxItems), ascii(maxQuantity), ascii(priceVersion), ascii(amountCents))));
+    }
+
+    /**
+     * 原子修改购物项数量
+     *
+     * @param cartKey
+     * @param productId
+     * @param buyNum
+     * @param maxQuantity 单个商品最大数量
+     * @return 修改后的数量，小于0为失败码
+     */
+    public long change(String cartKey, long productId, int buyNum, int maxQuantity) {
+        return execute(cartKey, productId, (legacyField, checkArchive) -> redisTemplate.execute(CHANGE_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                Collections.singletonList(cartKey), withTail(checkArchive, CartItemCodec.encodeField(productId), legacyField,
+                        ascii(buyNum), ascii(maxQuantity))));
+    }
+
+    /**
+     * 原子取出并删除指定的购物项，旧编码的field一起取
+     *
+     * @param cartKey
+     * @param productIds
+     * @return 实际取出的购物项
+     */
+    public List<CartEntry> take(String cartKey, LongHashSet productIds) {
+        if (productIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<byte[]> fields = new ArrayList<>(productIds.size() * 2);
+        for (long productId : productIds.toArray()) {
+            fields.add(CartItemCodec.encodeField(productId));
+            fields.add(legacySerializer.serialize(productId));
+        }
+        byte[][] args = withTail(false, fields.toArray(new byte[0][]));
+        List<byte[]> values = (List<byte[]>) redisTemplate.execute(TAKE_SCRIPT, RedisSerializer.byteArray(), RedisSerializer.byteArray(),
+                Collections.singletonList(cartKey), args);
+        if ((values == null || values.isEmpty()) && recover(cartKey)) {
+            values = (List<byte[]>) redisTemplate.execute(TAKE_SCRIPT, RedisSerializer.byteArray(), RedisSerializer.byteArray(),
+                    Collections.singletonList(cartKey), args);
+        }
+
+        List<CartEntry> entryList = new ArrayList<>();
+        if (values == null) {
+            return entryList;
+        }
+        for (int i = 0; i + 1 < values.size(); i += 2) {
+            byte[] field = values.get(i);
+            byte[] value = values.get(i + 1);
+            CartEntry entry = CartItemCodec.isCurrent(value) ? CartItemCodec.decode(field, value) : decodeLegacy(field, value);
+            if (entry != null) {
+                entryList.add(entry);
+            }
+        }
+        return entryList;
+    }
+
+    /**
+     * 放回购物项，用于下单失败的补偿
+     *
+     * @param cartKey
+     * @param entryList 使用其中的商品id、数量、加入时间
+     */
+    public void restore(String cartKey, List<CartEntry> entryList) {
+        if (entryList.isEmpty()) {
+            return;
+        }
+        List<byte[]> args = new ArrayList<>(entryList.size() * 3 + 1);
+        args.add(ascii(System.currentTimeMillis() / 1000));
+        for (CartEntry entry : entryList) {
+            args.add(CartItemCodec.encodeField(entry.getProductId()));
+            args.add(ascii(entry.getBuyNum()));
+            args.add(ascii(entry.getAddTime()));
+        }
+        redisTemplate.execute(RESTORE_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                Collections.singletonList(cartKey), withTail(false, args.toArray(new byte[0][])));
+    }
+
+    /**
+     * 更新购物项的价格快照，已经被删除的项忽略
+     *
+     * @param cartKey
+     * @param entryList 使用其中的商品id、价格版本、价格分
+     * @return 更新后的合计，没有需要更新的返回null
+     */
+    public CartTotal refreshPrice(String cartKey, List<CartEntry> entryList) {
+        if (entryList.isEmpty()) {
+            return null;
+        }
+        List<byte[]> args = new ArrayList<>(entryList.size() * 3);
+        for (CartEntry entry : entryList) {
+            args.add(CartItemCodec.encodeField(entry.getProductId()));
+            args.add(ascii(entry.getPriceVersion()));
+            args.add(ascii(entry.getAmountCents()));
+        }
+        List<Long> result = (List<Long>) redisTemplate.execute(REFRESH_PRICE_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                Collections.singletonList(cartKey), withTail(false, args.toArray(new byte[0][])));
+        return new CartTotal(result.get(0), result.get(1));
+    }
+
+    /**
+     * 删除购物项，旧编码的field一起删
+     *
+     * @param cartKey
+     * @param productIds
+     */
+    public void delete(String cartKey, Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        List<byte[]> fields = new ArrayList<>(productIds.size() * 2);
+        for (Long productId : productIds) {
+            fields.add(CartItemCodec.encodeField(productId));
+            fields.add(legacySerializer.serialize(productId));
+        }
+        byte[][] fieldArray = fields.toArray(new byte[0][]);
+        long result = (Long) redisTemplate.execute(DELETE_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                Collections.singletonList(cartKey), withTail(true, fieldArray));
+        if (result == RESULT_MISSING && recover(cartKey)) {
+            redisTemplate.execute(DELETE_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                    Collections.singletonList(cartKey), withTail(false, fieldArray));
+        }
+    }
+
+    /**
+     * 清空购物车，归档一起删
+     *
+     * @param cartKey
+     */
+    public void clear(String cartKey) {
+        redisTemplate.delete(cartKey);
+        cartArchive.delete(cartKey);
+    }
+
+    /**
+     * 批量统计购物车，没有过期时间的补上
+     *
+     * @param cartKeys
+     * @return 和cartKeys一一对应
+     */
+    public List<CartStat> stat(List<String> cartKeys) {
+        List<CartStat> statList = new ArrayList<>(cartKeys.size());
+        if (cartKeys.isEmpty()) {
+            return statList;
+        }
+        List<Long> result = (List<Long>) redisTemplate.execute(STAT_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                cartKeys, ascii(cartTtl));
+        for (int i = 0; i < cartKeys.size(); i++) {
+            statList.add(new CartStat(cartKeys.get(i), result.get(i * 3), result.get(i * 3 + 1), result.get(i * 3 + 2)));
+        }
+        return statList;
+    }
+
+    /**
+     * 把购物车归档到数据库后从redis删除
+     * 先写数据库再按剩余过期时间做一次比较删除，期间被访问过的购物车保留在redis，归档也删掉，避免以后恢复出旧数据
+     *
+     * @param cartKeys
+     * @param maxTtl   剩余过期时间不超过这个值才删除，秒
+     * @return 实际移出redis的购物车
+     */
+    public List<String> offload(List<String> cartKeys, long maxTtl) {
+        Map<String, Map<byte[], byte[]>> hashMap = new LinkedHashMap<>();
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            for (String cartKey : cartKeys) {
+                Map<byte[], byte[]> all = connection.hGetAll(rawKey(cartKey));
+                if (all == null) {
+                    continue;
+                }
+                //合计不归档，恢复后重新计算
+                Map<byte[], byte[]> hash = new LinkedHashMap<>(all);
+                hash.keySet().removeIf(field -> Arrays.equals(field, TOTAL_FIELD_BYTES));
+                if (!hash.isEmpty()) {
+                    hashMap.put(cartKey, hash);
+                }
+            }
+            return null;
+        });
+        if (hashMap.isEmpty()) {
+            return new ArrayList<>();
+        }
+        cartArchive.save(hashMap);
+
+        List<String> keyList = new ArrayList<>(hashMap.keySet());
+        List<Long> result = (List<Long>) redisTemplate.execute(OFFLOAD_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                keyList, ascii(maxTtl));
+        List<String> offloadedList = new ArrayList<>(keyList.size());
+        List<String> touchedList = new ArrayList<>();
+        for (int i = 0; i < keyList.size(); i++) {
+            if (result.get(i) == 1) {
+                offloadedList.add(keyList.get(i));
+            } else {
+                touchedList.add(keyList.get(i));
+            }
+        }
+        cartArchive.delete(touchedList);
+        return offloadedList;
+    }
+
+    /**
+     * 执行脚本，购物车不在redis时先从归档恢复，碰到旧编码的购物项先迁移，然后再执行一次
+     */
+    private long execute(String cartKey, long productId, BiFunction<byte[], Boolean, Object> script) {
+        byte[] legacyField = legacySerializer.serialize(productId);
+        long result = (Long) script.apply(legacyField, true);
+        if (result == RESULT_MISSING) {
+            recover(cartKey);
+            result = (Long) script.apply(legacyField, false);
+        }
+        if (result == RESULT_LEGACY) {
+            get(cartKey, productId);
+            result = (Long) script.apply(legacyField, false);
+        }
+        return result;
+    }
+
+    /**
+     * 从归档恢复到redis并删除归档
+     *
+     * @return 没有归档返回false
+     */
+    private boolean recover(String cartKey) {
+        Map<byte[], byte[]> hash = cartArchive.find(cartKey);
+        if (hash == null) {
+            return false;
+        }
+        List<byte[]> args = new ArrayList<>(hash.size() * 2 + 1);
+        args.add(ascii(cartTtl));
+        hash.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        redisTemplate.execute(RECOVER_SCRIPT, RedisSerializer.byteArray(), resultSerializer,
+                Collections.singletonList(cartKey), args.toArray());
+        cartArchive.delete(cartKey);
+        log.info("购物车从归档恢复，key:{}，数量:{}", cartKey, hash.size());
+        return true;
+    }
+
+    private List<byte[]> loadRaw(String cartKey) {
+        List<byte[]> hash = (List<byte[]>) redisTemplate.execute(LOAD_SCRIPT, RedisSerializer.byteArray(), RedisSerializer.byteArray(),
+                Collections.singletonList(cartKey), ascii(cartTtl));
+        return hash == null ? new ArrayList<>() : hash;
+    }
+
+    /**
+     * 脚本参数末尾加上 是否检查归档、过期时间，见COMMON_LUA
+     */
+    private byte[][] withTail(boolean checkArchive, byte[]... args) {
+        byte[][] result = Arrays.copyOf(args, args.length + 2);
+        result[args.length] = ascii(checkArchive ? 1 : 0);
+        result[args.length + 1] = ascii(cartTtl);
+        return result;
+    }
+
+    private byte[] ascii(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 旧编码转成新编码，一次pipeline写入新field并删除旧field，解析失败的直接删除
+     */
+    private void migrate(byte[] key, Map<byte[], CartEntry> legacyMap) {
+        if (legacyMap.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<byte[], CartEntry> item : legacyMap.entrySet()) {
+                CartEntry entry = item.getValue();
+                if (entry != null) {
+                    connection.hSet(key, CartItemCodec.encodeField(entry.getProductId()), CartItemCodec.encodeValue(entry));
+                }
+                connection.hDel(key, item.getKey());
+            }
+            //合计不含旧编码的项，删掉让下次写入时重新计算
+            connection.hDel(key, TOTAL_FIELD_BYTES);
+            return null;
+        });
+        log.info("购物车旧编码迁移完成，key:{}，数量:{}", new String(key, StandardCharsets.UTF_8), legacyMap.size());
+    }
+
+    /**
+     * 解析旧编码，加入时间未知按当前时间
+     */
+    private CartEntry decodeLegacy(byte[] field, byte[] value) {
+        try {
+            Long productId = (Long) legacySerializer.deserialize(field);
+            CartItemVO cartItemVO = JSON.parseObject((String) legacySerializer.deserialize(value), CartItemVO.class);
+            return new CartEntry(productId, cartItemVO.getBuyNum(), System.currentTimeMillis() / 1000);
+        } catch (Exception e) {
+            log.warn("购物项旧编码解析失败，丢弃该项", e);
+            return null;
+        }
+    }
+
+    private CartTotal decodeTotal(byte[] value) {
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        return new CartTotal(buffer.getLong(), buffer.getLong());
+    }
+
+    private byte[] rawKey(String cartKey) {
+        return cartKey.getBytes(StandardCharsets.UTF_8);
+    }
+}
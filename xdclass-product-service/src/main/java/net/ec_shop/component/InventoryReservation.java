@@ -0,0 +1,365 @@
+package net.ec_shop.component;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.model.ProductDO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * redis库存预占
+ * 可用库存(stock - lock_stock)放在redis，一个订单的全部商品在一个脚本内预占，要么全部成功要么全部失败
+ * 预占记录按订单号保存并设置过期时间，订单号进入待同步队列，由StockReserveSyncTask批量写回数据库
+ * 另存一份不过期的预占明细，写回或取消后删除
+ * 可用库存定时按 数据库可用库存 - 未写回的预占明细 重新计算，数据库补货、订单取消后都能同步到redis
+ * 脚本涉及多个key，redis集群部署时需要给key加hash tag
+ */
+@Slf4j
+@Component
+public class InventoryReservation {
+
+    /**
+     * 预占成功
+     */
+    private static final long RESULT_SUCCESS = 1;
+
+    /**
+     * 该订单已经预占过，幂等返回成功
+     */
+    private static final long RESULT_DUPLICATE = 0;
+
+    /**
+     * 可用库存还没加载到redis
+     */
+    private static final long RESULT_NOT_LOADED = -2;
+
+    /**
+     * 预占订单全部商品
+     * KEYS[1] 预占记录，KEYS[2] 待同步队列，KEYS[3] 预占明细，KEYS[4..] 各商品可用库存
+     * ARGV[1] 预占记录过期时间秒，ARGV[2] 订单号，之后是 商品id, 数量 成对出现，顺序和可用库存key一致
+     */
+    private static final DefaultRedisScript<Long> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end " +
+                    "for k = 4, #KEYS do " +
+                    "  local v = redis.call('GET', KEYS[k]) " +
+                    "  if not v then return -2 end " +
+                    "  if tonumber(v) < tonumber(ARGV[2 * (k - 3) + 2]) then return -1 end " +
+                    "end " +
+                    "local items = {} " +
+                    "for k = 4, #KEYS do " +
+                    "  local j = k - 3 " +
+                    "  redis.call('DECRBY', KEYS[k], ARGV[2 * j + 2]) " +
+                    "  redis.call('HSET', KEYS[1], ARGV[2 * j + 1], ARGV[2 * j + 2]) " +
+                    "  items[j] = ARGV[2 * j + 1] .. ':' .. ARGV[2 * j + 2] " +
+                    "end " +
+                    "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+                    "redis.call('HSET', KEYS[3], ARGV[2], table.concat(items, ',')) " +
+                    "redis.call('LPUSH', KEYS[2], ARGV[2]) " +
+                    "return 1", Long.class);
+
+    /**
+     * 归还可用库存，key不存在的跳过，下次使用时从数据库重新加载
+     * KEYS 各商品可用库存，ARGV 对应数量
+     */
+    private static final DefaultRedisScript<Long> GIVE_BACK_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #KEYS do " +
+                    "  if redis.call('EXISTS', KEYS[i]) == 1 then redis.call('INCRBY', KEYS[i], ARGV[i]) end " +
+                    "end " +
+                    "return 1", Long.class);
+
+    /**
+     * 按数据库重新计算可用库存：数据库可用库存减去预占明细里还没写回的数量，key不存在的跳过
+     * 和预占在同一个脚本内完成，期间不会有新的预占插进来
+     * KEYS[1] 预占明细，KEYS[2..] 各商品可用库存；ARGV 商品id, 数据库可用库存 成对出现，顺序和可用库存key一致
+     */
+    private static final DefaultRedisScript<Long> REFRESH_SCRIPT = new DefaultRedisScript<>(
+            "local reserved = {} " +
+                    "for _, v in ipairs(redis.call('HVALS', KEYS[1])) do " +
+                    "  for id, num in string.gmatch(v, '(%d+):(%d+)') do reserved[id] = (reserved[id] or 0) + tonumber(num) end " +
+                    "end " +
+                    "local n = 0 " +
+                    "for k = 2, #KEYS do " +
+                    "  if redis.call('EXISTS', KEYS[k]) == 1 then " +
+                    "    local id = ARGV[2 * k - 3] " +
+                    "    redis.call('SET', KEYS[k], string.format('%d', tonumber(ARGV[2 * k - 2]) - (reserved[id] or 0))) " +
+                    "    n = n + 1 " +
+                    "  end " +
+                    "end " +
+                    "return n", Long.class);
+
+    /**
+     * 一批待同步订单处理完，整批移出待同步队列：写回失败的进失败队列，已写回的删除预占明细
+     * KEYS[1] 待同步队列，KEYS[2] 失败队列，KEYS[3] 预占明细
+     * ARGV[1] 本批订单数，ARGV[2] 失败订单数n，ARGV[3..n+2] 失败订单号，之后是已写回的订单号
+     */
+    private static final DefaultRedisScript<Long> FINISH_PENDING_SCRIPT = new DefaultRedisScript<>(
+            "local n = tonumber(ARGV[2]) " +
+                    "for i = 3, n + 2 do redis.call('LPUSH', KEYS[2], ARGV[i]) end " +
+                    "for i = n + 3, #ARGV do redis.call('HDEL', KEYS[3], ARGV[i]) end " +
+                    "redis.call('LTRIM', KEYS[1], 0, -tonumber(ARGV[1]) - 1) " +
+                    "return 1", Long.class);
+
+    /**
+     * 失败订单重试写回成功，移出失败队列并删除预占明细
+     * KEYS[1] 失败队列，KEYS[2] 预占明细，ARGV[1] 订单号
+     */
+    private static final DefaultRedisScript<Long> RESOLVE_FAILED_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('LREM', KEYS[1], 0, ARGV[1]) " +
+                    "redis.call('HDEL', KEYS[2], ARGV[1]) " +
+                    "return 1", Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    /**
+     * 库存模式 db：直接锁数据库；redis：redis预占+异步写回
+     */
+    @Value("${productconfig.stock_mode:db}")
+    private String stockMode;
+
+    /**
+     * 预占记录过期时间，秒，需要覆盖同步任务可能的最长停顿
+     */
+    @Value("${productconfig.stock_reserve_ttl:86400}")
+    private long reserveTtl;
+
+    public boolean isEnabled() {
+        return "redis".equalsIgnoreCase(stockMode);
+    }
+
+    /**
+     * 预占订单库存
+     *
+     * @param outTradeNo
+     * @param itemMap    商品id-数量
+     * @return
+     */
+    public boolean reserve(String outTradeNo, Map<Long, Integer> itemMap) {
+        List<String> keys = new ArrayList<>(itemMap.size() + 3);
+        keys.add(String.format(CacheKey.STOCK_RESERVE_KEY, outTradeNo));
+        keys.add(CacheKey.STOCK_RESERVE_PENDING_KEY);
+        keys.add(CacheKey.STOCK_RESERVE_ITEMS_KEY);
+        List<String> args = new ArrayList<>(itemMap.size() * 2 + 2);
+        args.add(String.valueOf(reserveTtl));
+        args.add(outTradeNo);
+        for (Map.Entry<Long, Integer> entry : itemMap.entrySet()) {
+            keys.add(getAvailableKey(entry.getKey()));
+            args.add(String.valueOf(entry.getKey()));
+            args.add(String.valueOf(entry.getValue()));
+        }
+
+        Long result = redisTemplate.execute(RESERVE_SCRIPT, keys, args.toArray());
+        if (result != null && result == RESULT_NOT_LOADED) {
+            loadAvailable(itemMap.keySet());
+            result = redisTemplate.execute(RESERVE_SCRIPT, keys, args.toArray());
+        }
+        return result != null && (result == RESULT_SUCCESS || result == RESULT_DUPLICATE);
+    }
+
+    /**
+     * 归还可用库存，用于释放锁定
+     *
+     * @param itemMap 商品id-数量
+     */
+    public void giveBack(Map<Long, Integer> itemMap) {
+        if (!isEnabled() || itemMap.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(itemMap.size());
+        List<String> args = new ArrayList<>(itemMap.size());
+        for (Map.Entry<Long, Integer> entry : itemMap.entrySet()) {
+            keys.add(getAvailableKey(entry.getKey()));
+            args.add(String.valueOf(entry.getValue()));
+        }
+        redisTemplate.execute(GIVE_BACK_SCRIPT, keys, args.toArray());
+    }
+
+    /**
+     * 最早进入待同步队列的订单号，先进先出
+     *
+     * @param size
+     * @return
+     */
+    public List<String> peekPending(int size) {
+        List<String> outTradeNoList = redisTemplate.opsForList().range(CacheKey.STOCK_RESERVE_PENDING_KEY, -size, -1);
+        if (outTradeNoList == null) {
+            return new ArrayList<>();
+        }
+        Collections.reverse(outTradeNoList);
+        return outTradeNoList;
+    }
+
+    /**
+     * 本批订单整批移出待同步队列，只有同步任务一个消费者，新订单从队头进入不受影响
+     * 写回失败的进失败队列等待重试，已写回的删除预占明细，取消的在取消时已删除
+     *
+     * @param size       本批订单数
+     * @param syncedList 已写回数据库的订单号
+     * @param failedList 写回失败的订单号
+     */
+    public void finishPending(int size, List<String> syncedList, List<String> failedList) {
+        List<String> args = new ArrayList<>(syncedList.size() + failedList.size() + 2);
+        args.add(String.valueOf(size));
+        args.add(String.valueOf(failedList.size()));
+        args.addAll(failedList);
+        args.addAll(syncedList);
+        redisTemplate.execute(FINISH_PENDING_SCRIPT, Arrays.asList(CacheKey.STOCK_RESERVE_PENDING_KEY,
+                CacheKey.STOCK_RESERVE_FAILED_KEY, CacheKey.STOCK_RESERVE_ITEMS_KEY), args.toArray());
+    }
+
+    /**
+     * 写回失败等待重试的订单号
+     *
+     * @param size
+     * @return
+     */
+    public List<String> peekFailed(int size) {
+        List<String> outTradeNoList = redisTemplate.opsForList().range(CacheKey.STOCK_RESERVE_FAILED_KEY, -size, -1);
+        return outTradeNoList == null ? new ArrayList<>() : outTradeNoList;
+    }
+
+    /**
+     * 失败订单已经写回或取消，移出失败队列
+     *
+     * @param outTradeNo
+     */
+    public void resolveFailed(String outTradeNo) {
+        redisTemplate.execute(RESOLVE_FAILED_SCRIPT, Arrays.asList(CacheKey.STOCK_RESERVE_FAILED_KEY,
+                CacheKey.STOCK_RESERVE_ITEMS_KEY), outTradeNo);
+    }
+
+    /**
+     * 查询订单预占记录
+     *
+     * @param outTradeNo
+     * @return 商品id-数量，按id升序，记录已过期返回空
+     */
+    public Map<Long, Integer> getReservation(String outTradeNo) {
+        Map<Object, Object> hash = redisTemplate.opsForHash().entries(String.format(CacheKey.STOCK_RESERVE_KEY, outTradeNo));
+        Map<Long, Integer> itemMap = new TreeMap<>();
+        hash.forEach((k, v) -> itemMap.put(Long.valueOf((String) k), Integer.valueOf((String) v)));
+        return itemMap;
+    }
+
+    /**
+     * 查询未同步订单的预占明细，预占记录过期后用于取消订单
+     *
+     * @param outTradeNo
+     * @return 商品id-数量，按id升序，已写回或已取消返回空
+     */
+    public Map<Long, Integer> getReservedItems(String outTradeNo) {
+        Object items = redisTemplate.opsForHash().get(CacheKey.STOCK_RESERVE_ITEMS_KEY, outTradeNo);
+        Map<Long, Integer> itemMap = new TreeMap<>();
+        if (items == null) {
+            return itemMap;
+        }
+        for (String item : ((String) items).split(",")) {
+            String[] pair = item.split(":");
+            itemMap.put(Long.valueOf(pair[0]), Integer.valueOf(pair[1]));
+        }
+        return itemMap;
+    }
+
+    /**
+     * 不再写回数据库的订单删除预占明细，之后重新计算可用库存时这部分数量不再扣除
+     *
+     * @param outTradeNo
+     */
+    public void discardReserved(String outTradeNo) {
+        redisTemplate.opsForHash().delete(CacheKey.STOCK_RESERVE_ITEMS_KEY, outTradeNo);
+    }
+
+    /**
+     * 按数据库重新计算这些商品的可用库存，只更新已加载到redis的
+     * 需要在同步任务的锁内调用，避免订单写回了数据库、预占明细还没删除时重复扣除
+     *
+     * @param productIds
+     * @return 更新的商品数
+     */
+    public long refreshAvailable(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return 0;
+        }
+        List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                .select("id", "stock", "lock_stock").in("id", productIds));
+        List<String> keys = new ArrayList<>(productDOList.size() + 1);
+        List<String> args = new ArrayList<>(productDOList.size() * 2);
+        keys.add(CacheKey.STOCK_RESERVE_ITEMS_KEY);
+        for (ProductDO productDO : productDOList) {
+            keys.add(getAvailableKey(productDO.getId()));
+            args.add(String.valueOf(productDO.getId()));
+            args.add(String.valueOf(productDO.getStock() - productDO.getLockStock()));
+        }
+        Long rows = redisTemplate.execute(REFRESH_SCRIPT, keys, args.toArray());
+        return rows == null ? 0 : rows;
+    }
+
+    /**
+     * 扫描redis里全部可用库存key，分批按数据库重新计算
+     *
+     * @param batchSize
+     * @return 更新的商品数
+     */
+    public long refreshAllAvailable(int batchSize) {
+        String prefix = String.format(CacheKey.STOCK_AVAILABLE_KEY, "");
+        long[] rows = new long[1];
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            List<Long> productIds = new ArrayList<>(batchSize);
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(prefix + "*").count(1000).build())) {
+                while (cursor.hasNext()) {
+                    productIds.add(Long.valueOf(new String(cursor.next(), StandardCharsets.UTF_8).substring(prefix.length())));
+                    if (productIds.size() >= batchSize || !cursor.hasNext()) {
+                        rows[0] += refreshAvailable(productIds);
+                        productIds.clear();
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("扫描可用库存失败", e);
+            }
+            return null;
+        });
+        return rows[0];
+    }
+
+    /**
+     * 从数据库加载可用库存，已存在的不覆盖
+     */
+    private void loadAvailable(Collection<Long> productIds) {
+        List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                .select("id", "stock", "lock_stock").in("id", productIds));
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ProductDO productDO : productDOList) {
+                connection.setNX(serializer.serialize(getAvailableKey(productDO.getId())),
+                        serializer.serialize(String.valueOf(productDO.getStock() - productDO.getLockStock())));
+            }
+            return null;
+        });
+        log.info("加载商品可用库存到redis，商品数:{}", productDOList.size());
+    }
+
+    private String getAvailableKey(long productId) {
+        return String.format(CacheKey.STOCK_AVAILABLE_KEY, productId);
+    }
+}
@@ -0,0 +1,174 @@
+package net.ec_shop.component;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.model.ProductDO;
+import net.ec_shop.util.ScalableBloomFilter;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品id布隆过滤器，防止不存在的商品id穿透缓存打到数据库
+ * 启动时从商品表加载，本地过滤器可扩容；之后按id增量拉取新增商品，开启redis镜像时一并写入
+ * 查不到且id比已加载的最大id还大时，可能是刚新增的商品，限频补拉一次再判断
+ */
+@Slf4j
+@Component
+public class ProductBloomFilter {
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    /**
+     * 误判率
+     */
+    @Value("${productconfig.bloom_fpp:0.001}")
+    private double bloomFpp;
+
+    /**
+     * 本地过滤器初始容量
+     */
+    @Value("${productconfig.bloom_initial_capacity:100000}")
+    private long bloomInitialCapacity;
+
+    /**
+     * 是否在redis镜像一份，所有节点共享
+     */
+    @Value("${productconfig.bloom_redis_enabled:false}")
+    private boolean bloomRedisEnabled;
+
+    /**
+     * 启动加载时每批查询的条数
+     */
+    @Value("${productconfig.bloom_load_batch:1000}")
+    private int bloomLoadBatch;
+
+    /**
+     * 查不到新id时补拉的最小间隔，毫秒
+     */
+    @Value("${productconfig.bloom_miss_sync_interval:1000}")
+    private long bloomMissSyncInterval;
+
+    private volatile ScalableBloomFilter localFilter;
+
+    /**
+     * 已加载的最大商品id，之后按id增量拉取新增商品
+     */
+    private volatile long maxLoadedId;
+
+    /**
+     * 上次因为查不到新id补拉的时间
+     */
+    private final AtomicLong lastMissSyncTime = new AtomicLong();
+
+    private RBloomFilter<Long> redisFilter;
+
+    @PostConstruct
+    public void init() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(bloomInitialCapacity, bloomFpp);
+        if (bloomRedisEnabled) {
+            redisFilter = redissonClient.getBloomFilter(CacheKey.PRODUCT_BLOOM_KEY);
+        }
+        //redis过滤器不能扩容，按当前商品数留出余量；只有第一个初始化的节点负责灌入数据
+        boolean fillRedis = bloomRedisEnabled
+                && redisFilter.tryInit(Math.max(bloomInitialCapacity, productMapper.selectCount(null) * 2L), bloomFpp);
+
+        long lastId = 0;
+        while (true) {
+            List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                    .select("id").gt("id", lastId).orderByAsc("id").last("limit " + bloomLoadBatch));
+            for (ProductDO productDO : productDOList) {
+                filter.put(productDO.getId());
+                if (fillRedis) {
+                    redisFilter.add(productDO.getId());
+                }
+            }
+            if (!productDOList.isEmpty()) {
+                lastId = productDOList.get(productDOList.size() - 1).getId();
+            }
+            if (productDOList.size() < bloomLoadBatch) {
+                break;
+            }
+        }
+        maxLoadedId = lastId;
+        localFilter = filter;
+        log.info("商品布隆过滤器加载完成，商品数:{}，误判率:{}，redis镜像:{}", filter.size(), bloomFpp, bloomRedisEnabled);
+    }
+
+    /**
+     * 商品是否可能存在，返回false则一定不存在
+     * 本地查不到时再查redis，避免漏掉其他节点新增的商品
+     *
+     * @param productId
+     * @return
+     */
+    public boolean mightContain(long productId) {
+        if (localFilter.mightContain(productId)) {
+            return true;
+        }
+        if (bloomRedisEnabled && redisFilter.contains(productId)) {
+            return true;
+        }
+        //比已加载的都大，可能是定时同步前刚新增的商品；限频补拉，避免乱传大id每次都查库
+        if (productId > maxLoadedId) {
+            long now = System.currentTimeMillis();
+            long last = lastMissSyncTime.get();
+            if (now - last >= bloomMissSyncInterval && lastMissSyncTime.compareAndSet(last, now)) {
+                syncNewProducts();
+                return localFilter.mightContain(productId);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 拉取新增商品放入过滤器
+     */
+    @Scheduled(fixedDelayString = "${productconfig.bloom_sync_interval:60000}")
+    public synchronized void syncNewProducts() {
+        try {
+            long lastId = maxLoadedId;
+            while (true) {
+                List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                        .select("id").gt("id", lastId).orderByAsc("id").last("limit " + bloomLoadBatch));
+                for (ProductDO productDO : productDOList) {
+                    put(productDO.getId());
+                }
+                if (!productDOList.isEmpty()) {
+                    lastId = productDOList.get(productDOList.size() - 1).getId();
+                    maxLoadedId = lastId;
+                }
+                if (productDOList.size() < bloomLoadBatch) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("商品布隆过滤器增量同步异常", e);
+        }
+    }
+
+    /**
+     * 新增商品后调用
+     *
+     * @param productId
+     */
+    public void put(long productId) {
+        localFilter.put(productId);
+        if (bloomRedisEnabled) {
+            redisFilter.add(productId);
+        }
+    }
+}
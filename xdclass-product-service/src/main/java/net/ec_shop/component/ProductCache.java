@@ -0,0 +1,215 @@
+package net.ec_shop.component;
+
+import com.alibaba.fastjson.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.vo.ProductVO;
+import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 商品多级缓存：本地caffeine + redis + 数据库
+ * 1）本地缓存同一个key并发未命中只会加载一次
+ * 2）批量查询先本地，再redis MGET，最后只对未命中的id做一次IN查询
+ * 3）价格等商品信息变更时调用invalidate，删除redis并通过topic通知所有节点清理本地缓存；库存不在这里维护，见ProductStockView
+ * 4）商品都是后台直接改库，由ProductChangeTask扫描发现变更后调用invalidate；不参与扫描的detail等redis过期生效
+ */
+@Slf4j
+@Component
+public class ProductCache {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 本地缓存最大条数
+     */
+    @Value("${productconfig.local_cache_size:10000}")
+    private long localCacheSize;
+
+    /**
+     * 本地缓存过期时间，秒，兜底广播丢失的情况
+     */
+    @Value("${productconfig.local_cache_ttl:60}")
+    private long localCacheTtl;
+
+    /**
+     * redis缓存过期时间，秒，实际会加上随机值避免同时失效
+     */
+    @Value("${productconfig.redis_cache_ttl:600}")
+    private long redisCacheTtl;
+
+    private Cache<Long, ProductVO> localCache;
+
+    private RTopic invalidateTopic;
+
+    private Counter redisHitCounter;
+
+    private Counter redisMissCounter;
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localCacheSize)
+                .expireAfterWrite(localCacheTtl, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "product_local");
+        redisHitCounter = Counter.builder("product.cache.redis").tag("result", "hit").register(meterRegistry);
+        redisMissCounter = Counter.builder("product.cache.redis").tag("result", "miss").register(meterRegistry);
+
+        invalidateTopic = redissonClient.getTopic(CacheKey.PRODUCT_INVALIDATE_TOPIC);
+        invalidateTopic.addListener(String.class, (channel, msg) -> {
+            List<Long> ids = parseIds(msg);
+            localCache.invalidateAll(ids);
+            log.info("收到商品缓存失效通知:{}", ids);
+        });
+    }
+
+    /**
+     * 查询单个商品
+     *
+     * @param productId
+     * @param dbLoader  数据库加载，不存在返回null
+     * @return
+     */
+    public ProductVO get(long productId, Function<Long, ProductVO> dbLoader) {
+        return localCache.get(productId, id -> {
+            String value = redisTemplate.opsForValue().get(getRedisKey(id));
+            if (StringUtils.isNotBlank(value)) {
+                redisHitCounter.increment();
+                return JSON.parseObject(value, ProductVO.class);
+            }
+            redisMissCounter.increment();
+            ProductVO productVO = dbLoader.apply(id);
+            if (productVO != null) {
+                putRedis(Collections.singletonMap(id, productVO));
+            }
+            return productVO;
+        });
+    }
+
+    /**
+     * 批量查询商品，结果按入参顺序，不存在的商品不返回
+     *
+     * @param productIds
+     * @param dbBatchLoader 数据库批量加载
+     * @return
+     */
+    public List<ProductVO> getAll(Collection<Long> productIds, Function<Collection<Long>, List<ProductVO>> dbBatchLoader) {
+        Map<Long, ProductVO> productMap = localCache.getAll(productIds, missIds -> loadAll(missIds, dbBatchLoader));
+        List<ProductVO> productVOList = new ArrayList<>(productMap.size());
+        for (Long productId : productIds) {
+            ProductVO productVO = productMap.get(productId);
+            if (productVO != null) {
+                productVOList.add(productVO);
+            }
+        }
+        return productVOList;
+    }
+
+    /**
+     * 商品价格等信息变更后失效缓存，库存变更不用调用
+     *
+     * @param productIds
+     */
+    public void invalidate(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        redisTemplate.delete(productIds.stream().map(this::getRedisKey).collect(Collectors.toList()));
+        localCache.invalidateAll(productIds);
+        invalidateTopic.publish(productIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    }
+
+    private Map<Long, ProductVO> loadAll(Iterable<? extends Long> missIds, Function<Collection<Long>, List<ProductVO>> dbBatchLoader) {
+        List<Long> idList = new ArrayList<>();
+        missIds.forEach(idList::add);
+
+        Map<Long, ProductVO> result = new HashMap<>(idList.size() * 2);
+        List<String> values = redisTemplate.opsForValue().multiGet(idList.stream().map(this::getRedisKey).collect(Collectors.toList()));
+        List<Long> dbIds = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            String value = values == null ? null : values.get(i);
+            if (StringUtils.isNotBlank(value)) {
+                result.put(idList.get(i), JSON.parseObject(value, ProductVO.class));
+            } else {
+                dbIds.add(idList.get(i));
+            }
+        }
+        redisHitCounter.increment(result.size());
+        redisMissCounter.increment(dbIds.size());
+
+        if (!dbIds.isEmpty()) {
+            Map<Long, ProductVO> dbMap = new LinkedHashMap<>(dbIds.size() * 2);
+            for (ProductVO productVO : dbBatchLoader.apply(dbIds)) {
+                dbMap.put(productVO.getId(), productVO);
+            }
+            putRedis(dbMap);
+            result.putAll(dbMap);
+        }
+        return result;
+    }
+
+    /**
+     * pipeline写入redis，过期时间加随机值
+     */
+    private void putRedis(Map<Long, ProductVO> productMap) {
+        if (productMap.isEmpty()) {
+            return;
+        }
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, ProductVO> entry : productMap.entrySet()) {
+                long ttl = redisCacheTtl + ThreadLocalRandom.current().nextLong(Math.max(1, redisCacheTtl / 10));
+                connection.setEx(serializer.serialize(getRedisKey(entry.getKey())), ttl, serializer.serialize(JSON.toJSONString(entry.getValue())));
+            }
+            return null;
+        });
+    }
+
+    private List<Long> parseIds(String msg) {
+        List<Long> ids = new ArrayList<>();
+        for (String id : msg.split(",")) {
+            if (StringUtils.isNotBlank(id)) {
+                ids.add(Long.valueOf(id.trim()));
+            }
+        }
+        return ids;
+    }
+
+    private String getRedisKey(long productId) {
+        return String.format(CacheKey.PRODUCT_DETAIL_KEY, productId);
+    }
+}
@@ -0,0 +1,233 @@
+package net.ec_shop.component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.enums.StockTaskStateEnum;
+import net.ec_shop.mapper.ProductTaskMapper;
+import net.ec_shop.model.ProductTaskDO;
+import net.ec_shop.util.CoOccurrenceIndex;
+import org.redisson.api.RLock;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 买了还买，每个节点内存里维护一份共同购买计数，详情页直接查内存
+ * 1）订单支付后把订单的商品列表广播给所有节点，各自累加，节点之间的数据一致
+ * 2）定期把计数压缩后存一份快照到redis，重启时从快照恢复；没有快照时从已完成的库存锁定任务回填最近一段时间的订单
+ * 快照之后、重启之前的订单会丢，推荐只要求近似，不做补偿
+ */
+@Slf4j
+@Component
+public class ProductCoPurchase {
+
+    private static final String SNAPSHOT_LOCK_KEY = "lock:product:co_purchase_snapshot";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private ProductTaskMapper productTaskMapper;
+
+    /**
+     * 每个商品最多保留的邻居数
+     */
+    @Value("${productconfig.co_purchase_max_neighbors:50}")
+    private int maxNeighbors;
+
+    /**
+     * 一个订单最多统计的商品数
+     */
+    @Value("${productconfig.co_purchase_max_basket:20}")
+    private int maxBasket;
+
+    /**
+     * 没有快照时回填最近多少天的订单
+     */
+    @Value("${productconfig.co_purchase_backfill_days:90}")
+    private int backfillDays;
+
+    /**
+     * 回填时每批查询的任务数
+     */
+    @Value("${productconfig.co_purchase_backfill_batch:2000}")
+    private int backfillBatch;
+
+    private volatile CoOccurrenceIndex index;
+
+    private RTopic basketTopic;
+
+    @PostConstruct
+    public void init() {
+        index = new CoOccurrenceIndex(maxNeighbors, maxBasket);
+        CoOccurrenceIndex restored = loadSnapshot();
+        index = restored != null ? restored : backfill();
+        log.info("买了还买计数加载完成，商品数={}，估算内存={}KB", index.size(), index.estimateBytes() / 1024);
+
+        basketTopic = redissonClient.getTopic(CacheKey.PRODUCT_CO_PURCHASE_TOPIC);
+        basketTopic.addListener(String.class, (channel, msg) -> {
+            for (long[] basket : decode(msg)) {
+                index.add(basket);
+            }
+        });
+    }
+
+    /**
+     * 订单支付后调用，广播给所有节点，包括自己
+     *
+     * @param baskets 每个订单的商品id
+     */
+    public void publish(Collection<long[]> baskets) {
+        if (baskets.isEmpty()) {
+            return;
+        }
+        try {
+            basketTopic.publish(encode(baskets));
+        } catch (Exception e) {
+            //推荐只是展示用，不影响支付流程
+            log.error("广播买了还买订单失败，订单数={}", baskets.size(), e);
+        }
+    }
+
+    /**
+     * 和productId一起买得最多的商品
+     *
+     * @param productId
+     * @param size
+     * @return
+     */
+    public long[] top(long productId, int size) {
+        return index.top(productId, size);
+    }
+
+    /**
+     * 各节点数据一样，只需要一个节点存快照
+     */
+    @Scheduled(fixedDelayString = "${productconfig.co_purchase_snapshot_interval:600000}")
+    public void snapshot() {
+        RLock rLock = redissonClient.getLock(SNAPSHOT_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+                index.writeTo(out);
+            }
+            byte[] value = bytes.toByteArray();
+            byte[] key = CacheKey.PRODUCT_CO_PURCHASE_SNAPSHOT_KEY.getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<Object>) connection -> connection.set(key, value));
+            log.info("买了还买快照已保存，商品数={}，快照大小={}KB", index.size(), value.length / 1024);
+        } catch (Exception e) {
+            log.error("保存买了还买快照失败", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    private CoOccurrenceIndex loadSnapshot() {
+        byte[] key = CacheKey.PRODUCT_CO_PURCHASE_SNAPSHOT_KEY.getBytes(StandardCharsets.UTF_8);
+        byte[] value = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+        if (value == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(value)))) {
+            return CoOccurrenceIndex.readFrom(in, maxNeighbors, maxBasket);
+        } catch (IOException e) {
+            log.error("买了还买快照损坏，重新回填", e);
+            return null;
+        }
+    }
+
+    /**
+     * 按主键顺序扫最近的FINISH任务，同一订单的任务是一起插入的，主键连续，相邻的同一订单号就是一个订单
+     */
+    private CoOccurrenceIndex backfill() {
+        CoOccurrenceIndex backfilled = new CoOccurrenceIndex(maxNeighbors, maxBasket);
+        Date since = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(backfillDays));
+        long begin = System.currentTimeMillis();
+        long lastId = 0;
+        int orders = 0;
+        String outTradeNo = null;
+        List<Long> basket = new ArrayList<>();
+        while (true) {
+            List<ProductTaskDO> taskList = productTaskMapper.listByStateAfter(StockTaskStateEnum.FINISH.name(), since, lastId, backfillBatch);
+            for (ProductTaskDO taskDO : taskList) {
+                if (!taskDO.getOutTradeNo().equals(outTradeNo)) {
+                    orders += addBasket(backfilled, basket);
+                    outTradeNo = taskDO.getOutTradeNo();
+                }
+                basket.add(taskDO.getProductId());
+                lastId = taskDO.getId();
+            }
+            if (taskList.size() < backfillBatch) {
+                break;
+            }
+        }
+        orders += addBasket(backfilled, basket);
+        log.info("买了还买计数回填完成，最近{}天订单数={}，耗时={}ms", backfillDays, orders, System.currentTimeMillis() - begin);
+        return backfilled;
+    }
+
+    private int addBasket(CoOccurrenceIndex target, List<Long> basket) {
+        if (basket.isEmpty()) {
+            return 0;
+        }
+        target.add(basket.stream().mapToLong(Long::longValue).toArray());
+        basket.clear();
+        return 1;
+    }
+
+    /**
+     * 订单之间用分号，商品id之间用逗号
+     */
+    private static String encode(Collection<long[]> baskets) {
+        StringBuilder builder = new StringBuilder();
+        for (long[] basket : baskets) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            for (int i = 0; i < basket.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(basket[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static List<long[]> decode(String msg) {
+        List<long[]> baskets = new ArrayList<>();
+        for (String basket : msg.split(";")) {
+            if (!basket.isEmpty()) {
+                baskets.add(Arrays.stream(basket.split(",")).mapToLong(Long::parseLong).toArray());
+            }
+        }
+        return baskets;
+    }
+}
@@ -0,0 +1,71 @@
+package net.ec_shop.component;
+
+import net.ec_shop.constant.CacheKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 商品价格版本，存在redis里所有节点共享，单调递增
+ * 改价流程：先改数据库，再bump，最后失效商品缓存；商品都是后台直接改库，由ProductChangeTask扫描发现改价后bump
+ * 读商品时先取版本再查库，这样查到的价格一定不比版本旧；购物车记住看到的版本，版本没变就不用再查商品
+ */
+@Component
+public class ProductPriceVersion {
+
+    /**
+     * 没有价格快照，任何商品的版本都从1开始，不会和它相等
+     */
+    public static final long UNKNOWN = 0;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    /**
+     * 批量查询当前价格版本，一次MGET
+     *
+     * @param productIds
+     * @return 和入参顺序一致
+     */
+    public long[] current(List<Long> productIds) {
+        long[] versions = new long[productIds.size()];
+        if (productIds.isEmpty()) {
+            return versions;
+        }
+        List<String> keys = productIds.stream().map(this::getKey).collect(Collectors.toList());
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        for (int i = 0; i < versions.length; i++) {
+            String value = values == null ? null : values.get(i);
+            //没改过价的商品没有key，版本为1
+            versions[i] = (value == null ? 0 : Long.parseLong(value)) + 1;
+        }
+        return versions;
+    }
+
+    /**
+     * 价格变更后调用，版本加一
+     *
+     * @param productIds
+     */
+    public void bump(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long productId : productIds) {
+                connection.incr(getKey(productId).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    private String getKey(Long productId) {
+        return String.format(CacheKey.PRODUCT_PRICE_VERSION_KEY, productId);
+    }
+}
@@ -0,0 +1,169 @@
+package net.ec_shop.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.ProductVO;
+import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 商品详情响应字节缓存，热门商品详情不用每次都序列化
+ * 1）缓存JsonData包装后的utf-8字节，可选再存一份gzip压缩的
+ * 2）每条记录带上生成它的ProductVO对象，商品缓存重新加载后对象变了就重新生成，不会返回旧数据
+ * 3）按字节数限制总大小，商品变更通知到达时直接删除
+ */
+@Slf4j
+@Component
+public class ProductResponseCache {
+
+    /**
+     * 每条记录除字节数组外的估算开销
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 是否开启，默认关闭
+     */
+    @Value("${productconfig.detail_bytes_cache_enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 缓存总字节数上限
+     */
+    @Value("${productconfig.detail_bytes_cache_max_bytes:67108864}")
+    private long maxBytes;
+
+    /**
+     * 是否同时缓存gzip压缩的字节
+     */
+    @Value("${productconfig.detail_bytes_cache_gzip:false}")
+    private boolean gzipEnabled;
+
+    /**
+     * 小于这个字节数的响应不压缩
+     */
+    @Value("${productconfig.detail_bytes_cache_gzip_min:1024}")
+    private int gzipMinBytes;
+
+    private Cache<Long, Entry> cache;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, Entry entry) -> entry.weight())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "product_detail_bytes");
+
+        redissonClient.getTopic(CacheKey.PRODUCT_INVALIDATE_TOPIC).addListener(String.class, (channel, msg) -> {
+            List<Long> ids = new ArrayList<>();
+            for (String id : msg.split(",")) {
+                if (StringUtils.isNotBlank(id)) {
+                    ids.add(Long.valueOf(id.trim()));
+                }
+            }
+            cache.invalidateAll(ids);
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 取商品详情的响应字节，没有或者已经过时则重新序列化
+     *
+     * @param productVO 商品缓存里取到的当前对象
+     * @return
+     */
+    public Entry get(ProductVO productVO) {
+        Entry entry = cache.getIfPresent(productVO.getId());
+        if (entry != null && entry.source == productVO) {
+            return entry;
+        }
+
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(JsonData.buildSuccess(productVO));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商品详情序列化失败", e);
+        }
+        byte[] gzipBody = gzipEnabled && body.length >= gzipMinBytes ? gzip(body) : null;
+        entry = new Entry(productVO, body, gzipBody);
+        cache.put(productVO.getId(), entry);
+        return entry;
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException("商品详情压缩失败", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 缓存记录，字节数组不能修改
+     */
+    public static class Entry {
+
+        private final ProductVO source;
+
+        private final byte[] body;
+
+        /**
+         * 未开启压缩或者太小时为null
+         */
+        private final byte[] gzipBody;
+
+        Entry(ProductVO source, byte[] body, byte[] gzipBody) {
+            this.source = source;
+            this.body = body;
+            this.gzipBody = gzipBody;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public byte[] getGzipBody() {
+            return gzipBody;
+        }
+
+        int weight() {
+            return ENTRY_OVERHEAD + body.length + (gzipBody == null ? 0 : gzipBody.length);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package net.ec_shop.component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品销量排行，redis zset增量维护
+ * 1）总榜total一直累加；24h、7d两个滚动窗口，支付时同时加到窗口和当前的小时桶、天桶里
+ * 2）窗口滚动时只把过期的桶减掉，开销和过期桶的大小成正比，不用每次把所有桶重新合并；减到0的商品从窗口里删掉
+ * 3）查询走本地快照，每隔几秒取一次各排行的前N名，接口不访问redis
+ */
+@Slf4j
+@Component
+public class ProductSalesRanking {
+
+    public static final String TOTAL = "total";
+
+    public static final String DAY = "24h";
+
+    public static final String WEEK = "7d";
+
+    public static final List<String> RANKINGS = Collections.unmodifiableList(Arrays.asList(TOTAL, DAY, WEEK));
+
+    private static final String ROLLOVER_LOCK_KEY = "lock:product:rank_rollover";
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * KEYS: 总榜、小时桶、天桶、24h窗口、7d窗口；ARGV[1]小时桶过期秒数，ARGV[2]天桶过期秒数，后面是商品id、数量对
+     */
+    private static final DefaultRedisScript<Long> RECORD_SCRIPT = new DefaultRedisScript<>(
+            "for i = 3, #ARGV, 2 do " +
+                    "  for k = 1, #KEYS do redis.call('ZINCRBY', KEYS[k], ARGV[i + 1], ARGV[i]) end " +
+                    "end " +
+                    "redis.call('EXPIRE', KEYS[2], ARGV[1]) " +
+                    "redis.call('EXPIRE', KEYS[3], ARGV[2]) " +
+                    "return 1", Long.class);
+
+    /**
+     * KEYS[1]窗口，KEYS[2]已减到的桶号，后面是要处理的桶；ARGV[1]为rebuild时用桶重新合并，否则减掉这些桶，ARGV[2]新的桶号
+     */
+    private static final DefaultRedisScript<Long> ROLLOVER_SCRIPT = new DefaultRedisScript<>(
+            "if ARGV[1] == 'rebuild' then " +
+                    "  redis.call('DEL', KEYS[1]) " +
+                    "  if #KEYS > 2 then redis.call('ZUNIONSTORE', KEYS[1], #KEYS - 2, unpack(KEYS, 3)) end " +
+                    "else " +
+                    "  for i = 3, #KEYS do " +
+                    "    local items = redis.call('ZRANGE', KEYS[i], 0, -1, 'WITHSCORES') " +
+                    "    for j = 1, #items, 2 do " +
+                    "      local left = tonumber(redis.call('ZINCRBY', KEYS[1], -tonumber(items[j + 1]), items[j])) " +
+                    "      if left <= 0 then redis.call('ZREM', KEYS[1], items[j]) end " +
+                    "    end " +
+                    "  end " +
+                    "end " +
+                    "redis.call('SET', KEYS[2], ARGV[2]) " +
+                    "return 1", Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    /**
+     * 每个排行本地快照保留的名次数
+     */
+    @Value("${productconfig.rank_snapshot_size:100}")
+    private int snapshotSize;
+
+    private volatile Map<String, long[]> snapshot = Collections.emptyMap();
+
+    /**
+     * 记录已支付的销量
+     *
+     * @param salesMap 商品id -> 购买数量
+     */
+    public void record(Map<Long, Integer> salesMap) {
+        if (salesMap.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long hour = now / HOUR_MILLIS;
+        long day = LocalDate.now().toEpochDay();
+        List<String> keys = Arrays.asList(getKey(TOTAL), getBucketKey(DAY, hour), getBucketKey(WEEK, day),
+                getKey(DAY), getKey(WEEK));
+
+        List<Object> args = new ArrayList<>(salesMap.size() * 2 + 2);
+        args.add(String.valueOf(bucketTtl(DAY)));
+        args.add(String.valueOf(bucketTtl(WEEK)));
+        salesMap.forEach((productId, buyNum) -> {
+            args.add(String.valueOf(productId));
+            args.add(String.valueOf(buyNum));
+        });
+        try {
+            redisTemplate.execute(RECORD_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            //排行只是展示用，不影响支付流程
+            log.error("记录商品销量排行失败，销量={}", salesMap, e);
+        }
+    }
+
+    /**
+     * 取排行前size名的商品id，来自本地快照
+     *
+     * @param ranking total、24h、7d
+     * @param size
+     * @return
+     */
+    public long[] top(String ranking, int size) {
+        long[] productIds = snapshot.get(ranking);
+        if (productIds == null) {
+            return new long[0];
+        }
+        return productIds.length <= size ? productIds : Arrays.copyOf(productIds, size);
+    }
+
+    @Scheduled(fixedDelayString = "${productconfig.rank_refresh_interval:5000}")
+    public void refresh() {
+        try {
+            Map<String, long[]> newSnapshot = new HashMap<>(RANKINGS.size() * 2);
+            for (String ranking : RANKINGS) {
+                Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet()
+                        .reverseRangeWithScores(getKey(ranking), 0, snapshotSize - 1);
+                newSnapshot.put(ranking, tuples == null ? new long[0]
+                        : tuples.stream().mapToLong(tuple -> Long.parseLong(tuple.getValue())).toArray());
+            }
+            snapshot = newSnapshot;
+        } catch (Exception e) {
+            log.error("刷新商品销量排行快照失败，继续使用旧快照", e);
+        }
+    }
+
+    /**
+     * 滚动窗口，多实例只有一个节点在做
+     */
+    @Scheduled(fixedDelayString = "${productconfig.rank_rollover_interval:60000}")
+    public void rollover() {
+        RLock rLock = redissonClient.getLock(ROLLOVER_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            roll(DAY, System.currentTimeMillis() / HOUR_MILLIS);
+            roll(WEEK, LocalDate.now().toEpochDay());
+        } catch (Exception e) {
+            log.error("商品销量排行窗口滚动异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * 窗口包含(current - span, current]这些桶；已减到的桶号落后太多或者丢失时，直接用还在窗口里的桶重新合并
+     */
+    private void roll(String ranking, long current) {
+        long span = span(ranking);
+        long expired = current - span;
+        String markerKey = String.format(CacheKey.PRODUCT_RANK_KEY, "rolled:" + ranking);
+        String marker = redisTemplate.opsForValue().get(markerKey);
+        long rolled = marker == null ? Long.MIN_VALUE : Long.parseLong(marker);
+        if (rolled >= expired) {
+            return;
+        }
+
+        List<String> keys = new ArrayList<>();
+        keys.add(getKey(ranking));
+        keys.add(markerKey);
+        String mode;
+        if (marker == null || expired - rolled > span) {
+            mode = "rebuild";
+            for (long bucket = expired + 1; bucket <= current; bucket++) {
+                keys.add(getBucketKey(ranking, bucket));
+            }
+        } else {
+            mode = "subtract";
+            for (long bucket = rolled + 1; bucket <= expired; bucket++) {
+                keys.add(getBucketKey(ranking, bucket));
+            }
+        }
+        redisTemplate.execute(ROLLOVER_SCRIPT, keys, mode, String.valueOf(expired));
+        log.info("商品销量排行窗口滚动，排行={}，方式={}，桶数={}", ranking, mode, keys.size() - 2);
+    }
+
+    /**
+     * 窗口包含的桶数，24h是24个小时桶，7d是7个天桶
+     */
+    private long span(String ranking) {
+        return DAY.equals(ranking) ? 24 : 7;
+    }
+
+    /**
+     * 过期的桶最晚在落后span个桶时被减掉，桶保留两倍窗口长度再过期
+     */
+    private long bucketTtl(String ranking) {
+        long unit = DAY.equals(ranking) ? TimeUnit.HOURS.toSeconds(1) : TimeUnit.DAYS.toSeconds(1);
+        return (span(ranking) * 2 + 1) * unit;
+    }
+
+    private String getKey(String ranking) {
+        return String.format(CacheKey.PRODUCT_RANK_KEY, ranking);
+    }
+
+    private String getBucketKey(String ranking, long bucket) {
+        return String.format(CacheKey.PRODUCT_RANK_KEY, (DAY.equals(ranking) ? "hour:" : "day:") + bucket);
+    }
+}
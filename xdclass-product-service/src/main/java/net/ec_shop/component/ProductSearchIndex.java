@@ -0,0 +1,211 @@
+package net.ec_shop.component;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.model.ProductDO;
+import net.ec_shop.util.InvertedIndex;
+import org.redisson.api.RLock;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 商品标题检索，进程内倒排索引，代替对title的like全表扫描
+ * 1）启动时按主键分批加载全部商品标题
+ * 2）标题变更、商品下架调用notifyChanged，通过topic通知所有节点从数据库重新加载这些商品
+ * 3）定时拉取新增的商品兜底，顺便在删除过多时压缩索引
+ * 4）商品服务没有统一的写入口，后台直接改库的标题和删除靠定时对账发现，再走notifyChanged
+ */
+@Slf4j
+@Component
+public class ProductSearchIndex {
+
+    private static final String VERIFY_LOCK_KEY = "lock:product:search_verify";
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    /**
+     * 加载时每批查询的条数
+     */
+    @Value("${productconfig.search_load_batch:1000}")
+    private int searchLoadBatch;
+
+    /**
+     * 已删除文档超过这个比例时压缩索引
+     */
+    @Value("${productconfig.search_compact_ratio:0.2}")
+    private double searchCompactRatio;
+
+    private final InvertedIndex index = new InvertedIndex();
+
+    /**
+     * 已加载的最大商品id，之后按id增量拉取新增商品
+     */
+    private volatile long maxIndexedId;
+
+    private RTopic changeTopic;
+
+    @PostConstruct
+    public void init() {
+        long begin = System.currentTimeMillis();
+        loadAfter(0);
+        index.compact();
+        log.info("商品检索索引加载完成，商品数:{}，词数:{}，倒排表字节:{}，耗时:{}ms",
+                index.size(), index.termCount(), index.postingBytes(), System.currentTimeMillis() - begin);
+
+        changeTopic = redissonClient.getTopic(CacheKey.PRODUCT_SEARCH_TOPIC);
+        changeTopic.addListener(String.class, (channel, msg) -> {
+            List<Long> ids = Arrays.stream(msg.split(",")).map(Long::valueOf).collect(Collectors.toList());
+            reload(ids);
+            log.info("收到商品检索变更通知:{}", ids);
+        });
+    }
+
+    /**
+     * 检索商品
+     *
+     * @param keyword
+     * @param size
+     * @return 按相关度排序的商品id
+     */
+    public long[] search(String keyword, int size) {
+        return index.search(keyword, size);
+    }
+
+    /**
+     * 商品标题变更、新增或删除后调用，所有节点都会重新加载
+     *
+     * @param productIds
+     */
+    public void notifyChanged(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        changeTopic.publish(productIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+    }
+
+    /**
+     * 按主键分批和数据库对账，标题变了、被删除的商品通知所有节点重新加载
+     * 多实例部署时只有拿到锁的节点对账
+     */
+    @Scheduled(initialDelayString = "${productconfig.search_verify_interval:600000}", fixedDelayString = "${productconfig.search_verify_interval:600000}")
+    public void verify() {
+        RLock rLock = redissonClient.getLock(VERIFY_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Long> changedIds = diff();
+            for (int i = 0; i < changedIds.size(); i += searchLoadBatch) {
+                notifyChanged(changedIds.subList(i, Math.min(i + searchLoadBatch, changedIds.size())));
+            }
+            if (!changedIds.isEmpty()) {
+                log.info("商品检索索引对账完成，不一致商品数:{}", changedIds.size());
+            }
+        } catch (Exception e) {
+            log.error("商品检索索引对账异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * 拉取新增商品，广播丢失时兜底
+     */
+    @Scheduled(fixedDelayString = "${productconfig.search_sync_interval:60000}")
+    public synchronized void syncNewProducts() {
+        try {
+            loadAfter(maxIndexedId);
+            if (index.deletedRatio() > searchCompactRatio) {
+                index.compact();
+            }
+        } catch (Exception e) {
+            log.error("商品检索索引增量同步异常", e);
+        }
+    }
+
+    /**
+     * 索引的key和数据库都按id升序，归并找出标题不一致、数据库已删除、还没建索引的商品
+     */
+    private List<Long> diff() {
+        long[] keys = index.keys();
+        int pos = 0;
+        List<Long> changedIds = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                    .select("id", "title").gt("id", lastId).orderByAsc("id").last("limit " + searchLoadBatch));
+            for (ProductDO productDO : productDOList) {
+                while (pos < keys.length && keys[pos] < productDO.getId()) {
+                    changedIds.add(keys[pos++]);
+                }
+                if (pos < keys.length && keys[pos] == productDO.getId()) {
+                    pos++;
+                }
+                if (!index.contains(productDO.getId(), productDO.getTitle())) {
+                    changedIds.add(productDO.getId());
+                }
+            }
+            if (!productDOList.isEmpty()) {
+                lastId = productDOList.get(productDOList.size() - 1).getId();
+            }
+            if (productDOList.size() < searchLoadBatch) {
+                break;
+            }
+        }
+        while (pos < keys.length) {
+            changedIds.add(keys[pos++]);
+        }
+        return changedIds;
+    }
+
+    private void reload(List<Long> productIds) {
+        List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                .select("id", "title").in("id", productIds));
+        Set<Long> existIds = new HashSet<>(productDOList.size());
+        for (ProductDO productDO : productDOList) {
+            index.add(productDO.getId(), productDO.getTitle());
+            existIds.add(productDO.getId());
+        }
+        for (Long productId : productIds) {
+            if (!existIds.contains(productId)) {
+                index.remove(productId);
+            }
+        }
+    }
+
+    private void loadAfter(long lastId) {
+        while (true) {
+            List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                    .select("id", "title").gt("id", lastId).orderByAsc("id").last("limit " + searchLoadBatch));
+            for (ProductDO productDO : productDOList) {
+                index.add(productDO.getId(), productDO.getTitle());
+            }
+            if (!productDOList.isEmpty()) {
+                lastId = productDOList.get(productDOList.size() - 1).getId();
+                maxIndexedId = Math.max(maxIndexedId, lastId);
+            }
+            if (productDOList.size() < searchLoadBatch) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package net.ec_shop.component;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.model.ProductDO;
+import net.ec_shop.vo.ProductVO;
+import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品可锁定库存的短时视图
+ * 库存每下一单就变，不放在ProductCache里，否则热门商品每单都要失效缓存、重新查库
+ * ProductCache里的商品信息加上几秒内查到的 stock - lock_stock 生成一份副本，在过期时间内复用同一个对象，
+ * 商品详情响应字节缓存按对象判断是否过时，也能继续命中
+ * 锁定、释放库存后只清理本节点的视图，其他节点最多晚一个过期时间看到新库存
+ */
+@Slf4j
+@Component
+public class ProductStockView {
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    /**
+     * 库存视图过期时间，毫秒
+     */
+    @Value("${productconfig.stock_view_ttl:2000}")
+    private long viewTtl;
+
+    /**
+     * 最大条数，和本地商品缓存一致
+     */
+    @Value("${productconfig.local_cache_size:10000}")
+    private long viewSize;
+
+    private Cache<Long, View> viewCache;
+
+    @PostConstruct
+    public void init() {
+        viewCache = Caffeine.newBuilder()
+                .maximumSize(viewSize)
+                .expireAfterWrite(viewTtl, TimeUnit.MILLISECONDS)
+                .build();
+
+        //商品信息变了，基于旧对象生成的视图一起丢掉
+        redissonClient.getTopic(CacheKey.PRODUCT_INVALIDATE_TOPIC).addListener(String.class, (channel, msg) -> {
+            List<Long> ids = new ArrayList<>();
+            for (String id : msg.split(",")) {
+                if (StringUtils.isNotBlank(id)) {
+                    ids.add(Long.valueOf(id.trim()));
+                }
+            }
+            viewCache.invalidateAll(ids);
+        });
+    }
+
+    /**
+     * 把商品缓存里的对象换成带最新库存的副本，没有视图或者视图基于旧对象的一次IN查询补齐
+     *
+     * @param productVOList 商品缓存里取到的对象
+     * @return 顺序和入参一致，不能修改
+     */
+    public List<ProductVO> apply(List<ProductVO> productVOList) {
+        List<ProductVO> result = new ArrayList<>(productVOList.size());
+        List<ProductVO> missList = new ArrayList<>();
+        for (ProductVO productVO : productVOList) {
+            View view = viewCache.getIfPresent(productVO.getId());
+            if (view == null || view.base != productVO) {
+                missList.add(productVO);
+            }
+        }
+
+        Map<Long, View> loadedMap = missList.isEmpty() ? new HashMap<>() : load(missList);
+        for (ProductVO productVO : productVOList) {
+            View view = loadedMap.get(productVO.getId());
+            if (view == null) {
+                view = viewCache.getIfPresent(productVO.getId());
+            }
+            result.add(view != null && view.base == productVO ? view.product : productVO);
+        }
+        return result;
+    }
+
+    /**
+     * 本节点锁定、释放库存后调用
+     *
+     * @param productIds
+     */
+    public void invalidate(Collection<Long> productIds) {
+        viewCache.invalidateAll(productIds);
+    }
+
+    private Map<Long, View> load(List<ProductVO> missList) {
+        Map<Long, ProductVO> baseMap = new HashMap<>(missList.size() * 2);
+        for (ProductVO productVO : missList) {
+            baseMap.put(productVO.getId(), productVO);
+        }
+        List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                .select("id", "stock", "lock_stock").in("id", baseMap.keySet()));
+
+        Map<Long, View> loadedMap = new HashMap<>(productDOList.size() * 2);
+        for (ProductDO productDO : productDOList) {
+            ProductVO base = baseMap.get(productDO.getId());
+            ProductVO product = new ProductVO();
+            BeanUtils.copyProperties(base, product);
+            product.setStock(productDO.getStock() - productDO.getLockStock());
+            View view = new View(base, product);
+            viewCache.put(productDO.getId(), view);
+            loadedMap.put(productDO.getId(), view);
+        }
+        return loadedMap;
+    }
+
+    private static class View {
+
+        /**
+         * 生成视图时商品缓存里的对象
+         */
+        private final ProductVO base;
+
+        private final ProductVO product;
+
+        private View(ProductVO base, ProductVO product) {
+            this.base = base;
+            this.product = product;
+        }
+    }
+}
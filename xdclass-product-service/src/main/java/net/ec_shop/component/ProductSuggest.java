@@ -0,0 +1,135 @@
+package net.ec_shop.component;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.enums.StockTaskStateEnum;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.mapper.ProductTaskMapper;
+import net.ec_shop.model.ProductDO;
+import net.ec_shop.model.ProductTaskDO;
+import net.ec_shop.util.PrefixSuggester;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 搜索框前缀联想，候选是商品标题，权重是近期销量
+ * 词典构建后不可变，后台重建好再整体替换引用，查询不加锁也不会读到构建一半的数据
+ * 商品变更通知、出现新商品或者距上次构建超过重建间隔时重建
+ */
+@Slf4j
+@Component
+public class ProductSuggest {
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private ProductTaskMapper productTaskMapper;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    /**
+     * 加载时每批查询的条数
+     */
+    @Value("${productconfig.search_load_batch:1000}")
+    private int loadBatch;
+
+    /**
+     * 统计最近多少天的销量作为权重
+     */
+    @Value("${productconfig.suggest_popularity_days:30}")
+    private int popularityDays;
+
+    /**
+     * 没有变更时也定期重建，刷新销量权重，毫秒
+     */
+    @Value("${productconfig.suggest_rebuild_interval:3600000}")
+    private long rebuildInterval;
+
+    private volatile PrefixSuggester suggester = PrefixSuggester.builder().build();
+
+    /**
+     * 收到商品变更通知后置为true，下次检查时重建
+     */
+    private volatile boolean dirty;
+
+    private volatile long builtMaxId;
+
+    private volatile long builtAt;
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+        redissonClient.getTopic(CacheKey.PRODUCT_SEARCH_TOPIC).addListener(String.class, (channel, msg) -> dirty = true);
+    }
+
+    /**
+     * 前缀联想
+     *
+     * @param prefix
+     * @param size
+     * @return
+     */
+    public List<String> suggest(String prefix, int size) {
+        return suggester.suggest(prefix, size);
+    }
+
+    @Scheduled(fixedDelayString = "${productconfig.suggest_check_interval:60000}")
+    public void checkRebuild() {
+        try {
+            ProductDO last = productMapper.selectOne(new QueryWrapper<ProductDO>()
+                    .select("id").orderByDesc("id").last("limit 1"));
+            long maxId = last == null ? 0 : last.getId();
+            if (dirty || maxId != builtMaxId || System.currentTimeMillis() - builtAt > rebuildInterval) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            log.error("联想词典重建异常，继续使用旧词典", e);
+        }
+    }
+
+    private synchronized void rebuild() {
+        long begin = System.currentTimeMillis();
+        dirty = false;
+
+        Date since = new Date(begin - popularityDays * 24L * 3600 * 1000);
+        List<ProductTaskDO> salesList = productTaskMapper.sumBuyNumByProduct(since, StockTaskStateEnum.CANCEL.name());
+        Map<Long, Integer> salesMap = new HashMap<>(salesList.size() * 4 / 3 + 1);
+        for (ProductTaskDO productTaskDO : salesList) {
+            salesMap.put(productTaskDO.getProductId(), productTaskDO.getBuyNum());
+        }
+
+        PrefixSuggester.Builder builder = PrefixSuggester.builder();
+        long lastId = 0;
+        while (true) {
+            List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                    .select("id", "title").gt("id", lastId).orderByAsc("id").last("limit " + loadBatch));
+            for (ProductDO productDO : productDOList) {
+                builder.add(productDO.getTitle(), salesMap.getOrDefault(productDO.getId(), 0));
+            }
+            if (!productDOList.isEmpty()) {
+                lastId = productDOList.get(productDOList.size() - 1).getId();
+            }
+            if (productDOList.size() < loadBatch) {
+                break;
+            }
+        }
+
+        suggester = builder.build();
+        builtMaxId = lastId;
+        builtAt = System.currentTimeMillis();
+        log.info("联想词典重建完成，候选数:{}，占用:{}字节，耗时:{}ms",
+                suggester.size(), suggester.memoryBytes(), builtAt - begin);
+    }
+}
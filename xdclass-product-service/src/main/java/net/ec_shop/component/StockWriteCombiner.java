@@ -0,0 +1,180 @@
+package net.ec_shop.component;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.request.LockProductRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * 数据库库存锁定的写合并
+ * 热点商品上每个订单各自一条update，请求越多行锁排队越长；这里把一个时间窗口内到达的锁定请求攒成一组，
+ * 交给处理函数在一个事务里按商品合并成一条update，一组只加一次行锁
+ * 每个请求有自己的future，处理函数按订单逐个判断库存是否足够，一个订单的商品要么都锁定要么都不锁定
+ * 交给处理函数之前调用方可以cancel撤回请求，已经合并进事务的cancel返回false，只能等结果
+ */
+@Slf4j
+@Component
+public class StockWriteCombiner {
+
+    /**
+     * 是否开启写合并，只对数据库库存模式生效；所有锁定都经过一个合并线程，默认关闭，有热点商品时再开启
+     */
+    @Value("${productconfig.stock_combine_enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 合并窗口，毫秒，第一个请求到达后最多等这么久
+     */
+    @Value("${productconfig.stock_combine_window:2}")
+    private long windowMillis;
+
+    /**
+     * 一组最多合并的订单数
+     */
+    @Value("${productconfig.stock_combine_max_batch:200}")
+    private int maxBatch;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private volatile boolean running = true;
+
+    private volatile Thread worker;
+
+    private volatile Function<List<LockProductRequest>, boolean[]> handler;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 设置处理函数并启动合并线程
+     *
+     * @param handler 一组订单在一个事务里锁定，返回和入参一一对应的是否锁定成功
+     */
+    public synchronized void start(Function<List<LockProductRequest>, boolean[]> handler) {
+        this.handler = handler;
+        if (worker != null || !enabled) {
+            return;
+        }
+        worker = new Thread(this::run, "stock-write-combiner");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 提交锁定请求
+     *
+     * @param lockProductRequest
+     * @return 锁定成功为true，库存不足为false；cancel成功说明请求没有执行
+     */
+    public CompletableFuture<Boolean> submit(LockProductRequest lockProductRequest) {
+        Pending pending = new Pending(lockProductRequest);
+        if (!running) {
+            pending.completeExceptionally(new IllegalStateException("库存写合并已停止"));
+            return pending;
+        }
+        queue.add(pending);
+        return pending;
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        List<Pending> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (Pending pending : remaining) {
+            pending.completeExceptionally(new IllegalStateException("库存写合并已停止"));
+        }
+    }
+
+    private void run() {
+        List<Pending> group = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                Pending first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                //处理上一组期间到达的先全部取出，不够再等到窗口结束
+                queue.drainTo(group, maxBatch - group.size());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (group.size() < maxBatch) {
+                    long remain = deadline - System.nanoTime();
+                    Pending pending = remain > 0 ? queue.poll(remain, TimeUnit.NANOSECONDS) : null;
+                    if (pending == null) {
+                        break;
+                    }
+                    group.add(pending);
+                }
+                flush(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                for (Pending pending : group) {
+                    pending.completeExceptionally(new IllegalStateException("库存写合并已停止"));
+                }
+                group.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending> group) {
+        //跳过已经被调用方撤回的请求，剩下的不能再撤回
+        List<Pending> merged = new ArrayList<>(group.size());
+        List<LockProductRequest> requestList = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            if (pending.merged.compareAndSet(false, true)) {
+                merged.add(pending);
+                requestList.add(pending.request);
+            }
+        }
+        if (merged.isEmpty()) {
+            return;
+        }
+        try {
+            boolean[] result = handler.apply(requestList);
+            for (int i = 0; i < merged.size(); i++) {
+                merged.get(i).complete(result[i]);
+            }
+        } catch (Exception e) {
+            log.error("库存合并锁定异常，订单数={}", merged.size(), e);
+            for (Pending pending : merged) {
+                pending.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class Pending extends CompletableFuture<Boolean> {
+
+        private final LockProductRequest request;
+
+        /**
+         * 已经交给处理函数，和cancel互斥
+         */
+        private final AtomicBoolean merged = new AtomicBoolean();
+
+        private Pending(LockProductRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return merged.compareAndSet(false, true) && super.cancel(mayInterruptIfRunning);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package net.ec_shop.config;
+
+import lombok.Data;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Exchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+@Data
+public class RabbitMQConfig {
+
+
+    /**
+     * 交换机
+     */
+    @Value("${mqconfig.stock_event_exchange}")
+    private String eventExchange;
+
+
+    /**
+     * 第一个队列  延迟队列，
+     */
+    @Value("${mqconfig.stock_release_delay_queue}")
+    private String stockReleaseDelayQueue;
+
+    /**
+     * 第一个队列的路由key
+     * 进入队列的路由key
+     */
+    @Value("${mqconfig.stock_release_delay_routing_key}")
+    private String stockReleaseDelayRoutingKey;
+
+
+    /**
+     * 第二个队列，被监听恢复库存的队列
+     */
+    @Value("${mqconfig.stock_release_queue}")
+    private String stockReleaseQueue;
+
+    /**
+     * 第二个队列的路由key
+     * <p>
+     * 即进入死信队列的路由key
+     */
+    @Value("${mqconfig.stock_release_routing_key}")
+    private String stockReleaseRoutingKey;
+
+    /**
+     * 过期时间
+     */
+    @Value("${mqconfig.ttl}")
+    private Integer ttl;
+
+
+    /**
+     * 库存释放批量消费，每批条数
+     */
+    @Value("${mqconfig.stock_release_batch_size:100}")
+    private Integer stockReleaseBatchSize;
+
+    /**
+     * 库存释放批量消费，凑批等待时间，毫秒
+     */
+    @Value("${mqconfig.stock_release_batch_timeout:1000}")
+    private Long stockReleaseBatchTimeout;
+
+    /**
+     * 订单服务的交换机，redis预占无法写回数据库时通知订单服务关单
+     */
+    @Value("${mqconfig.order_event_exchange:order.event.exchange}")
+    private String orderEventExchange;
+
+    /**
+     * 订单服务关单队列的路由key
+     */
+    @Value("${mqconfig.order_close_routing_key:order.close.routing.key}")
+    private String orderCloseRoutingKey;
+
+
+    /**
+     * 消息转换器
+     *
+     * @return
+     */
+    @Bean
+    public MessageConverter messageConverter() {
+        return new Jackson2JsonMessageConverter();
+    }
+
+
+    /**
+     * 库存释放批量消费的容器工厂，沿用yml里的手动确认等配置
+     *
+     * @param configurer
+     * @param connectionFactory
+     * @return
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory stockReleaseBatchFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+                                                                         ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(stockReleaseBatchSize);
+        factory.setPrefetchCount(stockReleaseBatchSize);
+        factory.setReceiveTimeout(stockReleaseBatchTimeout);
+        return factory;
+    }
+
+
+    /**
+     * 创建交换机 Topic类型，也可以用dirct路由
+     * 一般一个微服务一个交换机
+     *
+     * @return
+     */
+    @Bean
+    public Exchange stockEventExchange() {
+        return new TopicExchange(eventExchange, true, false);
+    }
+
+
+    /**
+     * 延迟队列
+     */
+    @Bean
+    public Queue stockReleaseDelayQueue() {
+
+        Map<String, Object> args = new HashMap<>(3);
+        args.put("x-message-ttl", ttl);
+        args.put("x-dead-letter-routing-key", stockReleaseRoutingKey);
+        args.put("x-dead-letter-exchange", eventExchange);
+
+        return new Queue(stockReleaseDelayQueue, true, false, false, args);
+    }
+
+
+    /**
+     * 死信队列，普通队列，用于被监听
+     */
+    @Bean
+    public Queue stockReleaseQueue() {
+
+        return new Queue(stockReleaseQueue, true, false, false);
+
+    }
+
+
+    /**
+     * 第一个队列，即延迟队列的绑定关系建立
+     *
+     * @return
+     */
+    @Bean
+    public Binding stockReleaseDelayBinding() {
+
+        return new Binding(stockReleaseDelayQueue, Binding.DestinationType.QUEUE, eventExchange, stockReleaseDelayRoutingKey, null);
+    }
+
+    /**
+     * 死信队列绑定关系建立
+     *
+     * @return
+     */
+    @Bean
+    public Binding stockReleaseBinding() {
+
+        return new Binding(stockReleaseQueue, Binding.DestinationType.QUEUE, eventExchange, stockReleaseRoutingKey, null);
+    }
+}
\ No newline at end of file
@@ -3,13 +3,17 @@ package net.ec_shop.controller;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import net.ec_shop.component.BannerSnapshot;
 import net.ec_shop.service.BannerService;
-import net.ec_shop.util.JsonData;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  * <p>
@@ -27,11 +31,30 @@ public class BannerController {
     @Autowired
     private BannerService bannerService;
 
+    /**
+     * 直接返回快照里序列化好的字节，If-None-Match匹配时返回304
+     * 由checkNotModified按RFC 7232解析，支持弱校验W/"..."、逗号分隔的多个值和*
+     *
+     * @param request
+     * @return
+     */
     @ApiOperation("轮播图列表接口")
     @GetMapping("list")
-    public JsonData list() {
+    public ResponseEntity<byte[]> list(WebRequest request) {
 
-        return JsonData.buildSuccess(bannerService.list());
+        BannerSnapshot.Snapshot snapshot = bannerService.snapshot();
+
+        //已经设置好304和ETag
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .contentLength(snapshot.getBody().length)
+                .body(snapshot.getBody());
 
     }
 
@@ -72,5 +72,18 @@ public class CartController {
         return JsonData.buildSuccess(cartItemVOList);
     }
 
+    /**
+     * RPC调用接口—下单失败时放回购物项
+     *
+     * @param cartItemRequestList
+     * @return
+     */
+    @ApiOperation("放回购物项")
+    @PostMapping("restore_cart_items")
+    public JsonData restoreCartItems(@ApiParam("购物项列表") @RequestBody List<CartItemRequest> cartItemRequestList) {
+        cartService.restoreCartItems(cartItemRequestList);
+        return JsonData.buildSuccess();
+    }
+
 
 }
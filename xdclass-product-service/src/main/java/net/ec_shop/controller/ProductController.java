@@ -4,12 +4,21 @@ package net.ec_shop.controller;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
+import net.ec_shop.component.ProductResponseCache;
+import net.ec_shop.component.ProductSalesRanking;
+import net.ec_shop.enums.BizCodeEnum;
+import net.ec_shop.request.LockProductRequest;
 import net.ec_shop.service.ProductService;
 import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.ProductCardVO;
 import net.ec_shop.vo.ProductVO;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -23,24 +32,137 @@ import java.util.Map;
 @RequestMapping("/api/product/v1")
 public class ProductController {
 
+    /**
+     * 列表每页最大条数
+     */
+    private static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * 联想最多返回条数
+     */
+    private static final int MAX_SUGGEST_SIZE = 20;
+
+    /**
+     * 排行最多返回条数，不超过本地快照保留的名次数
+     */
+    private static final int MAX_RANK_SIZE = 100;
+
+    /**
+     * 买了还买最多返回条数
+     */
+    private static final int MAX_RECOMMEND_SIZE = 20;
+
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private ProductResponseCache productResponseCache;
+
     @ApiOperation("分页查询商品列表")
     @GetMapping("page")
     public JsonData pageProductList(
             @ApiParam(value = "当前页") @RequestParam(value = "page", defaultValue = "1") int page,
             @ApiParam(value = "每页显示多少条") @RequestParam(value = "size", defaultValue = "10") int size
     ) {
-        Map<String, Object> pageResult = productService.page(page, size);
+        Map<String, Object> pageResult = productService.page(page, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+        return JsonData.buildSuccess(pageResult);
+    }
+
+    @ApiOperation("游标查询商品列表，用于无限滚动")
+    @GetMapping("list")
+    public JsonData listProduct(
+            @ApiParam(value = "上一页返回的next_cursor，第一页不传") @RequestParam(value = "cursor", defaultValue = "0") long cursor,
+            @ApiParam(value = "每页显示多少条") @RequestParam(value = "size", defaultValue = "10") int size
+    ) {
+        Map<String, Object> pageResult = productService.listByCursor(cursor, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
         return JsonData.buildSuccess(pageResult);
     }
 
+    @ApiOperation("按标题检索商品")
+    @GetMapping("search")
+    public JsonData search(
+            @ApiParam(value = "关键词", required = true) @RequestParam(value = "keyword") String keyword,
+            @ApiParam(value = "返回条数") @RequestParam(value = "size", defaultValue = "20") int size
+    ) {
+        List<ProductCardVO> productCardVOList = productService.search(keyword, Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+        return JsonData.buildSuccess(productCardVOList);
+    }
+
+    @ApiOperation("搜索框前缀联想")
+    @GetMapping("suggest")
+    public JsonData suggest(
+            @ApiParam(value = "已输入的前缀", required = true) @RequestParam(value = "prefix") String prefix,
+            @ApiParam(value = "返回条数") @RequestParam(value = "size", defaultValue = "10") int size
+    ) {
+        List<String> suggestList = productService.suggest(prefix, Math.max(1, Math.min(size, MAX_SUGGEST_SIZE)));
+        return JsonData.buildSuccess(suggestList);
+    }
+
+    @ApiOperation("商品销量排行")
+    @GetMapping("top_sellers")
+    public JsonData topSellers(
+            @ApiParam(value = "排行：total总榜，24h最近24小时，7d最近7天") @RequestParam(value = "ranking", defaultValue = "24h") String ranking,
+            @ApiParam(value = "返回条数") @RequestParam(value = "size", defaultValue = "10") int size
+    ) {
+        if (!ProductSalesRanking.RANKINGS.contains(ranking)) {
+            return JsonData.buildError("不支持的排行");
+        }
+        List<ProductCardVO> productCardVOList = productService.topSellers(ranking, Math.max(1, Math.min(size, MAX_RANK_SIZE)));
+        return JsonData.buildSuccess(productCardVOList);
+    }
+
+    @ApiOperation("买了还买")
+    @GetMapping("/bought_together/{product_id}")
+    public JsonData boughtTogether(
+            @ApiParam(value = "商品id", required = true) @PathVariable("product_id") long productId,
+            @ApiParam(value = "返回条数") @RequestParam(value = "size", defaultValue = "10") int size
+    ) {
+        List<ProductCardVO> productCardVOList = productService.findBoughtTogether(productId, Math.max(1, Math.min(size, MAX_RECOMMEND_SIZE)));
+        return JsonData.buildSuccess(productCardVOList);
+    }
+
+    /**
+     * 开启响应字节缓存后直接写出序列化好的字节，客户端支持gzip时优先返回压缩的
+     *
+     * @param productId
+     * @param acceptEncoding
+     * @return
+     */
     @ApiOperation("商品详情")
     @GetMapping("/detail/{product_id}")
-    public JsonData detail(@ApiParam(value = "商品id", required = true) @PathVariable("product_id") long productId) {
+    public ResponseEntity<?> detail(@ApiParam(value = "商品id", required = true) @PathVariable("product_id") long productId,
+                                    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         ProductVO productVO = productService.findDetailById(productId);
-        return JsonData.buildSuccess(productVO);
+        if (productVO == null) {
+            return ResponseEntity.ok(JsonData.buildResult(BizCodeEnum.PRODUCT_NOT_EXIST));
+        }
+        if (!productResponseCache.isEnabled()) {
+            return ResponseEntity.ok(JsonData.buildSuccess(productVO));
+        }
+
+        ProductResponseCache.Entry entry = productResponseCache.get(productVO);
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (entry.getGzipBody() != null) {
+            builder.varyBy(HttpHeaders.ACCEPT_ENCODING);
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                        .contentLength(entry.getGzipBody().length)
+                        .body(entry.getGzipBody());
+            }
+        }
+        return builder.contentLength(entry.getBody().length).body(entry.getBody());
     }
-}
 
+    /**
+     * RPC调用接口-锁定商品库存
+     *
+     * @param lockProductRequest
+     * @return
+     */
+    @ApiOperation("rpc-锁定，商品库存")
+    @PostMapping("lock_products")
+    public JsonData lockProducts(@ApiParam("商品库存锁定") @RequestBody LockProductRequest lockProductRequest) {
+        JsonData jsonData = productService.lockProductStock(lockProductRequest);
+        return jsonData;
+    }
+}
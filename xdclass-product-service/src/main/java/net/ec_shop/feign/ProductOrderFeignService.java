@@ -0,0 +1,22 @@
+package net.ec_shop.feign;
+
+import net.ec_shop.util.JsonData;
+import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+
+import java.util.List;
+
+@FeignClient(name = "ec-order-service")
+public interface ProductOrderFeignService {
+
+    /**
+     * 批量查询订单状态
+     *
+     * @param outTradeNoList
+     * @return 订单号-状态，不存在的订单不返回
+     */
+    @PostMapping("/api/order/v1/query_state_batch")
+    JsonData queryProductOrderStateBatch(@RequestBody List<String> outTradeNoList);
+
+}
@@ -0,0 +1,23 @@
+package net.ec_shop.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import net.ec_shop.model.CartArchiveDO;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+public interface CartArchiveMapper extends BaseMapper<CartArchiveDO> {
+
+    /**
+     * 批量写入归档，已存在的覆盖
+     *
+     * @param cartArchiveList
+     * @return
+     */
+    int upsertBatch(@Param("cartArchiveList") List<CartArchiveDO> cartArchiveList);
+}
@@ -2,6 +2,11 @@ package net.ec_shop.mapper;
 
 import net.ec_shop.model.ProductDO;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import net.ec_shop.request.OrderItemRequest;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +18,67 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ProductMapper extends BaseMapper<ProductDO> {
 
+    /**
+     * 批量锁定库存，一条update，可用库存不足的行不更新
+     * 调用方保证商品id升序且不重复，返回更新行数
+     *
+     * @param orderItemList
+     * @return
+     */
+    int lockStockBatch(@Param("orderItemList") List<OrderItemRequest> orderItemList);
+
+    /**
+     * 按id升序锁住商品行，只填充id、stock、lock_stock，需要在事务内调用
+     *
+     * @param ids
+     * @return
+     */
+    List<ProductDO> selectStockForUpdate(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 按id顺序取(lastId, maxId]之间的商品，只填充id、lock_stock
+     *
+     * @param lastId
+     * @param maxId
+     * @param size
+     * @return
+     */
+    List<ProductDO> listLockStockAfter(@Param("lastId") long lastId, @Param("maxId") long maxId, @Param("size") int size);
+
+    /**
+     * 锁定库存还是observed时改为expected
+     *
+     * @param id
+     * @param expected
+     * @param observed
+     * @return
+     */
+    int repairLockStock(@Param("id") long id, @Param("expected") int expected, @Param("observed") int observed);
+
+    /**
+     * 批量释放锁定库存，每个商品一条case分支
+     * 调用方保证商品id升序且不重复，返回更新行数
+     *
+     * @param orderItemList
+     * @return
+     */
+    int unlockStockBatch(@Param("orderItemList") List<OrderItemRequest> orderItemList);
+
+    /**
+     * 游标分页查询列表卡片，不含detail
+     *
+     * @param lastId 上一页最后一个商品id
+     * @param size
+     * @return
+     */
+    List<ProductDO> listCardAfter(@Param("lastId") long lastId, @Param("size") int size);
+
+    /**
+     * 按页查询列表卡片，不含detail
+     *
+     * @param offset
+     * @param size
+     * @return
+     */
+    List<ProductDO> listCardPage(@Param("offset") long offset, @Param("size") int size);
 }
@@ -2,6 +2,10 @@ package net.ec_shop.mapper;
 
 import net.ec_shop.model.ProductTaskDO;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,61 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ProductTaskMapper extends BaseMapper<ProductTaskDO> {
 
+    /**
+     * 批量插入
+     *
+     * @param productTaskDOList
+     * @return
+     */
+    int insertBatch(@Param("productTaskList") List<ProductTaskDO> productTaskDOList);
+
+    /**
+     * 批量更新库存锁定任务状态，只更新旧状态匹配的行
+     *
+     * @param ids
+     * @param lockState
+     * @param oldLockState
+     * @return
+     */
+    int updateStateBatch(@Param("ids") List<Long> ids, @Param("lockState") String lockState, @Param("oldLockState") String oldLockState);
+
+    /**
+     * 按商品汇总某个时间之后的购买数量，排除指定状态，只填充productId和buyNum
+     *
+     * @param since
+     * @param excludeLockState
+     * @return
+     */
+    List<ProductTaskDO> sumBuyNumByProduct(@Param("since") Date since, @Param("excludeLockState") String excludeLockState);
+
+    /**
+     * 按商品汇总id在[fromId, toId]之间的商品的购买数量，排除指定状态，只填充productId和buyNum
+     *
+     * @param fromId
+     * @param toId
+     * @param excludeLockState
+     * @return
+     */
+    List<ProductTaskDO> sumBuyNumByProductRange(@Param("fromId") long fromId, @Param("toId") long toId, @Param("excludeLockState") String excludeLockState);
+
+    /**
+     * 创建时间早于before、仍是指定状态的订单号，去重
+     *
+     * @param lockState
+     * @param before
+     * @param size
+     * @return
+     */
+    List<String> listOutTradeNoByState(@Param("lockState") String lockState, @Param("before") Date before, @Param("size") int size);
+
+    /**
+     * 主键大于lastId、创建时间不早于since的指定状态的任务，按主键顺序，只填充id、productId和outTradeNo
+     *
+     * @param lockState
+     * @param since
+     * @param lastId
+     * @param size
+     * @return
+     */
+    List<ProductTaskDO> listByStateAfter(@Param("lockState") String lockState, @Param("since") Date since, @Param("lastId") long lastId, @Param("size") int size);
 }
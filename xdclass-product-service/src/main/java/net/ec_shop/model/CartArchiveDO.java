@@ -0,0 +1,43 @@
+package net.ec_shop.model;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>
+ * 长时间未访问、从redis移出的购物车
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@TableName("cart_archive")
+public class CartArchiveDO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 购物车redis key
+     */
+    @TableId(value = "cart_key", type = IdType.INPUT)
+    private String cartKey;
+
+    /**
+     * 整个hash的打包内容，编码见CartItemCodec
+     */
+    private byte[] content;
+
+    /**
+     * 购物项数量
+     */
+    private Integer itemCount;
+
+    private Date archiveTime;
+
+
+}
@@ -0,0 +1,25 @@
+package net.ec_shop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartContent {
+
+    /**
+     * 购物项，按加入时间排序
+     */
+    private List<CartEntry> entries;
+
+    /**
+     * 合计
+     */
+    private CartTotal total;
+
+}
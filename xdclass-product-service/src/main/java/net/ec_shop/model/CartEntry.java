@@ -0,0 +1,42 @@
+package net.ec_shop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartEntry {
+
+    /**
+     * 商品id
+     */
+    private long productId;
+
+    /**
+     * 购买数量
+     */
+    private int buyNum;
+
+    /**
+     * 加入购物车时间，秒
+     */
+    private long addTime;
+
+    /**
+     * 价格快照对应的价格版本，0表示没有快照
+     */
+    private long priceVersion;
+
+    /**
+     * 价格快照，分
+     */
+    private long amountCents;
+
+    public CartEntry(long productId, int buyNum, long addTime) {
+        this(productId, buyNum, addTime, 0, 0);
+    }
+
+}
@@ -0,0 +1,30 @@
+package net.ec_shop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartStat {
+
+    private String cartKey;
+
+    /**
+     * 剩余过期时间，秒，-2表示已不存在
+     */
+    private long ttl;
+
+    /**
+     * 购物项数量，不含合计
+     */
+    private long itemCount;
+
+    /**
+     * redis MEMORY USAGE，字节
+     */
+    private long memoryBytes;
+
+}
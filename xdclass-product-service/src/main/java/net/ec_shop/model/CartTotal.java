@@ -0,0 +1,23 @@
+package net.ec_shop.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CartTotal {
+
+    /**
+     * 总件数
+     */
+    private long totalNum;
+
+    /**
+     * 按价格快照算的总金额，分
+     */
+    private long totalCents;
+
+}
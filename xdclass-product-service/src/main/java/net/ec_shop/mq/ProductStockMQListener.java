@@ -0,0 +1,71 @@
+package net.ec_shop.mq;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.model.ProductMessage;
+import net.ec_shop.service.ProductService;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * 库存释放批量消费
+ * 一批消息一起处理，同一商品只扣减一次lock_stock，处理完一次性确认
+ */
+@Slf4j
+@Component
+public class ProductStockMQListener {
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private MessageConverter messageConverter;
+
+    @RabbitListener(queues = "${mqconfig.stock_release_queue}", containerFactory = "stockReleaseBatchFactory")
+    public void releaseProductStock(List<Message> messageList, Channel channel) throws IOException {
+
+        long lastTag = messageList.get(messageList.size() - 1).getMessageProperties().getDeliveryTag();
+        List<String> outTradeNoList = new ArrayList<>(messageList.size());
+        for (Message message : messageList) {
+            ProductMessage productMessage = (ProductMessage) messageConverter.fromMessage(message);
+            outTradeNoList.add(productMessage.getOutTradeNo());
+        }
+        log.info("监听到库存释放消息，条数={}", messageList.size());
+
+        Set<String> requeueSet;
+        try {
+            requeueSet = productService.releaseProductStockBatch(new LinkedHashSet<>(outTradeNoList));
+        } catch (Exception e) {
+            log.error("库存批量释放异常，整批重新投递，条数={}", messageList.size(), e);
+            channel.basicNack(lastTag, true, true);
+            return;
+        }
+
+        //订单还是NEW状态的单独重新投递，其余的按最大的tag一次确认
+        long ackTag = -1;
+        for (int i = 0; i < messageList.size(); i++) {
+            long deliveryTag = messageList.get(i).getMessageProperties().getDeliveryTag();
+            if (requeueSet.contains(outTradeNoList.get(i))) {
+                log.warn("订单状态是NEW,返回给消息队列，重新投递:{}", outTradeNoList.get(i));
+                channel.basicNack(deliveryTag, false, true);
+            } else {
+                ackTag = Math.max(ackTag, deliveryTag);
+            }
+        }
+        if (ackTag > 0) {
+            channel.basicAck(ackTag, true);
+        }
+    }
+
+
+}
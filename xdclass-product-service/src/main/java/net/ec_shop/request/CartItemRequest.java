@@ -17,4 +17,8 @@ public class CartItemRequest {
     @ApiModelProperty(value = "购买数量", example = "1")
     @JsonProperty("buy_num")
     private int buyNum;
+
+    @ApiModelProperty(value = "加入购物车时间，秒，放回购物项时保留，不传为当前时间", example = "1626000000")
+    @JsonProperty("add_time")
+    private long addTime;
 }
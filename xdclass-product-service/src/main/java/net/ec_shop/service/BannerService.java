@@ -1,5 +1,6 @@
 package net.ec_shop.service;
 
+import net.ec_shop.component.BannerSnapshot;
 import net.ec_shop.vo.BannerVO;
 
 import java.util.List;
@@ -8,5 +9,12 @@ public interface BannerService {
 
     List<BannerVO> list();
 
+    /**
+     * 轮播图快照，包含序列化好的响应体和ETag
+     *
+     * @return
+     */
+    BannerSnapshot.Snapshot snapshot();
+
 
 }
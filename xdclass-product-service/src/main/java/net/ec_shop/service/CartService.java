@@ -48,4 +48,11 @@ public interface CartService {
      * @return
      */
     List<CartItemVO> confirmOrderCartItems(List<Long> productIdList);
+
+    /**
+     * 下单失败，放回购物项
+     *
+     * @param cartItemRequestList
+     */
+    void restoreCartItems(List<CartItemRequest> cartItemRequestList);
 }
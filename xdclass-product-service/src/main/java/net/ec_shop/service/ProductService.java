@@ -1,9 +1,14 @@
 package net.ec_shop.service;
 
+import net.ec_shop.request.LockProductRequest;
+import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.ProductCardVO;
 import net.ec_shop.vo.ProductVO;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public interface ProductService {
 
@@ -16,6 +21,51 @@ public interface ProductService {
      */
     Map<String, Object> page(int page, int size);
 
+    /**
+     * 游标分页查询商品列表
+     *
+     * @param cursor
+     * @param size
+     * @return
+     */
+    Map<String, Object> listByCursor(long cursor, int size);
+
+    /**
+     * 按标题检索商品
+     *
+     * @param keyword
+     * @param size
+     * @return
+     */
+    List<ProductCardVO> search(String keyword, int size);
+
+    /**
+     * 搜索框前缀联想
+     *
+     * @param prefix
+     * @param size
+     * @return
+     */
+    List<String> suggest(String prefix, int size);
+
+    /**
+     * 销量排行
+     *
+     * @param ranking total、24h、7d
+     * @param size
+     * @return
+     */
+    List<ProductCardVO> topSellers(String ranking, int size);
+
+    /**
+     * 买了还买
+     *
+     * @param productId
+     * @param size
+     * @return
+     */
+    List<ProductCardVO> findBoughtTogether(long productId, int size);
+
     /**
      * 根据id找商品详情
      *
@@ -31,4 +81,35 @@ public interface ProductService {
      * @return
      */
     List<ProductVO> findProductsByIdBatch(List<Long> productIdList);
+
+    /**
+     * 不走缓存，直接查库取最新的商品
+     *
+     * @param productIdList
+     * @return
+     */
+    List<ProductVO> findLatestByIdBatch(List<Long> productIdList);
+
+    /**
+     * 锁定商品库存
+     *
+     * @param lockProductRequest
+     * @return
+     */
+    JsonData lockProductStock(LockProductRequest lockProductRequest);
+
+    /**
+     * 批量同步redis库存预占到数据库
+     *
+     * @param lockProductRequestList
+     */
+    void syncReservedStock(List<LockProductRequest> lockProductRequestList);
+
+    /**
+     * 批量释放订单的库存锁定
+     *
+     * @param outTradeNoList
+     * @return 订单还未支付也未取消，需要重新投递的订单号
+     */
+    Set<String> releaseProductStockBatch(Collection<String> outTradeNoList);
 }
@@ -1,17 +1,13 @@
 package net.ec_shop.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import lombok.extern.slf4j.Slf4j;
-import net.ec_shop.mapper.BannerMapper;
-import net.ec_shop.model.BannerDO;
+import net.ec_shop.component.BannerSnapshot;
 import net.ec_shop.service.BannerService;
 import net.ec_shop.vo.BannerVO;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 
 @Service
@@ -19,19 +15,22 @@ import java.util.stream.Collectors;
 public class BannerServiceImpl implements BannerService {
 
     @Autowired
-    private BannerMapper bannerMapper;
+    private BannerSnapshot bannerSnapshot;
 
+    /**
+     * 轮播图列表，来自内存快照，返回的列表不可修改
+     *
+     * @return
+     */
     @Override
     public List<BannerVO> list() {
 
-        List<BannerDO> bannerDOList = bannerMapper.selectList(new QueryWrapper<BannerDO>().orderByAsc("weight"));
+        return bannerSnapshot.get().getBannerVOList();
+    }
 
-        List<BannerVO> bannerVOList = bannerDOList.stream().map(obj -> {
-            BannerVO bannerVO = new BannerVO();
-            BeanUtils.copyProperties(obj, bannerVO);
-            return bannerVO;
-        }).collect(Collectors.toList());
+    @Override
+    public BannerSnapshot.Snapshot snapshot() {
 
-        return bannerVOList;
+        return bannerSnapshot.get();
     }
 }
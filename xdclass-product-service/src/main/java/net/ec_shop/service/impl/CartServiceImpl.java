@@ -1,25 +1,31 @@
 package net.ec_shop.service.impl;
 
-import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.CartStore;
+import net.ec_shop.component.ProductPriceVersion;
 import net.ec_shop.constant.CacheKey;
 import net.ec_shop.enums.BizCodeEnum;
 import net.ec_shop.exception.BizException;
 import net.ec_shop.interceptor.LoginInterceptor;
+import net.ec_shop.model.CartContent;
+import net.ec_shop.model.CartEntry;
+import net.ec_shop.model.CartTotal;
 import net.ec_shop.model.LoginUser;
 import net.ec_shop.request.CartItemRequest;
 import net.ec_shop.service.CartService;
 import net.ec_shop.service.ProductService;
+import net.ec_shop.util.LongHashSet;
 import net.ec_shop.vo.CartItemVO;
 import net.ec_shop.vo.CartVO;
 import net.ec_shop.vo.ProductVO;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.BoundHashOperations;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -33,47 +39,49 @@ public class CartServiceImpl implements CartService {
     private ProductService productService;
 
     @Autowired
-    private RedisTemplate redisTemplate;
+    private CartStore cartStore;
+
+    @Autowired
+    private ProductPriceVersion productPriceVersion;
+
+    /**
+     * 购物项里价格快照用4字节无符号整数存分
+     */
+    private static final long MAX_SNAPSHOT_CENTS = 0xFFFFFFFFL;
+
+    /**
+     * 购物车最多商品种类
+     */
+    @Value("${productconfig.cart_max_items:100}")
+    private int cartMaxItems;
+
+    /**
+     * 购物车单个商品最大数量
+     */
+    @Value("${productconfig.cart_max_quantity:999}")
+    private int cartMaxQuantity;
 
     @Override
     public void addToCart(CartItemRequest cartItemRequest) {
 
         long productId = cartItemRequest.getProductId();
         int buyNum = cartItemRequest.getBuyNum();
-
-        //获取购物车
-        BoundHashOperations<String, Object, Object> myCart = getMyCartOps();
-
-        Object cacheObj = myCart.get(productId);
-        String result = "";
-
-        if (cacheObj != null) {
-            result = (String) cacheObj;
+        if (buyNum <= 0) {
+            throw new BizException(BizCodeEnum.CART_FAIL);
         }
 
-        if (StringUtils.isBlank(result)) {
-            //不存在则新建一个商品
-            CartItemVO cartItemVO = new CartItemVO();
-
-            ProductVO productVO = productService.findDetailById(productId);
-            if (productVO == null) {
-                throw new BizException(BizCodeEnum.CART_FAIL);
-            }
-
-            cartItemVO.setAmount(productVO.getAmount());
-            cartItemVO.setBuyNum(buyNum);
-            cartItemVO.setProductId(productId);
-            cartItemVO.setProductImg(productVO.getCoverImg());
-            cartItemVO.setProductTitle(productVO.getTitle());
-            myCart.put(productId, JSON.toJSONString(cartItemVO));
-
-        } else {
-            //存在商品，修改数量
-            CartItemVO cartItem = JSON.parseObject(result, CartItemVO.class);
-            cartItem.setBuyNum(cartItem.getBuyNum() + buyNum);
-            myCart.put(productId, JSON.toJSONString(cartItem));
+        //校验商品存在，走布隆过滤器和本地缓存；展示信息查看时再从商品缓存取
+        ProductVO productVO = productService.findDetailById(productId);
+        if (productVO == null) {
+            throw new BizException(BizCodeEnum.CART_FAIL);
         }
 
+        //存在则累加数量，不存在则新增，脚本内原子完成；同时记下这次看到的价格和价格版本
+        CartEntry snapshot = priceSnapshot(productVO);
+        long result = cartStore.add(getCartKey(), productId, buyNum, cartMaxItems, cartMaxQuantity,
+                snapshot.getPriceVersion(), snapshot.getAmountCents());
+        checkCartResult(result);
+
     }
 
     /**
@@ -81,8 +89,7 @@ public class CartServiceImpl implements CartService {
      */
     @Override
     public void clear() {
-        String cartKey = getCartKey();
-        redisTemplate.delete(cartKey);
+        cartStore.clear(getCartKey());
     }
 
     /**
@@ -92,11 +99,15 @@ public class CartServiceImpl implements CartService {
     public CartVO getMyCart() {
 
         //获取全部购物项
-        List<CartItemVO> cartItemVOList = buildCartItem(false);
+        String cartKey = getCartKey();
+        CartContent cartContent = cartStore.load(cartKey);
+        CartTotal total = cartContent.getTotal();
+        List<CartItemVO> cartItemVOList = buildCartItem(cartContent.getEntries(), cartKey, total);
 
-        //封装成cartvo
+        //封装成cartvo，合计直接用购物车存储里增量维护的
         CartVO cartVO = new CartVO();
         cartVO.setCartItems(cartItemVOList);
+        cartVO.setTotal((int) total.getTotalNum(), total.getTotalCents());
 
         return cartVO;
     }
@@ -108,8 +119,7 @@ public class CartServiceImpl implements CartService {
      */
     @Override
     public void deleteItem(long productId) {
-        BoundHashOperations<String, Object, Object> mycart = getMyCartOps();
-        mycart.delete(productId);
+        cartStore.delete(getCartKey(), Collections.singletonList(productId));
     }
 
     /**
@@ -119,19 +129,12 @@ public class CartServiceImpl implements CartService {
      */
     @Override
     public void changeItemNum(CartItemRequest cartItemRequest) {
-        BoundHashOperations<String, Object, Object> mycart = getMyCartOps();
-
-        Object cacheObj = mycart.get(cartItemRequest.getProductId());
-
-        if (cacheObj == null) {
+        if (cartItemRequest.getBuyNum() <= 0) {
             throw new BizException(BizCodeEnum.CART_FAIL);
         }
 
-        String obj = (String) cacheObj;
-
-        CartItemVO cartItemVO = JSON.parseObject(obj, CartItemVO.class);
-        cartItemVO.setBuyNum(cartItemRequest.getBuyNum());
-        mycart.put(cartItemRequest.getProductId(), JSON.toJSONString(cartItemVO));
+        long result = cartStore.change(getCartKey(), cartItemRequest.getProductId(), cartItemRequest.getBuyNum(), cartMaxQuantity);
+        checkCartResult(result);
     }
 
     /**
@@ -143,89 +146,139 @@ public class CartServiceImpl implements CartService {
      */
     @Override
     public List<CartItemVO> confirmOrderCartItems(List<Long> productIdList) {
-        //获取购物车的全部购物项
-        List<CartItemVO> cartItemVOList = buildCartItem(true);
-        //根据需要的商品id进行过滤，并清空对应的购物项
-        List<CartItemVO> resultList = cartItemVOList.stream().filter(obj -> {
-            if (productIdList.contains(obj.getProductId())) {
-                this.deleteItem(obj.getProductId());
-                return true;
-            }
-            return false;
-        }).collect(Collectors.toList());
-        return resultList;
+        //一次脚本取出并删除需要的购物项，避免重复下单
+        List<CartEntry> cartEntryList = cartStore.take(getCartKey(), LongHashSet.of(productIdList));
+        return buildCartItem(cartEntryList, null, null);
+    }
+
+    /**
+     * 下单失败，放回购物项
+     *
+     * @param cartItemRequestList
+     */
+    @Override
+    public void restoreCartItems(List<CartItemRequest> cartItemRequestList) {
+        List<CartEntry> cartEntryList = cartItemRequestList.stream()
+                .filter(obj -> obj.getBuyNum() > 0)
+                .map(obj -> new CartEntry(obj.getProductId(), obj.getBuyNum(), obj.getAddTime()))
+                .collect(Collectors.toList());
+        cartStore.restore(getCartKey(), cartEntryList);
+        log.info("放回购物项:{}", cartItemRequestList);
     }
 
 
     /**
-     * 获取最新的购物项，
+     * 获取最新的购物项
+     * 标题、图片从商品缓存批量取；价格先一次MGET取价格版本，版本没变用购物项里的快照，变了的才直接查库
+     * 购物车页面和下单确认走同一套逻辑，两边价格一致；改价后最多一个商品变更扫描间隔版本才变
      *
-     * @param latestPrice 是否获取最新价格
+     * @param cartEntryList
+     * @param refreshCartKey 不为空时把查到的新价格快照写回这个购物车
+     * @param total          不为空时按写回后的合计更新，并扣掉已下架的商品
      * @return
      */
-    private List<CartItemVO> buildCartItem(boolean latestPrice) {
+    private List<CartItemVO> buildCartItem(List<CartEntry> cartEntryList, String refreshCartKey, CartTotal total) {
 
-        BoundHashOperations<String, Object, Object> myCart = getMyCartOps();
+        if (cartEntryList.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        List<Object> itemList = myCart.values();
+        //拼接id列表批量查询商品
+        List<Long> productIdList = cartEntryList.stream().map(CartEntry::getProductId).collect(Collectors.toList());
+        List<ProductVO> productVOList = productService.findProductsByIdBatch(productIdList);
+        Map<Long, ProductVO> maps = productVOList.stream().collect(Collectors.toMap(ProductVO::getId, Function.identity()));
 
-        List<CartItemVO> cartItemVOList = new ArrayList<>();
+        long[] versions = productPriceVersion.current(productIdList);
+        List<Long> changedIdList = new ArrayList<>();
+        for (int i = 0; i < versions.length; i++) {
+            if (cartEntryList.get(i).getPriceVersion() != versions[i]) {
+                changedIdList.add(productIdList.get(i));
+            }
+        }
+        Map<Long, ProductVO> latestMap = productService.findLatestByIdBatch(changedIdList).stream()
+                .collect(Collectors.toMap(ProductVO::getId, Function.identity()));
+
+        List<CartItemVO> cartItemVOList = new ArrayList<>(cartEntryList.size());
+        List<CartEntry> refreshList = new ArrayList<>(latestMap.size());
+        List<CartEntry> missingList = new ArrayList<>();
+        for (int i = 0; i < cartEntryList.size(); i++) {
+            CartEntry cartEntry = cartEntryList.get(i);
+            ProductVO productVO = maps.get(cartEntry.getProductId());
+            if (productVO == null) {
+                //商品已下架
+                missingList.add(cartEntry);
+                continue;
+            }
 
-        //拼接id列表查询最新价格
-        List<Long> productIdList = new ArrayList<>();
+            BigDecimal amount;
+            if (cartEntry.getPriceVersion() == versions[i]) {
+                amount = BigDecimal.valueOf(cartEntry.getAmountCents(), 2);
+            } else {
+                ProductVO latestVO = latestMap.get(cartEntry.getProductId());
+                if (latestVO == null) {
+                    missingList.add(cartEntry);
+                    continue;
+                }
+                amount = latestVO.getAmount();
+                refreshList.add(priceSnapshot(latestVO));
+            }
 
-        for (Object item : itemList) {
-            CartItemVO cartItemVO = JSON.parseObject((String) item, CartItemVO.class);
+            CartItemVO cartItemVO = new CartItemVO();
+            cartItemVO.setProductId(cartEntry.getProductId());
+            cartItemVO.setBuyNum(cartEntry.getBuyNum());
+            cartItemVO.setProductTitle(productVO.getTitle());
+            cartItemVO.setProductImg(productVO.getCoverImg());
+            cartItemVO.setAmount(amount);
+            cartItemVO.setAddTime(cartEntry.getAddTime());
             cartItemVOList.add(cartItemVO);
-
-            productIdList.add(cartItemVO.getProductId());
         }
 
-        //查询最新的商品价格
-        if (latestPrice) {
-            setProductLatestPrice(cartItemVOList, productIdList);
+        if (refreshCartKey != null) {
+            CartTotal refreshedTotal = cartStore.refreshPrice(refreshCartKey, refreshList);
+            if (total != null && refreshedTotal != null) {
+                total.setTotalNum(refreshedTotal.getTotalNum());
+                total.setTotalCents(refreshedTotal.getTotalCents());
+            }
+        }
+        if (total != null) {
+            for (CartEntry cartEntry : missingList) {
+                total.setTotalNum(total.getTotalNum() - cartEntry.getBuyNum());
+                total.setTotalCents(total.getTotalCents() - cartEntry.getBuyNum() * cartEntry.getAmountCents());
+            }
         }
-
         return cartItemVOList;
 
     }
 
     /**
-     * 设置商品最新价格
+     * 商品当前价格的快照，价格超出编码范围或者没有版本的不做快照
      *
-     * @param cartItemVOList
-     * @param productIdList
+     * @param productVO
+     * @return 只填充商品id、价格版本、价格分
      */
-    private void setProductLatestPrice(List<CartItemVO> cartItemVOList, List<Long> productIdList) {
-
-        //批量查询
-        List<ProductVO> productVOList = productService.findProductsByIdBatch(productIdList);
-
-        //分组
-        Map<Long, ProductVO> maps = productVOList.stream().collect(Collectors.toMap(ProductVO::getId, Function.identity()));
-
-
-        cartItemVOList.stream().forEach(item -> {
-
-            ProductVO productVO = maps.get(item.getProductId());
-            item.setProductTitle(productVO.getTitle());
-            item.setProductImg(productVO.getCoverImg());
-            item.setAmount(productVO.getAmount());
-
-        });
-
-
+    private CartEntry priceSnapshot(ProductVO productVO) {
+        long cents = productVO.getAmount().movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+        Long priceVersion = productVO.getPriceVersion();
+        if (priceVersion == null || cents < 0 || cents > MAX_SNAPSHOT_CENTS) {
+            return new CartEntry(productVO.getId(), 0, 0, ProductPriceVersion.UNKNOWN, 0);
+        }
+        return new CartEntry(productVO.getId(), 0, 0, priceVersion, cents);
     }
 
 
     /**
-     * 抽取我的购物车，通用方法
+     * 购物车脚本返回码转换
      *
-     * @return
+     * @param result
      */
-    private BoundHashOperations<String, Object, Object> getMyCartOps() {
-        String cartKey = getCartKey();
-        return redisTemplate.boundHashOps(cartKey);
+    private void checkCartResult(long result) {
+        if (result == CartStore.RESULT_ITEM_LIMIT) {
+            throw new BizException(BizCodeEnum.CART_ITEM_LIMIT);
+        } else if (result == CartStore.RESULT_NUM_LIMIT) {
+            throw new BizException(BizCodeEnum.CART_NUM_LIMIT);
+        } else if (result < 0) {
+            throw new BizException(BizCodeEnum.CART_FAIL);
+        }
     }
 
 
@@ -1,20 +1,61 @@
 package net.ec_shop.service.impl;
 
+import com.alibaba.fastjson.TypeReference;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.metadata.IPage;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.InventoryReservation;
+import net.ec_shop.component.ProductBloomFilter;
+import net.ec_shop.component.ProductCache;
+import net.ec_shop.component.ProductStockView;
+import net.ec_shop.component.ProductCoPurchase;
+import net.ec_shop.component.ProductPriceVersion;
+import net.ec_shop.component.ProductSalesRanking;
+import net.ec_shop.component.ProductSearchIndex;
+import net.ec_shop.component.ProductSuggest;
+import net.ec_shop.component.StockWriteCombiner;
+import net.ec_shop.config.RabbitMQConfig;
+import net.ec_shop.enums.BizCodeEnum;
+import net.ec_shop.enums.ProductOrderStateEnum;
+import net.ec_shop.enums.StockTaskStateEnum;
+import net.ec_shop.exception.BizException;
+import net.ec_shop.feign.ProductOrderFeignService;
 import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.mapper.ProductTaskMapper;
 import net.ec_shop.model.ProductDO;
+import net.ec_shop.model.ProductMessage;
+import net.ec_shop.model.ProductTaskDO;
+import net.ec_shop.request.LockProductRequest;
+import net.ec_shop.request.OrderItemRequest;
 import net.ec_shop.service.ProductService;
+import net.ec_shop.util.JsonData;
+import net.ec_shop.vo.ProductCardVO;
 import net.ec_shop.vo.ProductVO;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 
@@ -25,6 +66,72 @@ public class ProductServiceImpl implements ProductService {
     @Autowired
     private ProductMapper productMapper;
 
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private ProductStockView productStockView;
+
+    @Autowired
+    private ProductBloomFilter productBloomFilter;
+
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
+    @Autowired
+    private ProductSuggest productSuggest;
+
+    @Autowired
+    private ProductPriceVersion productPriceVersion;
+
+    @Autowired
+    private ProductSalesRanking productSalesRanking;
+
+    @Autowired
+    private ProductCoPurchase productCoPurchase;
+
+    @Autowired
+    private ProductTaskMapper productTaskMapper;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private RabbitMQConfig rabbitMQConfig;
+
+    @Autowired
+    private InventoryReservation inventoryReservation;
+
+    @Autowired
+    private ProductOrderFeignService orderFeignService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private StockWriteCombiner stockWriteCombiner;
+
+    /**
+     * 写合并锁定库存等待结果的超时时间，毫秒
+     */
+    @Value("${productconfig.stock_combine_timeout:3000}")
+    private long combineTimeout;
+
+    /**
+     * 商品总数缓存时间，秒
+     */
+    @Value("${productconfig.count_cache_ttl:60}")
+    private long countCacheTtl;
+
+    private volatile long approxTotal = -1;
+
+    private volatile long approxTotalExpireAt;
+
+    @PostConstruct
+    public void init() {
+        stockWriteCombiner.start(this::lockStockCombined);
+    }
+
     /**
      * 商品分页
      *
@@ -35,19 +142,109 @@ public class ProductServiceImpl implements ProductService {
     @Override
     public Map<String, Object> page(int page, int size) {
 
-        Page<ProductDO> pageInfo = new Page<>(page, size);
+        List<ProductDO> productDOList = productMapper.listCardPage((long) (Math.max(page, 1) - 1) * size, size);
 
-        IPage<ProductDO> productDOIPage = productMapper.selectPage(pageInfo, null);
+        //总数不每次count，用缓存的近似值
+        long total = getApproxTotal();
 
         Map<String, Object> pageMap = new HashMap<>(3);
 
-        pageMap.put("total_record", productDOIPage.getTotal());
-        pageMap.put("total_page", productDOIPage.getPages());
-        pageMap.put("current_data", productDOIPage.getRecords().stream().map(obj -> beanProcess(obj)).collect(Collectors.toList()));
+        pageMap.put("total_record", total);
+        pageMap.put("total_page", (total + size - 1) / size);
+        pageMap.put("current_data", productDOList.stream().map(obj -> cardProcess(obj)).collect(Collectors.toList()));
 
         return pageMap;
     }
 
+    /**
+     * 游标分页，用于无限滚动
+     *
+     * @param cursor 上一页返回的next_cursor，第一页传0
+     * @param size
+     * @return
+     */
+    @Override
+    public Map<String, Object> listByCursor(long cursor, int size) {
+
+        List<ProductDO> productDOList = productMapper.listCardAfter(cursor, size);
+
+        Map<String, Object> pageMap = new HashMap<>(3);
+
+        pageMap.put("total_record", getApproxTotal());
+        //不满一页说明没有下一页
+        pageMap.put("next_cursor", productDOList.size() < size ? null : productDOList.get(productDOList.size() - 1).getId());
+        pageMap.put("current_data", productDOList.stream().map(obj -> cardProcess(obj)).collect(Collectors.toList()));
+
+        return pageMap;
+    }
+
+    /**
+     * 按标题检索商品，索引里取出排好序的id，再走商品缓存取卡片信息
+     *
+     * @param keyword
+     * @param size
+     * @return
+     */
+    @Override
+    public List<ProductCardVO> search(String keyword, int size) {
+
+        long[] productIds = productSearchIndex.search(keyword, size);
+        if (productIds.length == 0) {
+            return Collections.emptyList();
+        }
+
+        return findCardsByIds(productIds);
+    }
+
+    /**
+     * 搜索框前缀联想，只查内存词典
+     *
+     * @param prefix
+     * @param size
+     * @return
+     */
+    @Override
+    public List<String> suggest(String prefix, int size) {
+
+        return productSuggest.suggest(prefix, size);
+    }
+
+    /**
+     * 销量排行，商品id来自本地快照，商品信息走商品缓存
+     *
+     * @param ranking
+     * @param size
+     * @return
+     */
+    @Override
+    public List<ProductCardVO> topSellers(String ranking, int size) {
+
+        long[] productIds = productSalesRanking.top(ranking, size);
+        if (productIds.length == 0) {
+            return Collections.emptyList();
+        }
+
+        return findCardsByIds(productIds);
+    }
+
+    /**
+     * 买了还买，商品id来自内存里的共同购买计数，商品信息走商品缓存
+     *
+     * @param productId
+     * @param size
+     * @return
+     */
+    @Override
+    public List<ProductCardVO> findBoughtTogether(long productId, int size) {
+
+        long[] productIds = productCoPurchase.top(productId, size);
+        if (productIds.length == 0) {
+            return Collections.emptyList();
+        }
+
+        return findCardsByIds(productIds);
+    }
+
     /**
      * 根据id找商品详情
      *
@@ -57,9 +254,24 @@ public class ProductServiceImpl implements ProductService {
     @Override
     public ProductVO findDetailById(long productId) {
 
-        ProductDO productDO = productMapper.selectById(productId);
+        //布隆过滤器判断不存在的直接返回，不查缓存和数据库
+        if (!productBloomFilter.mightContain(productId)) {
+            return null;
+        }
+
+        ProductVO productVO = productCache.get(productId, id -> {
+            long priceVersion = productPriceVersion.current(Collections.singletonList(id))[0];
+            ProductDO productDO = productMapper.selectById(id);
+            if (productDO == null) {
+                return null;
+            }
+            ProductVO loaded = beanProcess(productDO);
+            loaded.setPriceVersion(priceVersion);
+            return loaded;
+        });
 
-        return beanProcess(productDO);
+        //缓存里的库存不随下单更新，换成短时库存视图
+        return productVO == null ? null : productStockView.apply(Collections.singletonList(productVO)).get(0);
     }
 
     /**
@@ -71,13 +283,456 @@ public class ProductServiceImpl implements ProductService {
     @Override
     public List<ProductVO> findProductsByIdBatch(List<Long> productIdList) {
 
+        return productStockView.apply(productCache.getAll(productIdList, ids -> loadWithPriceVersion(new ArrayList<>(ids))));
+    }
+
+    /**
+     * 直接查库，不走缓存，用于价格版本已变的商品
+     *
+     * @param productIdList
+     * @return
+     */
+    @Override
+    public List<ProductVO> findLatestByIdBatch(List<Long> productIdList) {
+
+        if (productIdList.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return loadWithPriceVersion(productIdList);
+    }
+
+
+    /**
+     * 锁定商品库存
+     * redis库存模式下只在redis预占，由定时任务批量同步到数据库；否则锁定数据库库存，开启写合并时和同一窗口内的订单一起锁定
+     *
+     * @param lockProductRequest
+     * @return
+     */
+    @Override
+    public JsonData lockProductStock(LockProductRequest lockProductRequest) {
+
+        String outTradeNo = lockProductRequest.getOrderOutTradeNo();
+        Map<Long, Integer> itemMap = mergeOrderItems(Collections.singletonList(lockProductRequest));
+
+        if (inventoryReservation.isEnabled()) {
+            if (!inventoryReservation.reserve(outTradeNo, itemMap)) {
+                log.info("商品库存预占失败，outTradeNo={}", outTradeNo);
+                throw new BizException(BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL);
+            }
+            return JsonData.buildSuccess();
+        }
+
+        if (stockWriteCombiner.isEnabled()) {
+            if (!awaitCombinedLock(lockProductRequest)) {
+                log.info("商品库存不足锁定失败，outTradeNo={}", outTradeNo);
+                throw new BizException(BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL);
+            }
+            return JsonData.buildSuccess();
+        }
+
+        Map<Long, String> titleMap = findTitleMap(itemMap.keySet());
+        transactionTemplate.execute(status -> {
+            lockStockInDb(Collections.singletonList(lockProductRequest), itemMap, titleMap);
+            return null;
+        });
+        return JsonData.buildSuccess();
+    }
+
+    /**
+     * 提交到写合并并等待结果
+     * 超时时还没合并的撤回请求，返回失败；已经合并进事务的不能撤回，再等一个超时时间看这组提交结果
+     * 仍然没有结果的返回失败，万一之后锁上了，由延迟释放消息查到订单不存在后释放
+     */
+    private boolean awaitCombinedLock(LockProductRequest lockProductRequest) {
+        CompletableFuture<Boolean> future = stockWriteCombiner.submit(lockProductRequest);
+        try {
+            try {
+                return future.get(combineTimeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (future.cancel(false)) {
+                    log.warn("库存合并锁定超时，已撤回，outTradeNo={}", lockProductRequest.getOrderOutTradeNo());
+                    throw new BizException(BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL);
+                }
+                log.warn("库存合并锁定超时，已在事务中，等待结果，outTradeNo={}", lockProductRequest.getOrderOutTradeNo());
+                return future.get(combineTimeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            log.error("库存合并锁定事务超时未返回，outTradeNo={}", lockProductRequest.getOrderOutTradeNo());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("库存合并锁定失败，outTradeNo={}", lockProductRequest.getOrderOutTradeNo(), e.getCause());
+        }
+        throw new BizException(BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL);
+    }
+
+    /**
+     * 写合并的处理函数，一组订单一个事务；整组失败时逐单锁定，定位出有问题的订单
+     *
+     * @param lockProductRequestList
+     * @return 和入参一一对应的是否锁定成功
+     */
+    private boolean[] lockStockCombined(List<LockProductRequest> lockProductRequestList) {
+        Map<Long, String> titleMap = findTitleMap(mergeOrderItems(lockProductRequestList).keySet());
+        try {
+            return transactionTemplate.execute(status -> lockStockGroup(lockProductRequestList, titleMap));
+        } catch (Exception e) {
+            log.warn("库存合并锁定失败，改为逐单锁定，订单数={}", lockProductRequestList.size(), e);
+        }
+
+        boolean[] result = new boolean[lockProductRequestList.size()];
+        for (int i = 0; i < result.length; i++) {
+            List<LockProductRequest> single = Collections.singletonList(lockProductRequestList.get(i));
+            try {
+                transactionTemplate.execute(status -> {
+                    lockStockInDb(single, mergeOrderItems(single), titleMap);
+                    return null;
+                });
+                result[i] = true;
+            } catch (BizException e) {
+                result[i] = false;
+            } catch (Exception e) {
+                log.error("库存锁定失败，outTradeNo={}", single.get(0).getOrderOutTradeNo(), e);
+                result[i] = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 一组订单合并锁定
+     * 1）按id升序锁住涉及的商品行，取出可用库存
+     * 2）按到达顺序逐个订单判断，库存够的扣减内存里的可用库存，不够的整单失败，不影响后面的订单
+     * 3）锁定成功的订单按商品合并，每个商品一条update
+     *
+     * @param lockProductRequestList
+     * @param titleMap               事务外查好的商品名
+     * @return 和入参一一对应的是否锁定成功
+     */
+    private boolean[] lockStockGroup(List<LockProductRequest> lockProductRequestList, Map<Long, String> titleMap) {
+        List<Map<Long, Integer>> itemMapList = new ArrayList<>(lockProductRequestList.size());
+        Set<Long> productIdSet = new TreeSet<>();
+        for (LockProductRequest lockProductRequest : lockProductRequestList) {
+            Map<Long, Integer> itemMap = mergeOrderItems(Collections.singletonList(lockProductRequest));
+            itemMapList.add(itemMap);
+            productIdSet.addAll(itemMap.keySet());
+        }
+
+        Map<Long, Integer> availableMap = new HashMap<>(productIdSet.size() * 4 / 3 + 1);
+        for (ProductDO productDO : productMapper.selectStockForUpdate(productIdSet)) {
+            availableMap.put(productDO.getId(), productDO.getStock() - productDO.getLockStock());
+        }
+
+        boolean[] result = new boolean[lockProductRequestList.size()];
+        List<LockProductRequest> lockedList = new ArrayList<>(lockProductRequestList.size());
+        for (int i = 0; i < result.length; i++) {
+            Map<Long, Integer> itemMap = itemMapList.get(i);
+            boolean enough = itemMap.entrySet().stream()
+                    .allMatch(entry -> availableMap.getOrDefault(entry.getKey(), 0) >= entry.getValue());
+            if (enough) {
+                itemMap.forEach((productId, buyNum) -> availableMap.merge(productId, -buyNum, Integer::sum));
+                lockedList.add(lockProductRequestList.get(i));
+                result[i] = true;
+            }
+        }
+
+        if (!lockedList.isEmpty()) {
+            lockStockInDb(lockedList, mergeOrderItems(lockedList), titleMap);
+        }
+        return result;
+    }
+
+    /**
+     * 批量同步redis预占到数据库，多个订单合并成一条update
+     * 已有库存锁定任务的订单说明之前同步过，跳过，避免重复锁定
+     *
+     * @param lockProductRequestList
+     */
+    @Override
+    public void syncReservedStock(List<LockProductRequest> lockProductRequestList) {
+
+        Map<Long, String> titleMap = findTitleMap(mergeOrderItems(lockProductRequestList).keySet());
+        List<String> outTradeNoList = lockProductRequestList.stream().map(LockProductRequest::getOrderOutTradeNo).collect(Collectors.toList());
+        transactionTemplate.execute(status -> {
+            Set<String> syncedSet = productTaskMapper.selectList(new QueryWrapper<ProductTaskDO>()
+                    .select("out_trade_no").in("out_trade_no", outTradeNoList))
+                    .stream().map(ProductTaskDO::getOutTradeNo).collect(Collectors.toSet());
+
+            List<LockProductRequest> requestList = lockProductRequestList.stream()
+                    .filter(obj -> !syncedSet.contains(obj.getOrderOutTradeNo())).collect(Collectors.toList());
+            if (!requestList.isEmpty()) {
+                lockStockInDb(requestList, mergeOrderItems(requestList), titleMap);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 库存锁定任务记录的商品名，在事务外从商品缓存取，不在持有行锁时查缓存
+     *
+     * @param productIds
+     * @return 商品id-商品名
+     */
+    private Map<Long, String> findTitleMap(Collection<Long> productIds) {
+        Map<Long, String> titleMap = new HashMap<>(productIds.size() * 4 / 3 + 1);
+        for (ProductVO productVO : productCache.getAll(productIds, ids -> loadWithPriceVersion(new ArrayList<>(ids)))) {
+            titleMap.put(productVO.getId(), productVO.getTitle());
+        }
+        return titleMap;
+    }
+
+    /**
+     * 数据库锁定库存
+     * 1）同一商品合并数量，按商品id升序，所有订单按相同顺序加行锁，避免死锁
+     * 2）一条update锁定全部商品，更新行数不等于商品数说明有商品库存不足，整体回滚
+     * 3）批量插入库存锁定任务
+     * 4）事务提交后清理本节点库存视图，每个订单发一条延迟释放消息
+     *
+     * @param lockProductRequestList
+     * @param itemMap                合并后的 商品id-数量，按id升序
+     * @param titleMap               事务外查好的 商品id-商品名
+     */
+    private void lockStockInDb(List<LockProductRequest> lockProductRequestList, Map<Long, Integer> itemMap, Map<Long, String> titleMap) {
+
+        List<OrderItemRequest> itemList = itemMap.entrySet().stream().map(entry -> {
+            OrderItemRequest item = new OrderItemRequest();
+            item.setProductId(entry.getKey());
+            item.setBuyNum(entry.getValue());
+            return item;
+        }).collect(Collectors.toList());
+
+        int updateRows = productMapper.lockStockBatch(itemList);
+        if (updateRows != itemList.size()) {
+            log.info("商品库存不足锁定失败，订单数={}，updateRows={}", lockProductRequestList.size(), updateRows);
+            throw new BizException(BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL);
+        }
+
+        List<Long> productIdList = new ArrayList<>(itemMap.keySet());
+
+        Date now = new Date();
+        List<ProductTaskDO> productTaskDOList = new ArrayList<>();
+        List<String> outTradeNoList = new ArrayList<>(lockProductRequestList.size());
+        for (LockProductRequest lockProductRequest : lockProductRequestList) {
+            String outTradeNo = lockProductRequest.getOrderOutTradeNo();
+            outTradeNoList.add(outTradeNo);
+            mergeOrderItems(Collections.singletonList(lockProductRequest)).forEach((productId, buyNum) -> {
+                ProductTaskDO productTaskDO = new ProductTaskDO();
+                productTaskDO.setProductId(productId);
+                productTaskDO.setBuyNum(buyNum);
+                productTaskDO.setProductName(titleMap.get(productId));
+                productTaskDO.setLockState(StockTaskStateEnum.LOCK.name());
+                productTaskDO.setOutTradeNo(outTradeNo);
+                productTaskDO.setCreateTime(now);
+                productTaskDOList.add(productTaskDO);
+            });
+        }
+
+        int insertRows = productTaskMapper.insertBatch(productTaskDOList);
+        if (insertRows != productTaskDOList.size()) {
+            throw new BizException(BizCodeEnum.ORDER_CONFIRM_ADD_STOCK_TASK_FAIL);
+        }
+        log.info("商品库存锁定成功，订单数={}，商品数={}", outTradeNoList.size(), updateRows);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                productStockView.invalidate(productIdList);
+
+                for (String outTradeNo : outTradeNoList) {
+                    ProductMessage productMessage = new ProductMessage();
+                    productMessage.setOutTradeNo(outTradeNo);
+                    rabbitTemplate.convertAndSend(rabbitMQConfig.getEventExchange(), rabbitMQConfig.getStockReleaseDelayRoutingKey(), productMessage);
+                    log.info("商品库存锁定延迟消息发送成功:{}", productMessage);
+                }
+            }
+        });
+    }
+
+    /**
+     * 批量释放订单的库存锁定
+     * 1）查出仍是LOCK状态的订单，一次rpc批量查询订单状态
+     * 2）NEW状态的订单重新投递；已支付的任务置为FINISH；订单取消或不存在的任务置为CANCEL
+     * 3）取消的任务按商品汇总，每个商品只扣减一次lock_stock
+     *
+     * @param outTradeNoList
+     * @return
+     */
+    @Override
+    public Set<String> releaseProductStockBatch(Collection<String> outTradeNoList) {
+
+        Set<String> lockedSet = productTaskMapper.selectList(new QueryWrapper<ProductTaskDO>()
+                .select("out_trade_no").eq("lock_state", StockTaskStateEnum.LOCK.name()).in("out_trade_no", outTradeNoList))
+                .stream().map(ProductTaskDO::getOutTradeNo).collect(Collectors.toSet());
+        if (lockedSet.isEmpty()) {
+            log.info("库存锁定任务不存在或已处理，订单数={}", outTradeNoList.size());
+            return Collections.emptySet();
+        }
+
+        JsonData jsonData = orderFeignService.queryProductOrderStateBatch(new ArrayList<>(lockedSet));
+        if (jsonData.getCode() != 0) {
+            log.warn("批量查询订单状态失败，重新投递，订单数={}，结果={}", lockedSet.size(), jsonData);
+            return lockedSet;
+        }
+        Map<String, String> stateMap = jsonData.getData(new TypeReference<Map<String, String>>() {
+        });
+
+        Set<String> requeueSet = new HashSet<>();
+        List<String> handleList = new ArrayList<>(lockedSet.size());
+        for (String outTradeNo : lockedSet) {
+            if (ProductOrderStateEnum.NEW.name().equalsIgnoreCase(stateMap.get(outTradeNo))) {
+                requeueSet.add(outTradeNo);
+            } else {
+                handleList.add(outTradeNo);
+            }
+        }
+        if (handleList.isEmpty()) {
+            return requeueSet;
+        }
+
+        transactionTemplate.execute(status -> {
+            //锁住任务行，并发消费同一订单时只有一个能改状态
+            List<ProductTaskDO> taskList = productTaskMapper.selectList(new QueryWrapper<ProductTaskDO>()
+                    .select("id", "product_id", "buy_num", "out_trade_no")
+                    .eq("lock_state", StockTaskStateEnum.LOCK.name()).in("out_trade_no", handleList)
+                    .last("for update"));
+
+            List<Long> finishIds = new ArrayList<>();
+            List<Long> cancelIds = new ArrayList<>();
+            Map<Long, Integer> releaseMap = new TreeMap<>();
+            Map<Long, Integer> salesMap = new HashMap<>();
+            Map<String, List<Long>> basketMap = new HashMap<>();
+            for (ProductTaskDO taskDO : taskList) {
+                if (ProductOrderStateEnum.PAY.name().equalsIgnoreCase(stateMap.get(taskDO.getOutTradeNo()))) {
+                    finishIds.add(taskDO.getId());
+                    salesMap.merge(taskDO.getProductId(), taskDO.getBuyNum(), Integer::sum);
+                    basketMap.computeIfAbsent(taskDO.getOutTradeNo(), key -> new ArrayList<>()).add(taskDO.getProductId());
+                } else {
+                    cancelIds.add(taskDO.getId());
+                    releaseMap.merge(taskDO.getProductId(), taskDO.getBuyNum(), Integer::sum);
+                }
+            }
+
+            if (!finishIds.isEmpty()) {
+                productTaskMapper.updateStateBatch(finishIds, StockTaskStateEnum.FINISH.name(), StockTaskStateEnum.LOCK.name());
+                //LOCK改成FINISH只会成功一次，在这里记销量不会重复计算
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        productSalesRanking.record(salesMap);
+                        productCoPurchase.publish(basketMap.values().stream()
+                                .map(basket -> basket.stream().mapToLong(Long::longValue).toArray()).collect(Collectors.toList()));
+                    }
+                });
+            }
+            if (!cancelIds.isEmpty()) {
+                productTaskMapper.updateStateBatch(cancelIds, StockTaskStateEnum.CANCEL.name(), StockTaskStateEnum.LOCK.name());
+                List<OrderItemRequest> itemList = releaseMap.entrySet().stream().map(entry -> {
+                    OrderItemRequest item = new OrderItemRequest();
+                    item.setProductId(entry.getKey());
+                    item.setBuyNum(entry.getValue());
+                    return item;
+                }).collect(Collectors.toList());
+                int rows = productMapper.unlockStockBatch(itemList);
+                if (rows != itemList.size()) {
+                    log.error("释放锁定库存行数不一致，需要人工核对，商品={}，updateRows={}", releaseMap, rows);
+                }
+
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        productStockView.invalidate(releaseMap.keySet());
+                        inventoryReservation.giveBack(releaseMap);
+                    }
+                });
+            }
+            log.info("库存锁定批量释放完成，FINISH任务数={}，CANCEL任务数={}，释放商品数={}", finishIds.size(), cancelIds.size(), releaseMap.size());
+            return null;
+        });
+
+        return requeueSet;
+    }
+
+    /**
+     * 合并订单项，同一商品数量相加，按商品id升序
+     *
+     * @param lockProductRequestList
+     * @return
+     */
+    private Map<Long, Integer> mergeOrderItems(List<LockProductRequest> lockProductRequestList) {
+        Map<Long, Integer> itemMap = new TreeMap<>();
+        for (LockProductRequest lockProductRequest : lockProductRequestList) {
+            for (OrderItemRequest item : lockProductRequest.getOrderItemList()) {
+                if (item.getBuyNum() <= 0) {
+                    throw new BizException(BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL);
+                }
+                itemMap.merge(item.getProductId(), item.getBuyNum(), Integer::sum);
+            }
+        }
+        if (itemMap.isEmpty()) {
+            throw new BizException(BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL);
+        }
+        return itemMap;
+    }
+
+
+    /**
+     * 商品总数，缓存一段时间，过期后由一个请求刷新
+     */
+    private long getApproxTotal() {
+        long now = System.currentTimeMillis();
+        if (approxTotal < 0 || now > approxTotalExpireAt) {
+            synchronized (this) {
+                if (approxTotal < 0 || now > approxTotalExpireAt) {
+                    approxTotal = productMapper.selectCount(null);
+                    approxTotalExpireAt = now + countCacheTtl * 1000;
+                }
+            }
+        }
+        return approxTotal;
+    }
+
+    /**
+     * 先取价格版本再查库，查到的价格不会比版本旧
+     */
+    private List<ProductVO> loadWithPriceVersion(List<Long> productIdList) {
+        long[] versions = productPriceVersion.current(productIdList);
+        Map<Long, Long> versionMap = new HashMap<>(productIdList.size() * 4 / 3 + 1);
+        for (int i = 0; i < versions.length; i++) {
+            versionMap.put(productIdList.get(i), versions[i]);
+        }
+
         List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>().in("id", productIdList));
+        return productDOList.stream().map(obj -> {
+            ProductVO productVO = beanProcess(obj);
+            productVO.setPriceVersion(versionMap.get(obj.getId()));
+            return productVO;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * 按id批量取商品卡片，顺序和入参一致，走商品缓存，已下架的跳过
+     */
+    private List<ProductCardVO> findCardsByIds(long[] productIds) {
+
+        List<ProductVO> productVOList = findProductsByIdBatch(Arrays.stream(productIds).boxed().collect(Collectors.toList()));
+        return productVOList.stream().map(obj -> cardProcess(obj)).collect(Collectors.toList());
+    }
 
-        List<ProductVO> productVOList = productDOList.stream().map(obj -> beanProcess(obj)).collect(Collectors.toList());
+    private ProductCardVO cardProcess(ProductVO productVO) {
 
-        return productVOList;
+        ProductCardVO productCardVO = new ProductCardVO();
+        BeanUtils.copyProperties(productVO, productCardVO);
+        return productCardVO;
     }
 
+    private ProductCardVO cardProcess(ProductDO productDO) {
+
+        ProductCardVO productCardVO = new ProductCardVO();
+        BeanUtils.copyProperties(productDO, productCardVO);
+        productCardVO.setStock(productDO.getStock() - productDO.getLockStock());
+        return productCardVO;
+    }
 
     private ProductVO beanProcess(ProductDO productDO) {
 
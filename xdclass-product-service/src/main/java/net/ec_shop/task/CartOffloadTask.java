@@ -0,0 +1,182 @@
+package net.ec_shop.task;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.CartStore;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.model.CartStat;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * 冷购物车移出redis，同时统计购物车占用的内存
+ * 购物车每次访问都把过期时间重置为cart_ttl，剩余过期时间不超过 cart_ttl - cart_offload_idle 说明空闲超过了阈值，归档到数据库
+ * SCAN遍历全部购物车key，统计结果写到redis，各节点的 /actuator/cartmemory 都能看到；多实例部署时通过分布式锁只有一个节点在跑
+ */
+@Slf4j
+@Component
+public class CartOffloadTask {
+
+    private static final String OFFLOAD_LOCK_KEY = "lock:cart:offload";
+
+    /**
+     * 按购物项数量分桶，每个值是桶的上限，超过最后一个的归到最后一个桶
+     */
+    private static final long[] ITEM_BUCKETS = {1, 5, 20, 50};
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Value("${productconfig.cart_ttl:2592000}")
+    private long cartTtl;
+
+    /**
+     * 购物车空闲多久移到数据库，秒，需要小于cart_ttl，否则还没归档就过期了
+     */
+    @Value("${productconfig.cart_offload_idle:604800}")
+    private long offloadIdle;
+
+    /**
+     * 每批处理的key数
+     */
+    @Value("${productconfig.cart_scan_batch:200}")
+    private int scanBatch;
+
+    @Scheduled(fixedDelayString = "${productconfig.cart_offload_interval:3600000}")
+    public void offloadIdleCarts() {
+        RLock rLock = redissonClient.getLock(OFFLOAD_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Map<String, Object> report = scanCarts();
+            report.put("cost_ms", System.currentTimeMillis() - begin);
+            redisTemplate.opsForValue().set(CacheKey.CART_MEMORY_REPORT_KEY, JSON.toJSONString(report));
+            log.info("购物车归档和内存统计完成:{}", report);
+        } catch (Exception e) {
+            log.error("购物车归档异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    private Map<String, Object> scanCarts() {
+        long maxTtl = cartTtl - offloadIdle;
+        long[] bucketCarts = new long[ITEM_BUCKETS.length + 1];
+        long[] bucketBytes = new long[ITEM_BUCKETS.length + 1];
+        long[] offloaded = new long[2];
+
+        String pattern = String.format(CacheKey.CART_KEY, "*");
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            List<String> batch = new ArrayList<>(scanBatch);
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+                while (cursor.hasNext()) {
+                    batch.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                    if (batch.size() >= scanBatch || !cursor.hasNext()) {
+                        processBatch(batch, maxTtl, bucketCarts, bucketBytes, offloaded);
+                        batch.clear();
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("扫描购物车失败", e);
+            }
+            return null;
+        });
+
+        long carts = 0;
+        long bytes = 0;
+        List<Map<String, Object>> bucketList = new ArrayList<>(bucketCarts.length);
+        for (int i = 0; i < bucketCarts.length; i++) {
+            carts += bucketCarts[i];
+            bytes += bucketBytes[i];
+            Map<String, Object> bucket = new LinkedHashMap<>(8);
+            bucket.put("items", bucketName(i));
+            bucket.put("carts", bucketCarts[i]);
+            bucket.put("bytes", bucketBytes[i]);
+            bucket.put("bytes_per_cart", bucketCarts[i] == 0 ? 0 : bucketBytes[i] / bucketCarts[i]);
+            bucketList.add(bucket);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>(16);
+        report.put("time", System.currentTimeMillis());
+        report.put("carts", carts);
+        report.put("bytes", bytes);
+        report.put("bytes_per_cart", carts == 0 ? 0 : bytes / carts);
+        report.put("offloaded_carts", offloaded[0]);
+        report.put("offloaded_bytes", offloaded[1]);
+        report.put("buckets", bucketList);
+        return report;
+    }
+
+    /**
+     * 统计一批购物车，空闲超过阈值的归档；归档成功的计入offloaded，不计入分桶
+     */
+    private void processBatch(List<String> batch, long maxTtl, long[] bucketCarts, long[] bucketBytes, long[] offloaded) {
+        List<CartStat> statList = cartStore.stat(batch);
+        Map<String, CartStat> idleMap = new LinkedHashMap<>();
+        for (CartStat stat : statList) {
+            if (stat.getTtl() >= 0 && stat.getTtl() <= maxTtl) {
+                idleMap.put(stat.getCartKey(), stat);
+            }
+        }
+
+        Set<String> offloadedSet = new HashSet<>();
+        if (!idleMap.isEmpty()) {
+            offloadedSet.addAll(cartStore.offload(new ArrayList<>(idleMap.keySet()), maxTtl));
+        }
+        for (String cartKey : offloadedSet) {
+            offloaded[0]++;
+            offloaded[1] += idleMap.get(cartKey).getMemoryBytes();
+        }
+
+        for (CartStat stat : statList) {
+            if (stat.getTtl() == -2 || offloadedSet.contains(stat.getCartKey())) {
+                continue;
+            }
+            int bucket = bucketIndex(stat.getItemCount());
+            bucketCarts[bucket]++;
+            bucketBytes[bucket] += stat.getMemoryBytes();
+        }
+    }
+
+    private int bucketIndex(long itemCount) {
+        for (int i = 0; i < ITEM_BUCKETS.length; i++) {
+            if (itemCount <= ITEM_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return ITEM_BUCKETS.length;
+    }
+
+    private String bucketName(int bucket) {
+        if (bucket == ITEM_BUCKETS.length) {
+            return (ITEM_BUCKETS[bucket - 1] + 1) + "+";
+        }
+        long from = bucket == 0 ? 0 : ITEM_BUCKETS[bucket - 1] + 1;
+        return from == ITEM_BUCKETS[bucket] ? String.valueOf(from) : from + "-" + ITEM_BUCKETS[bucket];
+    }
+}
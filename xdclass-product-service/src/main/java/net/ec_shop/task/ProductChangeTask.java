@@ -0,0 +1,139 @@
+package net.ec_shop.task;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.ProductCache;
+import net.ec_shop.component.ProductPriceVersion;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.model.ProductDO;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * 商品变更扫描
+ * 商品服务没有改价、改标题的入口，商品都是后台直接改库；这里按主键分批扫描价格和展示字段，和上次看到的摘要比较
+ * 1）价格变了调用ProductPriceVersion.bump，购物车的价格快照随之失效
+ * 2）任何字段变了调用ProductCache.invalidate，删除redis缓存并广播清理各节点本地缓存和响应缓存
+ * 3）没有记录过的商品按有变更处理，首次运行会整体失效一次
+ * detail是大字段不参与扫描，修改后等redis_cache_ttl过期生效
+ * 多实例部署时通过分布式锁保证只有一个节点在扫描
+ */
+@Slf4j
+@Component
+public class ProductChangeTask {
+
+    private static final String SCAN_LOCK_KEY = "lock:product:change_scan";
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private ProductPriceVersion productPriceVersion;
+
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    /**
+     * 每批扫描的商品数
+     */
+    @Value("${productconfig.product_change_batch_size:1000}")
+    private int batchSize;
+
+    @Scheduled(fixedDelayString = "${productconfig.product_change_interval:60000}")
+    public void scan() {
+        RLock rLock = redissonClient.getLock(SCAN_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            int[] total = new int[2];
+            long lastId = 0;
+            while (true) {
+                List<ProductDO> productDOList = productMapper.selectList(new QueryWrapper<ProductDO>()
+                        .select("id", "title", "cover_img", "old_amount", "amount").gt("id", lastId).orderByAsc("id")
+                        .last("limit " + batchSize));
+                if (productDOList.isEmpty()) {
+                    break;
+                }
+                int[] result = scanBatch(productDOList);
+                total[0] += result[0];
+                total[1] += result[1];
+                lastId = productDOList.get(productDOList.size() - 1).getId();
+                if (productDOList.size() < batchSize) {
+                    break;
+                }
+            }
+            if (total[0] > 0) {
+                log.info("商品变更扫描完成，变更商品数={}，改价商品数={}，耗时={}ms", total[0], total[1], System.currentTimeMillis() - begin);
+            }
+        } catch (Exception e) {
+            log.error("商品变更扫描异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * 先改价格版本，再失效缓存，最后记录摘要；中途失败下次重新处理，多bump一次只会多刷新一次快照
+     *
+     * @return 变更商品数, 改价商品数
+     */
+    private int[] scanBatch(List<ProductDO> productDOList) {
+        List<Object> fields = new ArrayList<>(productDOList.size());
+        for (ProductDO productDO : productDOList) {
+            fields.add(String.valueOf(productDO.getId()));
+        }
+        List<Object> seenList = redisTemplate.opsForHash().multiGet(CacheKey.PRODUCT_FINGERPRINT_KEY, fields);
+
+        List<Long> changedIds = new ArrayList<>();
+        List<Long> priceChangedIds = new ArrayList<>();
+        Map<String, String> fingerprintMap = new HashMap<>();
+        for (int i = 0; i < productDOList.size(); i++) {
+            ProductDO productDO = productDOList.get(i);
+            String price = plain(productDO.getAmount());
+            String fingerprint = price + ":" + Objects.hash(productDO.getTitle(), productDO.getCoverImg(), plain(productDO.getOldAmount()));
+            String seen = (String) seenList.get(i);
+            if (fingerprint.equals(seen)) {
+                continue;
+            }
+            changedIds.add(productDO.getId());
+            if (seen == null || !seen.startsWith(price + ":")) {
+                priceChangedIds.add(productDO.getId());
+            }
+            fingerprintMap.put(String.valueOf(productDO.getId()), fingerprint);
+        }
+        if (changedIds.isEmpty()) {
+            return new int[]{0, 0};
+        }
+
+        productPriceVersion.bump(priceChangedIds);
+        productCache.invalidate(changedIds);
+        redisTemplate.opsForHash().putAll(CacheKey.PRODUCT_FINGERPRINT_KEY, fingerprintMap);
+        return new int[]{changedIds.size(), priceChangedIds.size()};
+    }
+
+    private static String plain(BigDecimal amount) {
+        return amount == null ? "" : amount.stripTrailingZeros().toPlainString();
+    }
+}
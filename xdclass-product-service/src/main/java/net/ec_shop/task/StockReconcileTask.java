@@ -0,0 +1,262 @@
+package net.ec_shop.task;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.ProductStockView;
+import net.ec_shop.enums.StockTaskStateEnum;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.mapper.ProductTaskMapper;
+import net.ec_shop.model.ProductDO;
+import net.ec_shop.model.ProductTaskDO;
+import net.ec_shop.service.ProductService;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * 锁定库存对账
+ * product.lock_stock 应该等于这个商品没有取消的库存锁定任务数量之和；已支付的任务置为FINISH后不释放库存，所以LOCK和FINISH都要算
+ * 1）按商品id范围分段并行，每段按主键顺序分批，先不加锁比较；有差异的在短事务里锁住商品行重新核对，锁定库存没变才修复
+ * 2）释放消息丢失时任务一直是LOCK，库存一直被占着；创建超过stale时间还是LOCK的订单重新走一遍批量释放
+ * 多实例部署时通过分布式锁保证只有一个节点在对账，差异和修复数量导出为指标
+ */
+@Slf4j
+@Component
+public class StockReconcileTask {
+
+    private static final String RECONCILE_LOCK_KEY = "lock:stock:reconcile";
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private ProductTaskMapper productTaskMapper;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductStockView productStockView;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 每批核对的商品数
+     */
+    @Value("${productconfig.stock_reconcile_batch_size:500}")
+    private int batchSize;
+
+    /**
+     * 按id范围分成几段并行核对
+     */
+    @Value("${productconfig.stock_reconcile_parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 为false时只统计差异不修复
+     */
+    @Value("${productconfig.stock_reconcile_repair:true}")
+    private boolean repair;
+
+    /**
+     * 创建多久还是LOCK的任务重新释放，秒，需要比订单超时关闭的时间长
+     */
+    @Value("${productconfig.stock_reconcile_stale_after:3600}")
+    private long staleAfter;
+
+    /**
+     * 每次最多重新释放的订单数
+     */
+    @Value("${productconfig.stock_reconcile_stale_batch:200}")
+    private int staleBatch;
+
+    /**
+     * 最近一次对账有差异的商品数
+     */
+    private final AtomicLong driftProducts = new AtomicLong();
+
+    /**
+     * 最近一次对账差异数量的绝对值之和
+     */
+    private final AtomicLong driftUnits = new AtomicLong();
+
+    private Counter repairedCounter;
+
+    private Counter staleReleasedCounter;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("stock.reconcile.drift.products", driftProducts, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("stock.reconcile.drift.units", driftUnits, AtomicLong::get).register(meterRegistry);
+        repairedCounter = Counter.builder("stock.reconcile.repaired").register(meterRegistry);
+        staleReleasedCounter = Counter.builder("stock.reconcile.stale_released").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${productconfig.stock_reconcile_interval:600000}")
+    public void reconcile() {
+        RLock rLock = redissonClient.getLock(RECONCILE_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            releaseStaleTasks();
+            reconcileLockStock();
+        } catch (Exception e) {
+            log.error("锁定库存对账异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * 超时还是LOCK的订单重新释放，订单还是NEW的下次再处理
+     */
+    private void releaseStaleTasks() {
+        Date before = new Date(System.currentTimeMillis() - staleAfter * 1000);
+        List<String> outTradeNoList = productTaskMapper.listOutTradeNoByState(StockTaskStateEnum.LOCK.name(), before, staleBatch);
+        if (outTradeNoList.isEmpty()) {
+            return;
+        }
+        Set<String> requeueSet = productService.releaseProductStockBatch(outTradeNoList);
+        staleReleasedCounter.increment(outTradeNoList.size() - requeueSet.size());
+        log.warn("超时未释放的库存锁定任务重新释放，订单数={}，订单未完结数={}", outTradeNoList.size(), requeueSet.size());
+    }
+
+    private void reconcileLockStock() throws Exception {
+        ProductDO first = productMapper.selectOne(new QueryWrapper<ProductDO>().select("id").orderByAsc("id").last("limit 1"));
+        ProductDO last = productMapper.selectOne(new QueryWrapper<ProductDO>().select("id").orderByDesc("id").last("limit 1"));
+        if (first == null || last == null) {
+            return;
+        }
+
+        long begin = System.currentTimeMillis();
+        int parts = Math.max(1, parallelism);
+        long span = (last.getId() - first.getId()) / parts + 1;
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        long[] total = new long[3];
+        try {
+            List<Future<long[]>> futureList = new ArrayList<>(parts);
+            for (int i = 0; i < parts; i++) {
+                long afterId = first.getId() - 1 + i * span;
+                long maxId = Math.min(last.getId(), afterId + span);
+                futureList.add(executor.submit(() -> reconcileRange(afterId, maxId)));
+            }
+            for (Future<long[]> future : futureList) {
+                long[] result = future.get();
+                for (int i = 0; i < total.length; i++) {
+                    total[i] += result[i];
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        driftProducts.set(total[0]);
+        driftUnits.set(total[1]);
+        log.info("锁定库存对账完成，差异商品数={}，差异数量={}，修复数={}，耗时={}ms", total[0], total[1], total[2],
+                System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 核对id在(afterId, maxId]之间的商品
+     *
+     * @return 差异商品数, 差异数量绝对值之和, 修复数
+     */
+    private long[] reconcileRange(long afterId, long maxId) {
+        long[] result = new long[3];
+        long lastId = afterId;
+        while (lastId < maxId) {
+            List<ProductDO> productDOList = productMapper.listLockStockAfter(lastId, maxId, batchSize);
+            if (productDOList.isEmpty()) {
+                break;
+            }
+            long fromId = productDOList.get(0).getId();
+            long toId = productDOList.get(productDOList.size() - 1).getId();
+            Map<Long, Integer> lockedMap = sumLocked(fromId, toId);
+            for (ProductDO productDO : productDOList) {
+                if (productDO.getLockStock() != lockedMap.getOrDefault(productDO.getId(), 0).intValue()) {
+                    int drift = recheck(productDO.getId(), result);
+                    if (drift != 0) {
+                        result[0]++;
+                        result[1] += Math.abs(drift);
+                    }
+                }
+            }
+            lastId = toId;
+            if (productDOList.size() < batchSize) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 锁住商品行后重新核对，锁定、释放都会更新商品行，持有行锁期间两边不会再变
+     * 先加行锁再做一致性读，读到的任务快照不早于加锁的时间
+     *
+     * @return 差异数量，lock_stock减去任务合计
+     */
+    private int recheck(long productId, long[] result) {
+        int drift = transactionTemplate.execute(status -> {
+            List<ProductDO> productDOList = productMapper.selectStockForUpdate(Collections.singletonList(productId));
+            if (productDOList.isEmpty()) {
+                return 0;
+            }
+            int observed = productDOList.get(0).getLockStock();
+            int expected = sumLocked(productId, productId).getOrDefault(productId, 0);
+            if (observed == expected) {
+                return 0;
+            }
+            log.warn("锁定库存不一致，商品={}，lock_stock={}，任务合计={}", productId, observed, expected);
+            if (repair && productMapper.repairLockStock(productId, expected, observed) == 1) {
+                result[2]++;
+                repairedCounter.increment();
+            }
+            return observed - expected;
+        });
+        if (drift != 0 && repair) {
+            productStockView.invalidate(Collections.singletonList(productId));
+        }
+        return drift;
+    }
+
+    /**
+     * 按商品汇总没有取消的任务数量
+     */
+    private Map<Long, Integer> sumLocked(long fromId, long toId) {
+        List<ProductTaskDO> taskList = productTaskMapper.sumBuyNumByProductRange(fromId, toId, StockTaskStateEnum.CANCEL.name());
+        Map<Long, Integer> lockedMap = new HashMap<>(taskList.size() * 4 / 3 + 1);
+        for (ProductTaskDO taskDO : taskList) {
+            lockedMap.put(taskDO.getProductId(), taskDO.getBuyNum());
+        }
+        return lockedMap;
+    }
+}
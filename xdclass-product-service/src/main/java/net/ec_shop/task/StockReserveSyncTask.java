@@ -0,0 +1,241 @@
+package net.ec_shop.task;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.component.InventoryReservation;
+import net.ec_shop.config.RabbitMQConfig;
+import net.ec_shop.enums.BizCodeEnum;
+import net.ec_shop.exception.BizException;
+import net.ec_shop.model.OrderMessage;
+import net.ec_shop.request.LockProductRequest;
+import net.ec_shop.request.OrderItemRequest;
+import net.ec_shop.service.ProductService;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * redis库存模式下，把预占记录批量写回数据库：累加lock_stock、插入库存锁定任务、发送延迟释放消息
+ * 写回失败的订单进失败队列定时重试；数据库库存不足或预占记录过期还没写回的，订单服务已经当作锁定成功，
+ * 不能直接归还库存，通知订单服务关单，再按数据库重新计算这些商品的redis可用库存
+ * 定时按数据库重新计算全部可用库存，数据库补货能同步到redis
+ * 多实例部署时通过分布式锁保证只有一个节点在同步
+ */
+@Slf4j
+@Component
+public class StockReserveSyncTask {
+
+    private static final String SYNC_LOCK_KEY = "lock:stock:reserve_sync";
+
+    @Autowired
+    private InventoryReservation inventoryReservation;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private RabbitMQConfig rabbitMQConfig;
+
+    /**
+     * 每批同步的订单数
+     */
+    @Value("${productconfig.stock_sync_batch_size:200}")
+    private int batchSize;
+
+    /**
+     * 单次调度最多处理的批数
+     */
+    @Value("${productconfig.stock_sync_max_batches:50}")
+    private int maxBatches;
+
+    @Scheduled(fixedDelayString = "${productconfig.stock_sync_interval:1000}")
+    public void syncReservedStock() {
+        if (!inventoryReservation.isEnabled()) {
+            return;
+        }
+        RLock rLock = redissonClient.getLock(SYNC_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < maxBatches; i++) {
+                List<String> outTradeNoList = inventoryReservation.peekPending(batchSize);
+                if (outTradeNoList.isEmpty()) {
+                    break;
+                }
+                List<String> failedList = new ArrayList<>();
+                List<String> syncedList = syncBatch(outTradeNoList, failedList);
+                inventoryReservation.finishPending(outTradeNoList.size(), syncedList, failedList);
+                if (outTradeNoList.size() < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("库存预占同步异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * 写回失败的订单重试，数据库库存不足或预占记录过期的取消后移出失败队列
+     */
+    @Scheduled(fixedDelayString = "${productconfig.stock_sync_retry_interval:60000}")
+    public void retryFailed() {
+        if (!inventoryReservation.isEnabled()) {
+            return;
+        }
+        RLock rLock = redissonClient.getLock(SYNC_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            for (String outTradeNo : inventoryReservation.peekFailed(batchSize)) {
+                Map<Long, Integer> itemMap = inventoryReservation.getReservation(outTradeNo);
+                if (itemMap.isEmpty()) {
+                    cancelReserved(outTradeNo, "预占记录已过期");
+                    inventoryReservation.resolveFailed(outTradeNo);
+                    continue;
+                }
+                try {
+                    productService.syncReservedStock(Collections.singletonList(buildRequest(outTradeNo, itemMap)));
+                    inventoryReservation.resolveFailed(outTradeNo);
+                    log.info("库存预占重试同步成功，outTradeNo={}", outTradeNo);
+                } catch (Exception e) {
+                    if (isStockShortage(e)) {
+                        cancelReserved(outTradeNo, "数据库库存不足");
+                        inventoryReservation.resolveFailed(outTradeNo);
+                        continue;
+                    }
+                    //redis和数据库库存不一致，需要人工核对
+                    log.error("库存预占重试同步失败，outTradeNo={}", outTradeNo, e);
+                }
+            }
+        } catch (Exception e) {
+            log.error("库存预占重试异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * redis可用库存按数据库重新计算，数据库补货、取消订单后同步到redis
+     * 和写回在同一把锁内，不会有订单已写回数据库、预占明细还没删除的中间状态
+     */
+    @Scheduled(fixedDelayString = "${productconfig.stock_available_refresh_interval:60000}")
+    public void refreshAvailable() {
+        if (!inventoryReservation.isEnabled()) {
+            return;
+        }
+        RLock rLock = redissonClient.getLock(SYNC_LOCK_KEY);
+        if (!rLock.tryLock()) {
+            return;
+        }
+        try {
+            long rows = inventoryReservation.refreshAllAvailable(batchSize);
+            log.info("redis可用库存重新计算完成，商品数={}", rows);
+        } catch (Exception e) {
+            log.error("redis可用库存重新计算异常", e);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * 整批一个事务写回，失败时逐单写回，定位出有问题的订单
+     * 预占记录已过期、数据库库存不足的取消订单，不算写回也不算失败
+     *
+     * @param outTradeNoList
+     * @param failedList     输出，写回失败的订单号
+     * @return 已写回数据库的订单号
+     */
+    private List<String> syncBatch(List<String> outTradeNoList, List<String> failedList) {
+        List<LockProductRequest> requestList = new ArrayList<>(outTradeNoList.size());
+        for (String outTradeNo : outTradeNoList) {
+            Map<Long, Integer> itemMap = inventoryReservation.getReservation(outTradeNo);
+            if (itemMap.isEmpty()) {
+                cancelReserved(outTradeNo, "预占记录已过期");
+                continue;
+            }
+            requestList.add(buildRequest(outTradeNo, itemMap));
+        }
+        List<String> syncedList = new ArrayList<>(requestList.size());
+        if (requestList.isEmpty()) {
+            return syncedList;
+        }
+
+        try {
+            productService.syncReservedStock(requestList);
+            requestList.forEach(request -> syncedList.add(request.getOrderOutTradeNo()));
+            log.info("库存预占同步完成，订单数={}", requestList.size());
+        } catch (Exception e) {
+            log.warn("库存预占批量同步失败，改为逐单同步，订单数={}", requestList.size(), e);
+            for (LockProductRequest request : requestList) {
+                try {
+                    productService.syncReservedStock(Collections.singletonList(request));
+                    syncedList.add(request.getOrderOutTradeNo());
+                } catch (Exception ex) {
+                    if (isStockShortage(ex)) {
+                        cancelReserved(request.getOrderOutTradeNo(), "数据库库存不足");
+                        continue;
+                    }
+                    log.error("库存预占同步失败，进入失败队列重试，outTradeNo={}", request.getOrderOutTradeNo(), ex);
+                    failedList.add(request.getOrderOutTradeNo());
+                }
+            }
+        }
+        return syncedList;
+    }
+
+    /**
+     * 预占无法写回数据库的订单，下单时已经返回锁定成功，直接归还库存会超卖
+     * 通知订单服务关单，未支付的订单会被取消；删除预占明细后按数据库重新计算这些商品的可用库存
+     * 已支付的订单关单不生效，需要人工处理
+     */
+    private void cancelReserved(String outTradeNo, String reason) {
+        OrderMessage orderMessage = new OrderMessage();
+        orderMessage.setOutTradeNo(outTradeNo);
+        rabbitTemplate.convertAndSend(rabbitMQConfig.getOrderEventExchange(), rabbitMQConfig.getOrderCloseRoutingKey(), orderMessage);
+
+        Map<Long, Integer> itemMap = inventoryReservation.getReservedItems(outTradeNo);
+        inventoryReservation.discardReserved(outTradeNo);
+        inventoryReservation.refreshAvailable(itemMap.keySet());
+        log.error("库存预占无法写回数据库，已通知订单服务关单，原因={}，outTradeNo={}，商品={}", reason, outTradeNo, itemMap);
+    }
+
+    /**
+     * 数据库库存不足，重试也不会成功
+     */
+    private boolean isStockShortage(Exception e) {
+        return e instanceof BizException && ((BizException) e).getCode() == BizCodeEnum.ORDER_CONFIRM_LOCK_PRODUCT_FAIL.getCode();
+    }
+
+    private LockProductRequest buildRequest(String outTradeNo, Map<Long, Integer> itemMap) {
+        List<OrderItemRequest> itemList = new ArrayList<>(itemMap.size());
+        itemMap.forEach((productId, buyNum) -> {
+            OrderItemRequest item = new OrderItemRequest();
+            item.setProductId(productId);
+            item.setBuyNum(buyNum);
+            itemList.add(item);
+        });
+        LockProductRequest request = new LockProductRequest();
+        request.setOrderOutTradeNo(outTradeNo);
+        request.setOrderItemList(itemList);
+        return request;
+    }
+}
@@ -33,11 +33,14 @@ public class CartVO {
     private BigDecimal realPayAmount;
 
     /**
-     * 总件数
+     * 总件数，有购物车存储里的合计直接用，否则按购物项算
      *
      * @return
      */
     public Integer getTotalNum() {
+        if (this.totalNum != null) {
+            return this.totalNum;
+        }
         if (this.cartItems != null) {
             int total = cartItems.stream().mapToInt(CartItemVO::getBuyNum).sum();
             return total;
@@ -51,14 +54,10 @@ public class CartVO {
      * @return
      */
     public BigDecimal getTotalPrice() {
-        BigDecimal amount = new BigDecimal("0");
-        if (this.cartItems != null) {
-            for (CartItemVO cartItemVO : cartItems) {
-                BigDecimal itemTotalAmount = cartItemVO.getTotalAmount();
-                amount = amount.add(itemTotalAmount);
-            }
+        if (this.totalAmount != null) {
+            return this.totalAmount;
         }
-        return amount;
+        return sumItemAmount();
     }
 
     /**
@@ -67,6 +66,25 @@ public class CartVO {
      * @return
      */
     public BigDecimal getRealPayPrice() {
+        if (this.realPayAmount != null) {
+            return this.realPayAmount;
+        }
+        return sumItemAmount();
+    }
+
+    /**
+     * 设置购物车存储里增量维护的合计，之后不再遍历购物项
+     *
+     * @param totalNum
+     * @param totalCents
+     */
+    public void setTotal(int totalNum, long totalCents) {
+        this.totalNum = totalNum;
+        this.totalAmount = BigDecimal.valueOf(totalCents, 2);
+        this.realPayAmount = this.totalAmount;
+    }
+
+    private BigDecimal sumItemAmount() {
         BigDecimal amount = new BigDecimal("0");
         if (this.cartItems != null) {
             for (CartItemVO cartItemVO : cartItems) {
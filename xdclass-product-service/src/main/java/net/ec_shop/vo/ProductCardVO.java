@@ -0,0 +1,45 @@
+package net.ec_shop.vo;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * 商品列表卡片，不含详情
+ */
+@Data
+public class ProductCardVO {
+
+
+    private Long id;
+
+    /**
+     * 标题
+     */
+    private String title;
+
+    /**
+     * 封面图
+     */
+    @JsonProperty("cover_img")
+    private String coverImg;
+
+    /**
+     * 老价格
+     */
+    @JsonProperty("old_amount")
+    private BigDecimal oldAmount;
+
+    /**
+     * 新价格
+     */
+    private BigDecimal amount;
+
+    /**
+     * 库存
+     */
+    private Integer stock;
+
+
+}
@@ -1,5 +1,6 @@
 package net.ec_shop.vo;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -45,5 +46,11 @@ public class ProductVO {
      */
     private Integer stock;
 
+    /**
+     * 价格版本，查库前取的，价格不比这个版本旧；只在缓存里保存，不返回前端
+     */
+    @JsonIgnore
+    private Long priceVersion;
+
 
 }
@@ -0,0 +1,85 @@
+package net.ec_shop.biz;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.ec_shop.vo.CartItemVO;
+import net.ec_shop.vo.CartVO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 购物车渲染基准：遍历购物项累加BigDecimal 对比 直接用购物车存储里的合计
+ * 不在单元测试里跑，执行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartRenderBenchmark {
+
+    @Param({"5", "50", "200"})
+    private int itemCount;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private CartVO sumItemsCart;
+
+    private CartVO storedTotalCart;
+
+    @Setup
+    public void setup() {
+        List<CartItemVO> cartItemVOList = new ArrayList<>(itemCount);
+        int totalNum = 0;
+        long totalCents = 0;
+        for (int i = 0; i < itemCount; i++) {
+            CartItemVO cartItemVO = new CartItemVO();
+            cartItemVO.setProductId((long) i + 1);
+            cartItemVO.setBuyNum(i % 5 + 1);
+            cartItemVO.setProductTitle("商品标题" + i);
+            cartItemVO.setProductImg("https://img.example.com/product/" + i + ".png");
+            cartItemVO.setAmount(BigDecimal.valueOf(1999 + i, 2));
+            cartItemVOList.add(cartItemVO);
+            totalNum += cartItemVO.getBuyNum();
+            totalCents += (long) cartItemVO.getBuyNum() * (1999 + i);
+        }
+
+        sumItemsCart = new CartVO();
+        sumItemsCart.setCartItems(cartItemVOList);
+
+        storedTotalCart = new CartVO();
+        storedTotalCart.setCartItems(cartItemVOList);
+        storedTotalCart.setTotal(totalNum, totalCents);
+    }
+
+    @Benchmark
+    public byte[] renderSumItems() throws Exception {
+        return objectMapper.writeValueAsBytes(sumItemsCart);
+    }
+
+    @Benchmark
+    public byte[] renderStoredTotal() throws Exception {
+        return objectMapper.writeValueAsBytes(storedTotalCart);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CartRenderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
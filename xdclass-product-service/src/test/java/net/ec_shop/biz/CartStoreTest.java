@@ -0,0 +1,172 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.ProductApplication;
+import net.ec_shop.component.CartStore;
+import net.ec_shop.model.CartContent;
+import net.ec_shop.model.CartEntry;
+import net.ec_shop.util.LongHashSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ProductApplication.class)
+@Slf4j
+public class CartStoreTest {
+
+    private static final String CART_KEY = "cart:test_concurrency";
+
+    @Autowired
+    private CartStore cartStore;
+
+    @Autowired
+    private RedisTemplate redisTemplate;
+
+    @After
+    public void clean() {
+        cartStore.clear(CART_KEY);
+    }
+
+    /**
+     * 多线程同时加购同一个商品，不能丢失累加
+     */
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        int threads = 16;
+        int addPerThread = 50;
+        long productId = 1L;
+
+        long[] costs = ConcurrentRunner.run(threads, addPerThread,
+                (thread, round) -> cartStore.add(CART_KEY, productId, 1, 100, Integer.MAX_VALUE, 0, 0));
+
+        List<CartEntry> entryList = cartStore.list(CART_KEY);
+        Assert.assertEquals(1, entryList.size());
+        Assert.assertEquals(threads * addPerThread, entryList.get(0).getBuyNum());
+
+        Arrays.sort(costs);
+        log.info("加购耗时 p50:{}us p99:{}us", costs[costs.length / 2] / 1000, costs[costs.length * 99 / 100] / 1000);
+    }
+
+    @Test
+    public void testLimit() {
+        Assert.assertEquals(5, cartStore.add(CART_KEY, 1L, 5, 2, 10, 0, 0));
+        Assert.assertEquals(CartStore.RESULT_NUM_LIMIT, cartStore.add(CART_KEY, 1L, 6, 2, 10, 0, 0));
+        Assert.assertEquals(3, cartStore.add(CART_KEY, 2L, 3, 2, 10, 0, 0));
+        Assert.assertEquals(CartStore.RESULT_ITEM_LIMIT, cartStore.add(CART_KEY, 3L, 1, 2, 10, 0, 0));
+        Assert.assertEquals(CartStore.RESULT_NOT_EXIST, cartStore.change(CART_KEY, 3L, 1, 10));
+        Assert.assertEquals(8, cartStore.change(CART_KEY, 2L, 8, 10));
+    }
+
+    /**
+     * 改数量不影响价格快照，刷新快照不影响数量
+     */
+    @Test
+    public void testPriceSnapshot() {
+        cartStore.add(CART_KEY, 1L, 2, 10, 10, 3, 1999);
+        cartStore.change(CART_KEY, 1L, 5, 10);
+        CartEntry entry = cartStore.get(CART_KEY, 1L);
+        Assert.assertEquals(5, entry.getBuyNum());
+        Assert.assertEquals(3, entry.getPriceVersion());
+        Assert.assertEquals(1999, entry.getAmountCents());
+
+        cartStore.refreshPrice(CART_KEY, Arrays.asList(new CartEntry(1L, 0, 0, 4, 2099), new CartEntry(2L, 0, 0, 4, 100)));
+        entry = cartStore.get(CART_KEY, 1L);
+        Assert.assertEquals(5, entry.getBuyNum());
+        Assert.assertEquals(4, entry.getPriceVersion());
+        Assert.assertEquals(2099, entry.getAmountCents());
+        Assert.assertNull(cartStore.get(CART_KEY, 2L));
+    }
+
+    /**
+     * 加购、改数量、刷新价格、删除、取出之后，合计和按购物项重新算的一致
+     */
+    @Test
+    public void testTotal() {
+        cartStore.add(CART_KEY, 1L, 2, 10, 10, 1, 1000);
+        cartStore.add(CART_KEY, 2L, 3, 10, 10, 1, 250);
+        cartStore.add(CART_KEY, 1L, 1, 10, 10, 2, 1200);
+        assertTotal(6, 3 * 1200 + 3 * 250);
+
+        cartStore.change(CART_KEY, 2L, 1, 10);
+        assertTotal(4, 3 * 1200 + 250);
+
+        cartStore.refreshPrice(CART_KEY, Collections.singletonList(new CartEntry(2L, 0, 0, 2, 300)));
+        assertTotal(4, 3 * 1200 + 300);
+
+        cartStore.delete(CART_KEY, Collections.singletonList(1L));
+        assertTotal(1, 300);
+
+        cartStore.take(CART_KEY, LongHashSet.of(Collections.singletonList(2L)));
+        assertTotal(0, 0);
+        Assert.assertFalse(redisTemplate.hasKey(CART_KEY));
+    }
+
+    /**
+     * 移出redis后再访问，从归档恢复，内容和合计不变，重新设置过期时间
+     */
+    @Test
+    public void testOffloadAndRecover() {
+        cartStore.add(CART_KEY, 1L, 2, 10, 10, 1, 1000);
+        cartStore.add(CART_KEY, 2L, 3, 10, 10, 1, 250);
+        Assert.assertTrue(redisTemplate.getExpire(CART_KEY) > 0);
+
+        //剩余过期时间不超过0才删除，刚访问过的不会被移出
+        Assert.assertTrue(cartStore.offload(Collections.singletonList(CART_KEY), 0).isEmpty());
+        Assert.assertTrue(redisTemplate.hasKey(CART_KEY));
+
+        List<String> offloaded = cartStore.offload(Collections.singletonList(CART_KEY), Long.MAX_VALUE);
+        Assert.assertEquals(Collections.singletonList(CART_KEY), offloaded);
+        Assert.assertFalse(redisTemplate.hasKey(CART_KEY));
+
+        CartContent cartContent = cartStore.load(CART_KEY);
+        Assert.assertEquals(2, cartContent.getEntries().size());
+        Assert.assertEquals(5, cartContent.getTotal().getTotalNum());
+        Assert.assertEquals(2 * 1000 + 3 * 250, cartContent.getTotal().getTotalCents());
+        Assert.assertTrue(redisTemplate.getExpire(CART_KEY) > 0);
+
+        //再次移出后直接加购，先恢复再累加
+        cartStore.offload(Collections.singletonList(CART_KEY), Long.MAX_VALUE);
+        Assert.assertEquals(3, cartStore.add(CART_KEY, 1L, 1, 10, 10, 1, 1000));
+        assertTotal(6, 3 * 1000 + 3 * 250);
+    }
+
+    /**
+     * 取出后放回，保留原来的加入时间，购物车里的顺序不变
+     */
+    @Test
+    public void testTakeAndRestore() throws Exception {
+        cartStore.add(CART_KEY, 1L, 2, 10, 10, 1, 1000);
+        TimeUnit.SECONDS.sleep(1);
+        cartStore.add(CART_KEY, 2L, 3, 10, 10, 1, 250);
+        long addTime = cartStore.get(CART_KEY, 1L).getAddTime();
+
+        List<CartEntry> taken = cartStore.take(CART_KEY, LongHashSet.of(Collections.singletonList(1L)));
+        Assert.assertEquals(1, taken.size());
+        Assert.assertNull(cartStore.get(CART_KEY, 1L));
+
+        TimeUnit.SECONDS.sleep(1);
+        cartStore.restore(CART_KEY, taken);
+        CartEntry restored = cartStore.get(CART_KEY, 1L);
+        Assert.assertEquals(2, restored.getBuyNum());
+        Assert.assertEquals(addTime, restored.getAddTime());
+        Assert.assertEquals(1L, cartStore.list(CART_KEY).get(0).getProductId());
+    }
+
+    private void assertTotal(long totalNum, long totalCents) {
+        CartContent cartContent = cartStore.load(CART_KEY);
+        Assert.assertEquals(totalNum, cartContent.getTotal().getTotalNum());
+        Assert.assertEquals(totalCents, cartContent.getTotal().getTotalCents());
+    }
+
+}
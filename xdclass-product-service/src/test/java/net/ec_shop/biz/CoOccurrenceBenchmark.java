@@ -0,0 +1,105 @@
+package net.ec_shop.biz;
+
+import net.ec_shop.util.CoOccurrenceIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 买了还买计数基准：10万商品，商品热度按幂律分布，每单1-6个商品
+ * 吞吐是每秒能累加的订单数；预热100万单后打印商品数和估算内存
+ * 不在单元测试里跑，执行main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class CoOccurrenceBenchmark {
+
+    private static final int PRODUCTS = 100000;
+
+    private static final int PRELOAD_ORDERS = 1000000;
+
+    @Param({"20", "50"})
+    private int maxNeighbors;
+
+    private CoOccurrenceIndex index;
+
+    private long[][] baskets;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        baskets = new long[1 << 16][];
+        for (int i = 0; i < baskets.length; i++) {
+            baskets[i] = randomBasket(random);
+        }
+
+        index = new CoOccurrenceIndex(maxNeighbors, 20);
+        long usedBefore = usedHeap();
+        for (int i = 0; i < PRELOAD_ORDERS; i++) {
+            index.add(randomBasket(random));
+        }
+        long usedAfter = usedHeap();
+        System.out.printf("%n邻居上限=%d，商品数=%d，估算内存=%dMB，堆增长=%dMB%n", maxNeighbors, index.size(),
+                index.estimateBytes() >> 20, (usedAfter - usedBefore) >> 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n邻居上限=%d，结束时商品数=%d，估算内存=%dMB%n", maxNeighbors, index.size(), index.estimateBytes() >> 20);
+    }
+
+    @Benchmark
+    public void addOrder() {
+        index.add(baskets[next++ & (baskets.length - 1)]);
+    }
+
+    @Benchmark
+    public long[] top() {
+        return index.top(baskets[next++ & (baskets.length - 1)][0], 10);
+    }
+
+    /**
+     * 商品id取[1, PRODUCTS]，小id更热门
+     */
+    private static long[] randomBasket(Random random) {
+        long[] basket = new long[1 + random.nextInt(6)];
+        for (int i = 0; i < basket.length; i++) {
+            basket[i] = 1 + (long) (PRODUCTS * Math.pow(random.nextDouble(), 3));
+        }
+        return basket;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CoOccurrenceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,74 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.util.CoOccurrenceIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+/**
+ * 共同购买计数不依赖容器，直接测
+ */
+@Slf4j
+public class CoOccurrenceIndexTest {
+
+    @Test
+    public void testCountAndTop() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(10, 20);
+        index.add(new long[]{1, 2, 3});
+        index.add(new long[]{1, 2});
+        index.add(new long[]{1, 3, 3, 4});
+        index.add(new long[]{1, 2, 1});
+        index.add(new long[]{5});
+
+        Assert.assertArrayEquals(new long[]{2, 3, 4}, index.top(1, 10));
+        Assert.assertArrayEquals(new long[]{2, 3}, index.top(1, 2));
+        Assert.assertArrayEquals(new long[]{1, 3}, index.top(2, 10));
+        Assert.assertEquals(0, index.top(5, 10).length);
+        Assert.assertEquals(4, index.size());
+    }
+
+    /**
+     * 邻居满了以后偶尔出现的商品只替换次数最少的，高频邻居一直保留
+     */
+    @Test
+    public void testPrune() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(3, 20);
+        for (int i = 0; i < 100; i++) {
+            index.add(new long[]{1, 2});
+            index.add(new long[]{1, 3});
+        }
+        for (long other = 100; other < 150; other++) {
+            index.add(new long[]{1, other});
+        }
+
+        long[] top = index.top(1, 10);
+        Assert.assertEquals(3, top.length);
+        Assert.assertEquals(149, top[2]);
+        Assert.assertTrue((top[0] == 2 && top[1] == 3) || (top[0] == 3 && top[1] == 2));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(10, 20);
+        index.add(new long[]{1, 2, 3});
+        index.add(new long[]{1, 2});
+        index.add(new long[]{0, 1});
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        CoOccurrenceIndex restored = CoOccurrenceIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 1, 20);
+
+        Assert.assertEquals(index.size(), restored.size());
+        Assert.assertArrayEquals(new long[]{2}, restored.top(1, 10));
+        Assert.assertArrayEquals(new long[]{1}, restored.top(0, 10));
+
+        restored.add(new long[]{1, 3});
+        restored.add(new long[]{1, 3});
+        Assert.assertArrayEquals(new long[]{3}, restored.top(1, 10));
+    }
+}
@@ -0,0 +1,56 @@
+package net.ec_shop.biz;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发测试：所有线程就绪后同时开始，每个线程执行若干次，统计每次耗时
+ * 任务抛出的异常在全部结束后抛给测试方法
+ */
+public class ConcurrentRunner {
+
+    public interface Task {
+
+        /**
+         * @param thread 线程序号
+         * @param round  该线程内第几次
+         */
+        void run(int thread, int round) throws Exception;
+    }
+
+    /**
+     * @return 每次执行的耗时，纳秒，未排序
+     */
+    public static long[] run(int threads, int rounds, Task task) throws Exception {
+        long[] costs = new long[threads * rounds];
+        AtomicInteger index = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futureList = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            futureList.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < rounds; j++) {
+                    long begin = System.nanoTime();
+                    task.run(thread, j);
+                    costs[index.getAndIncrement()] = System.nanoTime() - begin;
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        for (Future<?> future : futureList) {
+            future.get();
+        }
+        return costs;
+    }
+}
@@ -0,0 +1,163 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.ProductApplication;
+import net.ec_shop.component.InventoryReservation;
+import net.ec_shop.constant.CacheKey;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.model.ProductDO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ProductApplication.class, properties = "productconfig.stock_mode=redis")
+@Slf4j
+public class InventoryReservationTest {
+
+    private static final long PRODUCT_A = 990001L;
+
+    private static final long PRODUCT_B = 990002L;
+
+    private static final int STOCK = 100;
+
+    @Autowired
+    private InventoryReservation inventoryReservation;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    private final ConcurrentLinkedQueue<String> outTradeNoQueue = new ConcurrentLinkedQueue<>();
+
+    private final List<Long> productIdList = new ArrayList<>();
+
+    @Before
+    public void init() {
+        redisTemplate.opsForValue().set(String.format(CacheKey.STOCK_AVAILABLE_KEY, PRODUCT_A), String.valueOf(STOCK));
+        redisTemplate.opsForValue().set(String.format(CacheKey.STOCK_AVAILABLE_KEY, PRODUCT_B), String.valueOf(STOCK));
+    }
+
+    @After
+    public void clean() {
+        redisTemplate.delete(String.format(CacheKey.STOCK_AVAILABLE_KEY, PRODUCT_A));
+        redisTemplate.delete(String.format(CacheKey.STOCK_AVAILABLE_KEY, PRODUCT_B));
+        for (Long productId : productIdList) {
+            redisTemplate.delete(String.format(CacheKey.STOCK_AVAILABLE_KEY, productId));
+        }
+        if (!productIdList.isEmpty()) {
+            productMapper.deleteBatchIds(productIdList);
+        }
+        for (String outTradeNo : outTradeNoQueue) {
+            redisTemplate.delete(String.format(CacheKey.STOCK_RESERVE_KEY, outTradeNo));
+            redisTemplate.opsForList().remove(CacheKey.STOCK_RESERVE_PENDING_KEY, 0, outTradeNo);
+            redisTemplate.opsForList().remove(CacheKey.STOCK_RESERVE_FAILED_KEY, 0, outTradeNo);
+            redisTemplate.opsForHash().delete(CacheKey.STOCK_RESERVE_ITEMS_KEY, outTradeNo);
+        }
+    }
+
+    /**
+     * 多线程抢两个商品，预占总量不能超过库存，且一个订单的两个商品要么都成功要么都失败
+     */
+    @Test
+    public void testNoOversell() throws Exception {
+        int threads = 32;
+        int ordersPerThread = 50;
+        AtomicLong reservedA = new AtomicLong();
+        AtomicLong reservedB = new AtomicLong();
+
+        long[] costs = ConcurrentRunner.run(threads, ordersPerThread, (thread, round) -> {
+            String outTradeNo = "test_reserve_" + thread + "_" + round;
+            outTradeNoQueue.add(outTradeNo);
+            int numA = ThreadLocalRandom.current().nextInt(1, 4);
+            int numB = ThreadLocalRandom.current().nextInt(1, 4);
+            Map<Long, Integer> itemMap = new TreeMap<>();
+            itemMap.put(PRODUCT_A, numA);
+            itemMap.put(PRODUCT_B, numB);
+
+            if (inventoryReservation.reserve(outTradeNo, itemMap)) {
+                reservedA.addAndGet(numA);
+                reservedB.addAndGet(numB);
+            }
+        });
+
+        long availableA = Long.parseLong(redisTemplate.opsForValue().get(String.format(CacheKey.STOCK_AVAILABLE_KEY, PRODUCT_A)));
+        long availableB = Long.parseLong(redisTemplate.opsForValue().get(String.format(CacheKey.STOCK_AVAILABLE_KEY, PRODUCT_B)));
+        log.info("预占A={} B={}，剩余A={} B={}，平均耗时={}us", reservedA.get(), reservedB.get(), availableA, availableB,
+                Arrays.stream(costs).sum() / costs.length / 1000);
+
+        Assert.assertTrue(availableA >= 0 && availableB >= 0);
+        Assert.assertEquals(STOCK, reservedA.get() + availableA);
+        Assert.assertEquals(STOCK, reservedB.get() + availableB);
+    }
+
+    @Test
+    public void testDuplicateReserve() {
+        String outTradeNo = "test_reserve_duplicate";
+        outTradeNoQueue.add(outTradeNo);
+        Map<Long, Integer> itemMap = new TreeMap<>();
+        itemMap.put(PRODUCT_A, 10);
+
+        Assert.assertTrue(inventoryReservation.reserve(outTradeNo, itemMap));
+        Assert.assertTrue(inventoryReservation.reserve(outTradeNo, itemMap));
+        Assert.assertEquals(String.valueOf(STOCK - 10), redisTemplate.opsForValue().get(String.format(CacheKey.STOCK_AVAILABLE_KEY, PRODUCT_A)));
+    }
+
+    /**
+     * 可用库存按 数据库可用库存 - 未写回的预占明细 重新计算，取消的订单删除明细后不再扣除
+     */
+    @Test
+    public void testRefreshAvailable() {
+        ProductDO productDO = new ProductDO();
+        productDO.setTitle("test_reserve_refresh");
+        productDO.setAmount(BigDecimal.ONE);
+        productDO.setOldAmount(BigDecimal.ONE);
+        productDO.setStock(STOCK);
+        productDO.setLockStock(5);
+        productDO.setCreateTime(new Date());
+        productMapper.insert(productDO);
+        productIdList.add(productDO.getId());
+        String availableKey = String.format(CacheKey.STOCK_AVAILABLE_KEY, productDO.getId());
+        redisTemplate.opsForValue().set(availableKey, "0");
+
+        String outTradeNo = "test_reserve_refresh";
+        outTradeNoQueue.add(outTradeNo);
+        Map<Long, Integer> itemMap = new TreeMap<>();
+        itemMap.put(productDO.getId(), 10);
+        itemMap.put(PRODUCT_A, 3);
+
+        //数据库补货后redis还是旧值，预占失败
+        Assert.assertFalse(inventoryReservation.reserve(outTradeNo, itemMap));
+        Assert.assertEquals(1, inventoryReservation.refreshAvailable(Collections.singletonList(productDO.getId())));
+        Assert.assertEquals(String.valueOf(STOCK - 5), redisTemplate.opsForValue().get(availableKey));
+
+        Assert.assertTrue(inventoryReservation.reserve(outTradeNo, itemMap));
+        inventoryReservation.refreshAvailable(Collections.singletonList(productDO.getId()));
+        Assert.assertEquals(String.valueOf(STOCK - 5 - 10), redisTemplate.opsForValue().get(availableKey));
+
+        inventoryReservation.discardReserved(outTradeNo);
+        inventoryReservation.refreshAvailable(Collections.singletonList(productDO.getId()));
+        Assert.assertEquals(String.valueOf(STOCK - 5), redisTemplate.opsForValue().get(availableKey));
+        Assert.assertTrue(inventoryReservation.getReservedItems(outTradeNo).isEmpty());
+    }
+}
@@ -0,0 +1,114 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.util.InvertedIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 倒排索引不依赖容器，直接测
+ */
+@Slf4j
+public class InvertedIndexTest {
+
+    @Test
+    public void testTokenize() {
+        Assert.assertEquals(Arrays.asList("apple", "iphone", "13", "苹", "果", "手", "机", "苹果", "果手", "手机"),
+                InvertedIndex.tokenize("Apple iPhone13 苹果手机", false));
+        Assert.assertEquals(Arrays.asList("苹果", "果手", "手机", "iphone", "13"),
+                InvertedIndex.tokenize("苹果手机 iphone 13", true));
+    }
+
+    @Test
+    public void testSearchAndUpdate() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(1L, "苹果手机 iPhone13 黑色");
+        index.add(2L, "苹果汁 纯果汁 1L");
+        index.add(3L, "华为手机 Mate40");
+
+        Assert.assertArrayEquals(new long[]{1L}, index.search("苹果手机", 10));
+        Assert.assertArrayEquals(new long[]{3L, 1L}, index.search("手机", 10));
+        Assert.assertArrayEquals(new long[]{2L, 1L}, index.search("果", 10));
+
+        index.add(1L, "小米手机");
+        Assert.assertEquals(0, index.search("苹果手机", 10).length);
+        Assert.assertArrayEquals(new long[]{1L, 3L}, index.search("手机", 10));
+
+        index.remove(3L);
+        index.compact();
+        Assert.assertArrayEquals(new long[]{1L}, index.search("手机", 10));
+        Assert.assertEquals(2, index.size());
+    }
+
+    /**
+     * 对账用：按原文判断是否一致，key按升序返回，删除和压缩后保持正确
+     */
+    @Test
+    public void testContainsAndKeys() {
+        InvertedIndex index = new InvertedIndex();
+        index.add(3L, "华为手机");
+        index.add(1L, "苹果手机");
+        index.add(2L, "小米手机");
+
+        Assert.assertTrue(index.contains(1L, "苹果手机"));
+        Assert.assertFalse(index.contains(1L, "苹果手机 新款"));
+        Assert.assertFalse(index.contains(4L, "苹果手机"));
+        Assert.assertTrue(index.contains(4L, " "));
+
+        index.remove(2L);
+        index.add(1L, "苹果手机 新款");
+        index.compact();
+        Assert.assertArrayEquals(new long[]{1L, 3L}, index.keys());
+        Assert.assertTrue(index.contains(1L, "苹果手机 新款"));
+        Assert.assertTrue(index.contains(3L, "华为手机"));
+    }
+
+    /**
+     * 100万商品标题，统计索引内存和单线程qps
+     * 字表只有几十个字，倒排表比真实数据密，结果偏保守
+     */
+    @Test
+    public void testBenchmark() {
+        String chars = "手机电脑平板耳机音箱手表相机键盘鼠标显示器冰箱空调洗衣机电视机微波炉苹果华为小米联想戴尔索尼黑白红蓝色大小新款旗舰轻薄无线蓝牙运动智能家用办公游戏高清";
+        String[] brands = {"Apple", "Huawei", "Xiaomi", "Lenovo", "Dell", "Sony"};
+        int total = 1000000;
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long begin = System.currentTimeMillis();
+
+        InvertedIndex index = new InvertedIndex();
+        Random random = new Random(7);
+        for (int i = 1; i <= total; i++) {
+            StringBuilder title = new StringBuilder(brands[random.nextInt(brands.length)]).append(' ');
+            int length = 8 + random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                title.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            title.append(' ').append(random.nextInt(1000)).append('G');
+            index.add(i, title.toString());
+        }
+        index.compact();
+        long buildCost = System.currentTimeMillis() - begin;
+        System.gc();
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        log.info("构建耗时:{}ms，词数:{}，倒排表:{}MB，堆增长约:{}MB", buildCost, index.termCount(),
+                index.postingBytes() >> 20, (usedAfter - usedBefore) >> 20);
+
+        String[] queries = {"苹果手机", "华为 平板", "无线蓝牙耳机", "小米 电视机", "游戏键盘鼠标", "Dell 显示器 27"};
+        for (String query : queries) {
+            long start = System.nanoTime();
+            int count = 0;
+            while (System.nanoTime() - start < 1000000000L) {
+                index.search(query, 20);
+                count++;
+            }
+            log.info("查询:{} qps:{}", query, count);
+        }
+        Assert.assertEquals(total, index.size());
+    }
+}
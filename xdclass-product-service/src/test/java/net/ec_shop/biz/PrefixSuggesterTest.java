@@ -0,0 +1,77 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.util.PrefixSuggester;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * 联想词典不依赖容器，直接测
+ */
+@Slf4j
+public class PrefixSuggesterTest {
+
+    @Test
+    public void testSuggest() {
+        PrefixSuggester suggester = PrefixSuggester.builder()
+                .add("Apple iPhone 13 黑色", 50)
+                .add("apple watch", 80)
+                .add("华为 Mate40 手机", 30)
+                .add("iPhone 充电器", 90)
+                .add("Apple iPhone 13 黑色", 10)
+                .build();
+
+        Assert.assertEquals(4, suggester.size());
+        Assert.assertEquals(Arrays.asList("apple watch", "Apple iPhone 13 黑色"), suggester.suggest("APP", 10));
+        //标题中间的词也能联想到，同一标题不重复
+        Assert.assertEquals(Arrays.asList("iPhone 充电器", "Apple iPhone 13 黑色"), suggester.suggest("iph", 10));
+        Assert.assertEquals(Collections.singletonList("iPhone 充电器"), suggester.suggest("iph", 1));
+        Assert.assertEquals(Collections.singletonList("华为 Mate40 手机"), suggester.suggest("mate", 5));
+        Assert.assertTrue(suggester.suggest("x", 5).isEmpty());
+        Assert.assertTrue(suggester.suggest(" ", 5).isEmpty());
+    }
+
+    /**
+     * 100万商品标题，统计占用内存和查询耗时
+     */
+    @Test
+    public void testBenchmark() {
+        String chars = "手机电脑平板耳机音箱手表相机键盘鼠标显示器冰箱空调洗衣机电视机微波炉苹果华为小米联想戴尔索尼黑白红蓝色大小新款旗舰轻薄无线蓝牙运动智能家用办公游戏高清";
+        String[] brands = {"Apple", "Huawei", "Xiaomi", "Lenovo", "Dell", "Sony"};
+        int total = 1000000;
+
+        long begin = System.currentTimeMillis();
+        PrefixSuggester.Builder builder = PrefixSuggester.builder();
+        Random random = new Random(7);
+        for (int i = 1; i <= total; i++) {
+            StringBuilder title = new StringBuilder(brands[random.nextInt(brands.length)]).append(' ');
+            int length = 8 + random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                title.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            title.append(' ').append(random.nextInt(1000)).append('G');
+            builder.add(title.toString(), random.nextInt(100000));
+        }
+        PrefixSuggester suggester = builder.build();
+        log.info("构建耗时:{}ms，候选数:{}，占用:{}MB", System.currentTimeMillis() - begin,
+                suggester.size(), suggester.memoryBytes() >> 20);
+
+        String[] prefixes = {"a", "apple ", "huawei 手", "手机", "sony 蓝牙耳"};
+        for (String prefix : prefixes) {
+            int rounds = 200000;
+            for (int i = 0; i < rounds / 10; i++) {
+                suggester.suggest(prefix, 10);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                suggester.suggest(prefix, 10);
+            }
+            log.info("前缀:{} 平均耗时:{}ns", prefix, (System.nanoTime() - start) / rounds);
+        }
+        Assert.assertEquals(10, suggester.suggest("a", 10).size());
+    }
+}
@@ -0,0 +1,71 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.ProductApplication;
+import net.ec_shop.component.ProductSalesRanking;
+import net.ec_shop.constant.CacheKey;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ProductApplication.class)
+@Slf4j
+public class ProductSalesRankingTest {
+
+    /**
+     * 不存在的商品id，销量足够大排到最前面
+     */
+    private static final long FIRST = -1001L;
+
+    private static final long SECOND = -1002L;
+
+    @Autowired
+    private ProductSalesRanking productSalesRanking;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @After
+    public void clean() {
+        long hour = System.currentTimeMillis() / TimeUnit.HOURS.toMillis(1);
+        long day = LocalDate.now().toEpochDay();
+        for (String name : new String[]{"total", "24h", "7d", "hour:" + hour, "day:" + day}) {
+            redisTemplate.opsForZSet().remove(String.format(CacheKey.PRODUCT_RANK_KEY, name),
+                    String.valueOf(FIRST), String.valueOf(SECOND));
+        }
+    }
+
+    /**
+     * 多次记录的销量累加，三个排行的快照都按销量倒序
+     */
+    @Test
+    public void testRecordAndTop() {
+        Map<Long, Integer> salesMap = new HashMap<>();
+        salesMap.put(FIRST, 500000000);
+        salesMap.put(SECOND, 400000000);
+        productSalesRanking.record(salesMap);
+        productSalesRanking.record(Collections.singletonMap(SECOND, 50000000));
+
+        productSalesRanking.rollover();
+        productSalesRanking.refresh();
+
+        for (String ranking : ProductSalesRanking.RANKINGS) {
+            long[] top = productSalesRanking.top(ranking, 2);
+            Assert.assertArrayEquals(ranking, new long[]{FIRST, SECOND}, top);
+        }
+        Double score = redisTemplate.opsForZSet().score(String.format(CacheKey.PRODUCT_RANK_KEY, "24h"), String.valueOf(SECOND));
+        Assert.assertEquals(450000000, score.longValue());
+    }
+}
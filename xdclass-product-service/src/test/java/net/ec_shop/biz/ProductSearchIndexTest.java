@@ -0,0 +1,92 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.ProductApplication;
+import net.ec_shop.component.ProductSearchIndex;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.model.ProductDO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ProductApplication.class)
+@Slf4j
+public class ProductSearchIndexTest {
+
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    private Long productId;
+
+    @After
+    public void clean() {
+        if (productId != null) {
+            productMapper.deleteById(productId);
+        }
+    }
+
+    /**
+     * 直接改库改名、删除商品，对账后旧标题搜不到，新标题搜得到，删除后都搜不到
+     */
+    @Test
+    public void testRenameAndRemove() throws Exception {
+        ProductDO productDO = new ProductDO();
+        productDO.setTitle("testsearch oldtitleqz");
+        productDO.setAmount(BigDecimal.ONE);
+        productDO.setOldAmount(BigDecimal.ONE);
+        productDO.setStock(1);
+        productDO.setLockStock(0);
+        productDO.setCreateTime(new Date());
+        productMapper.insert(productDO);
+        productId = productDO.getId();
+
+        productSearchIndex.syncNewProducts();
+        Assert.assertTrue(matches("oldtitleqz"));
+
+        ProductDO renamed = new ProductDO();
+        renamed.setId(productId);
+        renamed.setTitle("testsearch newtitleqz");
+        productMapper.updateById(renamed);
+        productSearchIndex.verify();
+        Assert.assertTrue(await("newtitleqz", true));
+        Assert.assertFalse(matches("oldtitleqz"));
+
+        productMapper.deleteById(productId);
+        productSearchIndex.verify();
+        Assert.assertTrue(await("newtitleqz", false));
+    }
+
+    private boolean matches(String keyword) {
+        for (long id : productSearchIndex.search(keyword, 10)) {
+            if (id == productId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 变更通过topic通知，异步重新加载
+     */
+    private boolean await(String keyword, boolean expected) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (matches(keyword) == expected) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+package net.ec_shop.biz;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.ProductApplication;
+import net.ec_shop.enums.StockTaskStateEnum;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.mapper.ProductTaskMapper;
+import net.ec_shop.model.ProductDO;
+import net.ec_shop.model.ProductTaskDO;
+import net.ec_shop.task.StockReconcileTask;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ProductApplication.class)
+@Slf4j
+public class StockReconcileTaskTest {
+
+    @Autowired
+    private StockReconcileTask stockReconcileTask;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private ProductTaskMapper productTaskMapper;
+
+    private final List<Long> productIdList = new ArrayList<>();
+
+    private final List<Long> taskIdList = new ArrayList<>();
+
+    @After
+    public void clean() {
+        if (!productIdList.isEmpty()) {
+            productMapper.deleteBatchIds(productIdList);
+        }
+        if (!taskIdList.isEmpty()) {
+            productTaskMapper.deleteBatchIds(taskIdList);
+        }
+    }
+
+    /**
+     * lock_stock多了或者少了都修复成LOCK和FINISH任务的合计，取消的任务不算
+     * 只核对本用例创建的商品id范围，不跑完整对账，不碰共享库里的其他商品和超时任务
+     */
+    @Test
+    public void testRepairDrift() {
+        long inflated = createProduct(100, 8);
+        createTask(inflated, 2, StockTaskStateEnum.LOCK);
+        createTask(inflated, 1, StockTaskStateEnum.FINISH);
+        createTask(inflated, 5, StockTaskStateEnum.CANCEL);
+
+        long missing = createProduct(100, 0);
+        createTask(missing, 4, StockTaskStateEnum.LOCK);
+
+        long consistent = createProduct(100, 3);
+        createTask(consistent, 3, StockTaskStateEnum.FINISH);
+
+        long[] result = ReflectionTestUtils.invokeMethod(stockReconcileTask, "reconcileRange", inflated - 1, consistent);
+
+        Assert.assertEquals(2, result[0]);
+        Assert.assertEquals(9, result[1]);
+        Assert.assertEquals(2, result[2]);
+        Assert.assertEquals(3, productMapper.selectById(inflated).getLockStock().intValue());
+        Assert.assertEquals(4, productMapper.selectById(missing).getLockStock().intValue());
+        Assert.assertEquals(3, productMapper.selectById(consistent).getLockStock().intValue());
+    }
+
+    private long createProduct(int stock, int lockStock) {
+        ProductDO productDO = new ProductDO();
+        productDO.setTitle("test_reconcile");
+        productDO.setAmount(BigDecimal.ONE);
+        productDO.setOldAmount(BigDecimal.ONE);
+        productDO.setStock(stock);
+        productDO.setLockStock(lockStock);
+        productDO.setCreateTime(new Date());
+        productMapper.insert(productDO);
+        productIdList.add(productDO.getId());
+        return productDO.getId();
+    }
+
+    private void createTask(long productId, int buyNum, StockTaskStateEnum state) {
+        ProductTaskDO productTaskDO = new ProductTaskDO();
+        productTaskDO.setProductId(productId);
+        productTaskDO.setBuyNum(buyNum);
+        productTaskDO.setProductName("test_reconcile");
+        productTaskDO.setLockState(state.name());
+        productTaskDO.setOutTradeNo("test_reconcile_" + productId);
+        productTaskDO.setCreateTime(new Date());
+        productTaskMapper.insert(productTaskDO);
+        taskIdList.add(productTaskDO.getId());
+    }
+}
@@ -0,0 +1,176 @@
+package net.ec_shop.biz;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import net.ec_shop.ProductApplication;
+import net.ec_shop.component.StockWriteCombiner;
+import net.ec_shop.exception.BizException;
+import net.ec_shop.mapper.ProductMapper;
+import net.ec_shop.mapper.ProductTaskMapper;
+import net.ec_shop.model.ProductDO;
+import net.ec_shop.model.ProductTaskDO;
+import net.ec_shop.request.LockProductRequest;
+import net.ec_shop.request.OrderItemRequest;
+import net.ec_shop.service.ProductService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ProductApplication.class, properties = "productconfig.stock_combine_enabled=true")
+@Slf4j
+public class StockWriteCombinerTest {
+
+    private static final String OUT_TRADE_NO_PREFIX = "test_combine_";
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private StockWriteCombiner stockWriteCombiner;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private ProductTaskMapper productTaskMapper;
+
+    private final List<Long> productIdList = new ArrayList<>();
+
+    private final AtomicInteger orderSeq = new AtomicInteger();
+
+    /**
+     * 先删库存锁定任务，之后到达的延迟释放消息找不到任务直接跳过，不会再去释放已删除商品的库存
+     * 超时的请求要么撤回要么等到事务提交，runOrders返回后不会再有新任务写入
+     */
+    @After
+    public void clean() {
+        ReflectionTestUtils.setField(stockWriteCombiner, "enabled", true);
+        productTaskMapper.delete(new QueryWrapper<ProductTaskDO>().likeRight("out_trade_no", OUT_TRADE_NO_PREFIX));
+        if (!productIdList.isEmpty()) {
+            productMapper.deleteBatchIds(productIdList);
+        }
+    }
+
+    /**
+     * 多线程抢两个商品，每单两个商品各买1-3件，锁定总量不能超过库存，且一个订单要么都锁定要么都不锁定
+     */
+    @Test
+    public void testNoOversell() throws Exception {
+        int stock = 100;
+        List<Long> idList = createProducts(2, stock);
+        ConcurrentHashMap<Long, AtomicLong> lockedMap = new ConcurrentHashMap<>();
+
+        runOrders(32, 20, () -> {
+            LockProductRequest request = newRequest();
+            for (Long productId : idList) {
+                request.getOrderItemList().add(newItem(productId, ThreadLocalRandom.current().nextInt(1, 4)));
+            }
+            return request;
+        }, request -> {
+            for (OrderItemRequest item : request.getOrderItemList()) {
+                lockedMap.computeIfAbsent(item.getProductId(), key -> new AtomicLong()).addAndGet(item.getBuyNum());
+            }
+        });
+
+        for (Long productId : idList) {
+            ProductDO productDO = productMapper.selectById(productId);
+            long locked = lockedMap.getOrDefault(productId, new AtomicLong()).get();
+            log.info("商品={}，锁定={}，库存={}", productId, productDO.getLockStock(), stock);
+            Assert.assertEquals(locked, productDO.getLockStock().longValue());
+            Assert.assertTrue(productDO.getLockStock() <= stock);
+        }
+    }
+
+    /**
+     * 1、10、100个热点商品，逐单update和写合并的吞吐、耗时对比，库存充足，每单一个商品一件
+     */
+    @Test
+    public void testContention() throws Exception {
+        for (int hot : Arrays.asList(1, 10, 100)) {
+            List<Long> idList = createProducts(hot, Integer.MAX_VALUE / 2);
+            for (boolean combine : new boolean[]{false, true}) {
+                ReflectionTestUtils.setField(stockWriteCombiner, "enabled", combine);
+                AtomicInteger locked = new AtomicInteger();
+                long begin = System.nanoTime();
+                long[] costs = runOrders(64, 50, () -> {
+                    LockProductRequest request = newRequest();
+                    long productId = idList.get(ThreadLocalRandom.current().nextInt(idList.size()));
+                    request.getOrderItemList().add(newItem(productId, 1));
+                    return request;
+                }, request -> locked.incrementAndGet());
+                long elapsed = System.nanoTime() - begin;
+
+                Arrays.sort(costs);
+                log.info("热点商品数={}，写合并={}，成功={}/{}，吞吐={}单/秒，p50={}ms p99={}ms", hot, combine, locked.get(), costs.length,
+                        costs.length * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                        costs[costs.length / 2] / 1000 / 1000, costs[costs.length * 99 / 100] / 1000 / 1000);
+                Assert.assertEquals(costs.length, locked.get());
+            }
+        }
+    }
+
+    private List<Long> createProducts(int count, int stock) {
+        List<Long> idList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ProductDO productDO = new ProductDO();
+            productDO.setTitle("test_combine");
+            productDO.setAmount(BigDecimal.ONE);
+            productDO.setOldAmount(BigDecimal.ONE);
+            productDO.setStock(stock);
+            productDO.setLockStock(0);
+            productDO.setCreateTime(new Date());
+            productMapper.insert(productDO);
+            idList.add(productDO.getId());
+        }
+        productIdList.addAll(idList);
+        return idList;
+    }
+
+    /**
+     * 多线程下单，返回每单耗时，纳秒；锁定成功的订单交给onLocked
+     */
+    private long[] runOrders(int threads, int ordersPerThread, Supplier<LockProductRequest> supplier, Consumer<LockProductRequest> onLocked) throws Exception {
+        return ConcurrentRunner.run(threads, ordersPerThread, (thread, round) -> {
+            LockProductRequest request = supplier.get();
+            try {
+                productService.lockProductStock(request);
+                onLocked.accept(request);
+            } catch (BizException e) {
+                //库存不足
+            }
+        });
+    }
+
+    private LockProductRequest newRequest() {
+        LockProductRequest request = new LockProductRequest();
+        request.setOrderOutTradeNo(OUT_TRADE_NO_PREFIX + orderSeq.incrementAndGet());
+        request.setOrderItemList(new ArrayList<>());
+        return request;
+    }
+
+    private OrderItemRequest newItem(long productId, int buyNum) {
+        OrderItemRequest item = new OrderItemRequest();
+        item.setProductId(productId);
+        item.setBuyNum(buyNum);
+        return item;
+    }
+}